@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Map from packed 48-bit Bluetooth addresses to values, bounded by an approximate LRU policy.
+ *
+ * <p>Keys are open-addressed with linear probing into a table of entry indices, so lookups do not
+ * allocate. Lookups only take the read lock; they mark the entry as recently used, and inserts
+ * evict with the CLOCK (second chance) approximation of LRU once the table holds more than
+ * {@code maxSize} entries. Entries for which the eviction predicate returns false are never
+ * evicted; the predicate is evaluated under the write lock and must be cheap. Each entry has its
+ * reference bit cleared at most once per access, so eviction is amortized O(1).
+ */
+final class RemoteDeviceTable<V> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final int mMaxSize;
+    private final Predicate<V> mEvictable;
+
+    // Open addressing table holding entry index + 1, 0 for an empty slot.
+    @GuardedBy("mLock")
+    private int[] mTable = new int[INITIAL_CAPACITY * 2];
+    @GuardedBy("mLock")
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    @GuardedBy("mLock")
+    private Object[] mValues = new Object[INITIAL_CAPACITY];
+    // Written under the read lock; a lost update only affects the eviction order.
+    private boolean[] mReferenced = new boolean[INITIAL_CAPACITY];
+    @GuardedBy("mLock")
+    private int[] mFreeNext = new int[INITIAL_CAPACITY];
+    @GuardedBy("mLock")
+    private int mFreeHead = -1;
+    @GuardedBy("mLock")
+    private int mEntryCount;
+    @GuardedBy("mLock")
+    private int mSize;
+    @GuardedBy("mLock")
+    private int mClockHand;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    @GuardedBy("mLock")
+    private long mEvictions;
+
+    RemoteDeviceTable(int maxSize, Predicate<V> evictable) {
+        mMaxSize = maxSize;
+        mEvictable = evictable;
+    }
+
+    /** Packs a 6 byte address, most significant byte first, into a key. */
+    static long toKey(byte[] address) {
+        long key = 0;
+        for (int i = 0; i < 6; i++) {
+            key = (key << 8) | (address[i] & 0xFF);
+        }
+        return key;
+    }
+
+    /** Packs an address of the form "00:11:22:AA:BB:CC" into a key. */
+    static long toKey(String address) {
+        long key = 0;
+        for (int i = 0; i < 6; i++) {
+            int offset = i * 3;
+            key = (key << 8) | (Character.digit(address.charAt(offset), 16) << 4)
+                    | Character.digit(address.charAt(offset + 1), 16);
+        }
+        return key;
+    }
+
+    V get(long key) {
+        mLock.readLock().lock();
+        try {
+            int entry = findEntry(key);
+            if (entry < 0) {
+                mMisses.incrementAndGet();
+                return null;
+            }
+            mHits.incrementAndGet();
+            mReferenced[entry] = true;
+            return value(entry);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Maps the key to the value and returns the previous value. Inserting a new key may evict the
+     * least recently used evictable entry.
+     */
+    V put(long key, V value) {
+        mLock.writeLock().lock();
+        try {
+            int entry = findEntry(key);
+            if (entry >= 0) {
+                V previous = value(entry);
+                mValues[entry] = value;
+                mReferenced[entry] = true;
+                return previous;
+            }
+            if (mSize >= mMaxSize) {
+                evictOne();
+            }
+            insert(key, value);
+            return null;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    V remove(long key) {
+        mLock.writeLock().lock();
+        try {
+            int slot = findSlot(key);
+            if (mTable[slot] == 0) {
+                return null;
+            }
+            int entry = mTable[slot] - 1;
+            V previous = value(entry);
+            deleteSlot(slot);
+            freeEntry(entry);
+            return previous;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        mLock.readLock().lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    int getMaxSize() {
+        return mMaxSize;
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    long getEvictionCount() {
+        mLock.readLock().lock();
+        try {
+            return mEvictions;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        mLock.writeLock().lock();
+        try {
+            Arrays.fill(mTable, 0);
+            Arrays.fill(mValues, null);
+            Arrays.fill(mReferenced, false);
+            mFreeHead = -1;
+            mEntryCount = 0;
+            mSize = 0;
+            mClockHand = 0;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /** Calls the action for every value while holding the read lock. */
+    void forEachValue(Consumer<V> action) {
+        mLock.readLock().lock();
+        try {
+            for (int entry = 0; entry < mEntryCount; entry++) {
+                if (mValues[entry] != null) {
+                    action.accept(value(entry));
+                }
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int entry) {
+        return (V) mValues[entry];
+    }
+
+    private static int hash(long key) {
+        int h = Long.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Returns the slot holding the key, or the empty slot where it would be inserted.
+    private int findSlot(long key) {
+        int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        while (mTable[slot] != 0 && mKeys[mTable[slot] - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int findEntry(long key) {
+        return mTable[findSlot(key)] - 1;
+    }
+
+    private void insert(long key, V value) {
+        int entry;
+        if (mFreeHead >= 0) {
+            entry = mFreeHead;
+            mFreeHead = mFreeNext[entry];
+        } else {
+            if (mEntryCount == mKeys.length) {
+                int capacity = mKeys.length * 2;
+                mKeys = Arrays.copyOf(mKeys, capacity);
+                mValues = Arrays.copyOf(mValues, capacity);
+                mReferenced = Arrays.copyOf(mReferenced, capacity);
+                mFreeNext = Arrays.copyOf(mFreeNext, capacity);
+            }
+            entry = mEntryCount++;
+        }
+        mKeys[entry] = key;
+        mValues[entry] = value;
+        mReferenced[entry] = true;
+        mSize++;
+        // Keep the load factor at or below one half.
+        if (mSize * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        } else {
+            mTable[findSlot(key)] = entry + 1;
+        }
+    }
+
+    private void rehash(int tableLength) {
+        mTable = new int[tableLength];
+        for (int entry = 0; entry < mEntryCount; entry++) {
+            if (mValues[entry] != null) {
+                mTable[findSlot(mKeys[entry])] = entry + 1;
+            }
+        }
+    }
+
+    // Backward shift deletion, so that lookups never need tombstones.
+    private void deleteSlot(int slot) {
+        int mask = mTable.length - 1;
+        int hole = slot;
+        mTable[hole] = 0;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            int entry = mTable[next];
+            if (entry == 0) {
+                return;
+            }
+            int home = hash(mKeys[entry - 1]) & mask;
+            boolean homeInRange = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (!homeInRange) {
+                mTable[hole] = entry;
+                mTable[next] = 0;
+                hole = next;
+            }
+        }
+    }
+
+    private void freeEntry(int entry) {
+        mValues[entry] = null;
+        mReferenced[entry] = false;
+        mFreeNext[entry] = mFreeHead;
+        mFreeHead = entry;
+        mSize--;
+    }
+
+    // Sweeps at most two rounds: the first clears reference bits, the second finds a victim.
+    private void evictOne() {
+        for (int i = 0; i < mEntryCount * 2; i++) {
+            int entry = mClockHand;
+            mClockHand = (mClockHand + 1) % mEntryCount;
+            if (mValues[entry] == null || !mEvictable.test(value(entry))) {
+                continue;
+            }
+            if (mReferenced[entry]) {
+                mReferenced[entry] = false;
+                continue;
+            }
+            deleteSlot(findSlot(mKeys[entry]));
+            freeEntry(entry);
+            mEvictions++;
+            return;
+        }
+    }
+}
@@ -52,7 +52,7 @@ import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.ArrayDeque;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -64,8 +64,11 @@ final class RemoteDevices {
     private static final boolean DBG = false;
     private static final String TAG = "BluetoothRemoteDevices";
 
-    // Maximum number of device properties to remember
-    private static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    // Maximum number of non-bonded device properties to remember, overridable with
+    // DEVICE_TABLE_SIZE_PROPERTY
+    private static final int MAX_DEVICE_TABLE_SIZE = 200;
+    private static final String DEVICE_TABLE_SIZE_PROPERTY =
+            "persist.bluetooth.remote_device_cache_size";
 
     private BluetoothAdapter mAdapter;
     private AdapterService mAdapterService;
@@ -76,9 +79,9 @@ final class RemoteDevices {
     private static final int MESSAGE_UUID_INTENT = 1;
     private static final String LOG_SOURCE_DIS = "DIS";
 
-    private final HashMap<String, DeviceProperties> mDevices;
+    // Keyed by the packed address, see RemoteDeviceTable#toKey
+    private final RemoteDeviceTable<DeviceProperties> mDevices;
     private final HashMap<String, String> mDualDevicesMap;
-    private ArrayDeque<String> mDeviceQueue;
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -179,9 +182,11 @@ final class RemoteDevices {
         mAdapter = ((Context) service).getSystemService(BluetoothManager.class).getAdapter();
         mAdapterService = service;
         mSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
+        mDevices = new RemoteDeviceTable<>(
+                Math.max(1, SystemProperties.getInt(DEVICE_TABLE_SIZE_PROPERTY,
+                        MAX_DEVICE_TABLE_SIZE)),
+                prop -> !prop.isBondingOrBonded());
         mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new ArrayDeque<>();
         mHandler = new RemoteDevicesHandler(looper);
     }
 
@@ -223,35 +228,29 @@ final class RemoteDevices {
             mSdpTracker.clear();
         }
 
-        synchronized (mDevices) {
-            if (mDevices != null) {
-                debugLog("reset(): Broadcasting ACL_DISCONNECTED");
+        if (mDevices != null) {
+            debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-                mDevices.forEach((address, deviceProperties) -> {
-                    BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
+            mDevices.forEachValue(deviceProperties -> {
+                BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
 
-                    debugLog("reset(): address=" + address + ", connected="
-                            + bluetoothDevice.isConnected());
+                debugLog("reset(): address=" + bluetoothDevice.getAddress() + ", connected="
+                        + bluetoothDevice.isConnected());
 
-                    if (bluetoothDevice.isConnected()) {
-                        Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
-                        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
-                        intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
-                                | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-                        mAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT);
-                    }
-                });
-                mDevices.clear();
-            }
+                if (bluetoothDevice.isConnected()) {
+                    Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+                    intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
+                    intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
+                            | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
+                    mAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT);
+                }
+            });
+            mDevices.clear();
         }
 
         if (mDualDevicesMap != null) {
             mDualDevicesMap.clear();
         }
-
-        if (mDeviceQueue != null) {
-            mDeviceQueue.clear();
-        }
     }
 
     @Override
@@ -260,55 +259,50 @@ final class RemoteDevices {
     }
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
-        synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
-        }
+        String address = device.getAddress();
+        return getDeviceProperties(address, RemoteDeviceTable.toKey(address));
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
-        }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
+        // The dual device map is rarely populated; only format the address when it is.
+        String addressString =
+                mDualDevicesMap.isEmpty() ? null : Utils.getAddressStringFromByte(address);
+        DeviceProperties prop =
+                getDeviceProperties(addressString, RemoteDeviceTable.toKey(address));
         if (prop != null) {
             return prop.getDevice();
         }
         return null;
     }
 
-    @VisibleForTesting
-    DeviceProperties addDeviceProperties(byte[] address) {
-        synchronized (mDevices) {
-            DeviceProperties prop = new DeviceProperties();
-            prop.setDevice(mAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address)));
-            prop.setAddress(address);
-            String key = Utils.getAddressStringFromByte(address);
-            DeviceProperties pv = mDevices.put(key, prop);
-
-            if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
+    private DeviceProperties getDeviceProperties(String address, long key) {
+        if (address != null) {
+            String dualAddress = mDualDevicesMap.get(address);
+            if (dualAddress != null) {
+                DeviceProperties prop = mDevices.get(RemoteDeviceTable.toKey(dualAddress));
+                if (prop != null) {
+                    return prop;
                 }
             }
-            return prop;
         }
+        // If the device is not in the dual map, use its original address
+        return mDevices.get(key);
+    }
+
+    @VisibleForTesting
+    DeviceProperties addDeviceProperties(byte[] address) {
+        DeviceProperties prop = new DeviceProperties();
+        prop.setDevice(mAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address)));
+        prop.setAddress(address);
+        mDevices.put(RemoteDeviceTable.toKey(address), prop);
+        return prop;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("RemoteDevices:");
+        writer.println("  Device table: size=" + mDevices.size() + ", maxSize="
+                + mDevices.getMaxSize() + ", hits=" + mDevices.getHitCount() + ", misses="
+                + mDevices.getMissCount() + ", evictions=" + mDevices.getEvictionCount());
     }
 
     class DeviceProperties {
@@ -328,7 +322,8 @@ final class RemoteDevices {
         private int mAshaCapability;
         private int mAshaTruncatedHiSyncId;
         private String mModelName;
-        @VisibleForTesting int mBondState;
+        // Volatile, so that the eviction of the device table reads it without taking mObject.
+        @VisibleForTesting volatile int mBondState;
         @VisibleForTesting int mDeviceType;
         @VisibleForTesting ParcelUuid[] mUuids;
         private BluetoothSinkAudioPolicy mAudioPolicy;
@@ -577,17 +572,18 @@ final class RemoteDevices {
          * @return the mBondState
          */
         int getBondState() {
-            synchronized (mObject) {
-                return mBondState;
-            }
+            return mBondState;
         }
 
         boolean isBonding() {
             return getBondState() == BluetoothDevice.BOND_BONDING;
         }
 
+        /** Called with the device table lock held, so it must not take mObject. */
         boolean isBondingOrBonded() {
-            return isBonding() || getBondState() == BluetoothDevice.BOND_BONDED;
+            int bondState = mBondState;
+            return bondState == BluetoothDevice.BOND_BONDING
+                    || bondState == BluetoothDevice.BOND_BONDED;
         }
 
         /**
@@ -1126,8 +1122,7 @@ final class RemoteDevices {
                 Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
                         Utils.getTempAllowlistBroadcastOptions());
             } else if (device.getBondState() == BluetoothDevice.BOND_NONE) {
-                String key = Utils.getAddressStringFromByte(address);
-                mDevices.remove(key);
+                mDevices.remove(RemoteDeviceTable.toKey(address));
             }
             if (state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_TURNING_OFF) {
                 intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
@@ -36,6 +36,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemProperties;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -51,6 +52,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -78,7 +80,26 @@ public class DatabaseManager {
     private static final int METADATA_CHANGED_LOG_MAX_SIZE = 20;
     private final EvictingQueue<String> mMetadataChangedLog;
 
+    // Metadata waiting to be written, keyed by address. Updates to the same address within the
+    // write coalescing window are committed once, all in a single transaction.
+    @GuardedBy("mPendingUpdates")
+    private final Map<String, Metadata> mPendingUpdates = new LinkedHashMap<>();
+    @GuardedBy("mPendingUpdates")
+    private boolean mFlushScheduled = false;
+    private long mWriteCoalescingWindowMs;
+    // Write amplification metrics
+    @GuardedBy("mPendingUpdates")
+    private long mUpdateRequestCount = 0;
+    @GuardedBy("mPendingUpdates")
+    private long mRowsWrittenCount = 0;
+    @GuardedBy("mPendingUpdates")
+    private long mTransactionCount = 0;
+
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
+    private static final int FLUSH_DATABASE_TIMEOUT = 500; // milliseconds
+    private static final String WRITE_COALESCING_WINDOW_PROPERTY =
+            "persist.bluetooth.database.write_coalescing_window_ms";
+    private static final int DEFAULT_WRITE_COALESCING_WINDOW = 100; // milliseconds
     private static final int MSG_LOAD_DATABASE = 0;
     private static final int MSG_UPDATE_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
@@ -116,6 +137,13 @@ public class DatabaseManager {
     public DatabaseManager(AdapterService service) {
         mAdapterService = service;
         mMetadataChangedLog = EvictingQueue.create(METADATA_CHANGED_LOG_MAX_SIZE);
+        mWriteCoalescingWindowMs = SystemProperties.getInt(WRITE_COALESCING_WINDOW_PROPERTY,
+                DEFAULT_WRITE_COALESCING_WINDOW);
+    }
+
+    @VisibleForTesting
+    void setWriteCoalescingWindowForTesting(long windowMs) {
+        mWriteCoalescingWindowMs = windowMs;
     }
 
     class DatabaseHandler extends Handler {
@@ -143,10 +171,7 @@ public class DatabaseManager {
                     break;
                 }
                 case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabaseLock) {
-                        mDatabase.insert(data);
-                    }
+                    flushPendingUpdates();
                     break;
                 }
                 case MSG_DELETE_DATABASE: {
@@ -966,6 +991,9 @@ public class DatabaseManager {
      */
     public void factoryReset() {
         Log.w(TAG, "factoryReset");
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+        }
         Message message = mHandler.obtainMessage(MSG_CLEAR_DATABASE);
         mHandler.sendMessage(message);
     }
@@ -977,7 +1005,15 @@ public class DatabaseManager {
         removeUnusedMetadata();
         mAdapterService.unregisterReceiver(mReceiver);
         if (mHandlerThread != null) {
-            mHandlerThread.quit();
+            // Commit pending updates before the handler thread goes away.
+            mHandler.removeMessages(MSG_UPDATE_DATABASE);
+            mHandler.sendMessage(mHandler.obtainMessage(MSG_UPDATE_DATABASE));
+            mHandlerThread.quitSafely();
+            try {
+                mHandlerThread.join(FLUSH_DATABASE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "cleanup: interrupted while flushing database");
+            }
             mHandlerThread = null;
         }
         mMetadataCache.clear();
@@ -1233,9 +1269,33 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        synchronized (mPendingUpdates) {
+            mUpdateRequestCount++;
+            mPendingUpdates.put(data.getAddress(), data);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_UPDATE_DATABASE),
+                        mWriteCoalescingWindowMs);
+            }
+        }
+    }
+
+    private void flushPendingUpdates() {
+        Metadata[] pending;
+        synchronized (mPendingUpdates) {
+            mFlushScheduled = false;
+            if (mPendingUpdates.isEmpty()) {
+                return;
+            }
+            pending = mPendingUpdates.values().toArray(new Metadata[0]);
+            mPendingUpdates.clear();
+            mRowsWrittenCount += pending.length;
+            mTransactionCount++;
+        }
+        synchronized (mDatabaseLock) {
+            // A multi-row insert runs in a single transaction.
+            mDatabase.insert(pending);
+        }
     }
 
     @VisibleForTesting
@@ -1246,6 +1306,10 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(data, "Metadata deleted");
+        // Drop a pending update, so that it does not bring the row back after the delete.
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
@@ -1300,6 +1364,12 @@ public class DatabaseManager {
      */
     public void dump(PrintWriter writer) {
         writer.println("\nBluetoothDatabase:");
+        synchronized (mPendingUpdates) {
+            writer.println("  Writes: requested=" + mUpdateRequestCount + ", rowsWritten="
+                    + mRowsWrittenCount + ", transactions=" + mTransactionCount + ", pending="
+                    + mPendingUpdates.size() + ", coalescingWindowMs="
+                    + mWriteCoalescingWindowMs);
+        }
         writer.println("  Metadata Changes:");
         for (String log : mMetadataChangedLog) {
             writer.println("    " + log);
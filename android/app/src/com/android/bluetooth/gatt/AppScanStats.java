@@ -93,6 +93,8 @@ import java.util.Objects;
         public boolean isBatchScan;
         public boolean isAutoBatchScan;
         public int results;
+        // Time from scan start to the first delivered result, -1 if none yet.
+        public long timeToFirstResultMs;
         public int scannerId;
         public int scanMode;
         public int scanCallbackType;
@@ -113,6 +115,7 @@ import java.util.Objects;
             this.scanMode = scanMode;
             this.scanCallbackType = scanCallbackType;
             this.results = 0;
+            this.timeToFirstResultMs = -1;
             this.scannerId = scannerId;
             this.suspendDuration = 0;
             this.suspendStartTime = 0;
@@ -164,6 +167,9 @@ import java.util.Objects;
     synchronized void addResult(int scannerId) {
         LastScan scan = getScanFromScannerId(scannerId);
         if (scan != null) {
+            if (scan.results == 0) {
+                scan.timeToFirstResultMs = SystemClock.elapsedRealtime() - scan.timestamp;
+            }
             scan.results++;
 
             // Only update battery stats after receiving 100 new results in order
@@ -726,6 +732,9 @@ import java.util.Objects;
                     sb.append("Filter ");
                 }
                 sb.append(scan.results + " results");
+                if (scan.timeToFirstResultMs >= 0) {
+                    sb.append(" (first after " + scan.timeToFirstResultMs + "ms)");
+                }
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
@@ -776,6 +785,9 @@ import java.util.Objects;
                     sb.append("Suspended ");
                 }
                 sb.append(scan.results + " results");
+                if (scan.timeToFirstResultMs >= 0) {
+                    sb.append(" (first after " + scan.timeToFirstResultMs + "ms)");
+                }
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.util.LongSparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser for controller batch scan reports.
+ *
+ * <p>Records are read in place from the report buffer, so the only per-record allocations are
+ * the scan record bytes of full results and the {@link ScanResult} itself. Remote devices are
+ * cached by their packed 48-bit address across reports, since the same devices tend to show up
+ * in every flush.
+ */
+class BatchScanResultParser {
+    private static final int ADDRESS_LENGTH = 6;
+    // Address, address type, tx power, rssi and timestamp.
+    private static final int FULL_RESULT_HEADER_SIZE = 11;
+    private static final int TRUNCATED_RESULT_SIZE = 11;
+    private static final int TRUNCATED_RESULT_RSSI_OFFSET = 8;
+    private static final int TRUNCATED_RESULT_TIMESTAMP_OFFSET = 9;
+    // Timestamps are reported in units of 50 ms.
+    private static final long TIMESTAMP_UNIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @VisibleForTesting
+    static final int MAX_CACHED_DEVICES = 256;
+
+    @GuardedBy("this")
+    private final LongSparseArray<BluetoothDevice> mDeviceCache = new LongSparseArray<>();
+
+    // Truncated results carry no advertising data; they all share the same empty record.
+    private final ScanRecord mEmptyScanRecord = ScanRecord.parseFromBytes(new byte[0]);
+
+    /**
+     * Parses {@code numRecords} truncated results from {@code batchRecord} into {@code results}.
+     */
+    synchronized void parseTruncatedResults(int numRecords, byte[] batchRecord, long nowNanos,
+            List<ScanResult> results) {
+        for (int i = 0; i < numRecords; ++i) {
+            int position = i * TRUNCATED_RESULT_SIZE;
+            BluetoothDevice device = getDevice(batchRecord, position);
+            int rssi = batchRecord[position + TRUNCATED_RESULT_RSSI_OFFSET];
+            long timestampNanos = nowNanos
+                    - parseTimestampNanos(batchRecord, position + TRUNCATED_RESULT_TIMESTAMP_OFFSET);
+            results.add(new ScanResult(device, mEmptyScanRecord, rssi, timestampNanos));
+        }
+    }
+
+    /**
+     * Parses all full results from {@code batchRecord} into {@code results}. The advertising data
+     * and scan response of each record are combined into a single scan record.
+     */
+    synchronized void parseFullResults(byte[] batchRecord, long nowNanos,
+            List<ScanResult> results) {
+        int position = 0;
+        while (position < batchRecord.length) {
+            BluetoothDevice device = getDevice(batchRecord, position);
+            // Skip address type and tx power level.
+            int rssi = batchRecord[position + ADDRESS_LENGTH + 2];
+            long timestampNanos =
+                    nowNanos - parseTimestampNanos(batchRecord, position + ADDRESS_LENGTH + 3);
+            position += FULL_RESULT_HEADER_SIZE;
+
+            int advertisePacketLen = batchRecord[position++];
+            int advertiseStart = position;
+            position += advertisePacketLen;
+            int scanResponsePacketLen = batchRecord[position++];
+            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
+            System.arraycopy(batchRecord, advertiseStart, scanRecord, 0, advertisePacketLen);
+            System.arraycopy(batchRecord, position, scanRecord, advertisePacketLen,
+                    scanResponsePacketLen);
+            position += scanResponsePacketLen;
+            results.add(new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
+                    timestampNanos));
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getCachedDeviceCount() {
+        return mDeviceCache.size();
+    }
+
+    // The address is stored in little endian order.
+    private BluetoothDevice getDevice(byte[] batchRecord, int position) {
+        long packedAddress = 0;
+        for (int i = ADDRESS_LENGTH - 1; i >= 0; i--) {
+            packedAddress = (packedAddress << 8) | (batchRecord[position + i] & 0xFF);
+        }
+        BluetoothDevice device = mDeviceCache.get(packedAddress);
+        if (device != null) {
+            return device;
+        }
+        byte[] address = new byte[ADDRESS_LENGTH];
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            address[i] = batchRecord[position + ADDRESS_LENGTH - 1 - i];
+        }
+        device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        if (mDeviceCache.size() >= MAX_CACHED_DEVICES) {
+            mDeviceCache.clear();
+        }
+        mDeviceCache.put(packedAddress, device);
+        return device;
+    }
+
+    static long parseTimestampNanos(byte[] batchRecord, int position) {
+        int timestampUnit = (batchRecord[position] & 0xFF)
+                | ((batchRecord[position + 1] & 0xFF) << 8);
+        return timestampUnit * TIMESTAMP_UNIT_NANOS;
+    }
+}
@@ -64,6 +64,7 @@ import android.net.MacAddress;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.ParcelUuid;
@@ -87,7 +88,6 @@ import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.CompanionManager;
 import com.android.bluetooth.btservice.ProfileService;
-import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
@@ -103,7 +103,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 /**
@@ -123,7 +122,6 @@ public class GattService extends ProfileService {
 
     private static final int MAC_ADDRESS_LENGTH = 6;
     // Batch scan related constants.
-    private static final int TRUNCATED_RESULT_SIZE = 11;
     private static final int TIME_STAMP_LENGTH = 2;
 
     private enum MatchOrigin {
@@ -154,6 +152,22 @@ public class GattService extends ProfileService {
     @VisibleForTesting
     static final long DEFAULT_REPORT_DELAY_FLOOR = 5000;
 
+    /**
+     * Device config keys for coalescing regular scan results into micro-batches. Coalescing is
+     * disabled while the latency is 0. It applies to PendingIntent scanners, which already receive
+     * results as lists, and to callback scanners of the listed packages, which then receive their
+     * results through onBatchScanResults.
+     */
+    private static final String SCAN_RESULT_COALESCING_LATENCY_MS =
+            "scan_result_coalescing_latency_ms";
+    private static final String SCAN_RESULT_COALESCING_MAX_BATCH_SIZE =
+            "scan_result_coalescing_max_batch_size";
+    private static final String SCAN_RESULT_COALESCING_PACKAGES =
+            "scan_result_coalescing_packages";
+    private static final int DEFAULT_SCAN_RESULT_COALESCING_MAX_BATCH_SIZE = 32;
+    // Bound of the per-scanner queue, in batches, before the oldest results are dropped.
+    private static final int SCAN_RESULT_COALESCING_MAX_PENDING_BATCHES = 8;
+
     // onFoundLost related constants
     private static final int ADVT_STATE_ONFOUND = 0;
     private static final int ADVT_STATE_ONLOST = 1;
@@ -289,6 +303,12 @@ public class GattService extends ProfileService {
     DistanceMeasurementManager mDistanceMeasurementManager;
     @VisibleForTesting
     ScanManager mScanManager;
+    private volatile ScanFilterIndex mScanFilterIndex;
+    private final BatchScanResultParser mBatchScanResultParser = new BatchScanResultParser();
+    @VisibleForTesting
+    ScanResultCoalescer mScanResultCoalescer;
+    private HandlerThread mScanResultCoalescerThread;
+    private final Set<String> mScanResultCoalescingPackages = new HashSet<>();
     private AppOpsManager mAppOps;
     private CompanionDeviceManager mCompanionManager;
     private String mExposureNotificationPackage;
@@ -358,6 +378,8 @@ public class GattService extends ProfileService {
         mDistanceMeasurementManager = new DistanceMeasurementManager(mAdapterService);
         mDistanceMeasurementManager.start();
 
+        initScanResultCoalescer();
+
         setGattService(this);
         return true;
     }
@@ -400,6 +422,35 @@ public class GattService extends ProfileService {
         if (mDistanceMeasurementManager != null) {
             mDistanceMeasurementManager.cleanup();
         }
+        if (mScanResultCoalescer != null) {
+            mScanResultCoalescer.cleanup();
+            mScanResultCoalescerThread.quitSafely();
+            mScanResultCoalescer = null;
+        }
+    }
+
+    private void initScanResultCoalescer() {
+        long latencyMs = DeviceConfig.getLong(DeviceConfig.NAMESPACE_BLUETOOTH,
+                SCAN_RESULT_COALESCING_LATENCY_MS, 0);
+        if (latencyMs <= 0) {
+            return;
+        }
+        int maxBatchSize = DeviceConfig.getInt(DeviceConfig.NAMESPACE_BLUETOOTH,
+                SCAN_RESULT_COALESCING_MAX_BATCH_SIZE,
+                DEFAULT_SCAN_RESULT_COALESCING_MAX_BATCH_SIZE);
+        String packages = DeviceConfig.getString(DeviceConfig.NAMESPACE_BLUETOOTH,
+                SCAN_RESULT_COALESCING_PACKAGES, "");
+        mScanResultCoalescingPackages.clear();
+        for (String packageName : packages.split(",")) {
+            if (!packageName.trim().isEmpty()) {
+                mScanResultCoalescingPackages.add(packageName.trim());
+            }
+        }
+        mScanResultCoalescerThread = new HandlerThread("BluetoothScanResultCoalescer");
+        mScanResultCoalescerThread.start();
+        mScanResultCoalescer = new ScanResultCoalescer(mScanResultCoalescerThread.getLooper(),
+                this::sendCoalescedScanResults, latencyMs, maxBatchSize,
+                maxBatchSize * SCAN_RESULT_COALESCING_MAX_PENDING_BATCHES);
     }
 
     // While test mode is enabled, pretend as if the underlying stack
@@ -1945,9 +1996,23 @@ public class GattService extends ProfileService {
         }
 
 
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        // The advertisement is parsed at most once per data variant (legacy-truncated and full)
+        // and the resulting immutable ScanResult is shared across all matching clients.
+        BluetoothDevice device = null;
+        ScanResult legacyResult = null;
+        ScanResult fullResult = null;
+        long timestampNanos = SystemClock.elapsedRealtimeNanos();
+        Map<ScanClient, List<ScanFilter>> legacyCandidates = null;
+        Map<ScanClient, List<ScanFilter>> fullCandidates = null;
 
-        for (ScanClient client : mScanManager.getRegularScanQueue()) {
+        Set<ScanClient> clients = mScanManager.getRegularScanQueue();
+        ScanFilterIndex filterIndex = mScanFilterIndex;
+        if (filterIndex == null || !filterIndex.isBuiltFrom(clients)) {
+            filterIndex = new ScanFilterIndex(clients);
+            mScanFilterIndex = filterIndex;
+        }
+
+        for (ScanClient client : clients) {
             ScannerMap.App app = mScannerMap.getById(client.scannerId);
             if (app == null) {
                 if (VDBG) {
@@ -1956,33 +2021,45 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device =
-                BluetoothAdapter.getDefaultAdapter().getRemoteLeDevice(address, addressType);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
             // This is for compability with applications that assume fixed size scan data.
+            if (settings.getLegacy() && (eventType & ET_LEGACY_MASK) == 0) {
+                // If this is legacy scan, but nonlegacy result - skip.
+                if (VDBG) {
+                    Log.d(TAG, "Legacy scan, non legacy result; skip.");
+                }
+                continue;
+            }
+
+            if (device == null) {
+                device = BluetoothAdapter.getDefaultAdapter()
+                        .getRemoteLeDevice(address, addressType);
+            }
+
+            ScanResult result;
+            Map<ScanClient, List<ScanFilter>> candidates;
             if (settings.getLegacy()) {
-                if ((eventType & ET_LEGACY_MASK) == 0) {
-                    // If this is legacy scan, but nonlegacy result - skip.
-                    if (VDBG) {
-                        Log.d(TAG, "Legacy scan, non legacy result; skip.");
-                    }
-                    continue;
-                } else {
+                if (legacyResult == null) {
                     // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+                    byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+                    legacyResult = new ScanResult(device, eventType, primaryPhy, secondaryPhy,
+                            advertisingSid, txPower, rssi, periodicAdvInt,
+                            ScanRecord.parseFromBytes(legacyAdvData), timestampNanos);
+                    legacyCandidates = filterIndex.getCandidates(legacyResult, originalAddress);
                 }
+                result = legacyResult;
+                candidates = legacyCandidates;
             } else {
-                scanRecordData = advData;
+                if (fullResult == null) {
+                    fullResult = new ScanResult(device, eventType, primaryPhy, secondaryPhy,
+                            advertisingSid, txPower, rssi, periodicAdvInt,
+                            ScanRecord.parseFromBytes(advData), timestampNanos);
+                    fullCandidates = filterIndex.getCandidates(fullResult, originalAddress);
+                }
+                result = fullResult;
+                candidates = fullCandidates;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
-
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
                     Log.i(TAG, "Skipping client for location deny list");
@@ -2004,9 +2081,13 @@ public class GattService extends ProfileService {
                 if (sanitized != null) {
                     hasPermission = true;
                     result = sanitized;
+                    // The index was queried with the unsanitized record; match linearly instead.
+                    candidates = null;
                 }
             }
-            MatchResult matchResult = matchesFilters(client, result, originalAddress);
+            MatchResult matchResult = candidates != null
+                    ? matchesFilters(client, candidates.get(client), result, originalAddress)
+                    : matchesFilters(client, result, originalAddress);
             if (!hasPermission || !matchResult.getMatches()) {
                 if (VDBG) {
                     Log.d(TAG, "Skipping client: permission="
@@ -2024,6 +2105,14 @@ public class GattService extends ProfileService {
                 continue;
             }
 
+            ScanResultCoalescer coalescer = mScanResultCoalescer;
+            if (coalescer != null && (app.callback == null
+                    || mScanResultCoalescingPackages.contains(app.name))) {
+                app.appScanStats.addResult(client.scannerId);
+                coalescer.add(client.scannerId, result);
+                continue;
+            }
+
             try {
                 app.appScanStats.addResult(client.scannerId);
                 if (app.callback != null) {
@@ -2043,6 +2132,26 @@ public class GattService extends ProfileService {
         }
     }
 
+    // Called on the coalescer thread with a micro-batch of regular scan results.
+    private void sendCoalescedScanResults(int scannerId, ArrayList<ScanResult> results) {
+        ScannerMap.App app = mScannerMap.getById(scannerId);
+        if (app == null) {
+            return;
+        }
+        try {
+            if (app.callback != null) {
+                app.callback.onBatchScanResults(results);
+            } else {
+                sendResultsByPendingIntent(app.info, results,
+                        ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
+            }
+        } catch (RemoteException | PendingIntent.CanceledException e) {
+            Log.e(TAG, "Exception: " + e);
+            mScannerMap.remove(scannerId);
+            mScanManager.stopScan(scannerId);
+        }
+    }
+
     private void sendResultByPendingIntent(PendingIntentInfo pii, ScanResult result,
             int callbackType, ScanClient client) {
         ArrayList<ScanResult> results = new ArrayList<>();
@@ -2126,11 +2235,21 @@ public class GattService extends ProfileService {
     // Check if a scan record matches a specific filters or original address
     private MatchResult matchesFilters(ScanClient client, ScanResult scanResult,
             String originalAddress) {
+        return matchesFilters(client, client.filters, scanResult, originalAddress);
+    }
+
+    // Check if a scan record matches any of the candidate filters, as returned by the
+    // ScanFilterIndex, of a client or its original address
+    private MatchResult matchesFilters(ScanClient client, List<ScanFilter> candidates,
+            ScanResult scanResult, String originalAddress) {
         if (client.filters == null || client.filters.isEmpty()) {
             // TODO: Do we really wanna return true here?
             return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
         }
-        for (ScanFilter filter : client.filters) {
+        if (candidates == null) {
+            return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
+        }
+        for (ScanFilter filter : candidates) {
             // Need to check the filter matches, and the original address without changing the API
             if (filter.matches(scanResult)) {
                 return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
@@ -2709,7 +2828,7 @@ public class GattService extends ProfileService {
                     + ", reportType=" + reportType + ", numRecords=" + numRecords);
         }
 
-        Set<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
+        List<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
         if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
             // We only support single client for truncated mode.
             ScannerMap.App app = mScannerMap.getById(scannerId);
@@ -2793,142 +2912,64 @@ public class GattService extends ProfileService {
     }
 
     // Check and deliver scan results for different scan clients.
-    private void deliverBatchScan(ScanClient client, Set<ScanResult> allResults)
+    private void deliverBatchScan(ScanClient client, List<ScanResult> allResults)
             throws RemoteException {
         ScannerMap.App app = mScannerMap.getById(client.scannerId);
         if (app == null) {
             return;
         }
 
-        ArrayList<ScanResult> permittedResults;
-        if (hasScanResultPermission(client)) {
-            permittedResults = new ArrayList<ScanResult>(allResults);
-        } else {
-            permittedResults = new ArrayList<ScanResult>();
-            for (ScanResult scanResult : allResults) {
-                for (String associatedDevice : client.associatedDevices) {
-                    if (associatedDevice.equalsIgnoreCase(scanResult.getDevice().getAddress())) {
-                        permittedResults.add(scanResult);
-                    }
-                }
-            }
-            if (permittedResults.isEmpty()) {
-                return;
-            }
-        }
-
-        if (client.filters == null || client.filters.isEmpty()) {
-            sendBatchScanResults(app, client, permittedResults);
-            // TODO: Question to reviewer: Shouldn't there be a return here?
-        }
-        // Reconstruct the scan results.
+        // Check permission and filters in a single pass over the report.
+        boolean hasPermission = hasScanResultPermission(client);
+        boolean permitted = hasPermission;
         ArrayList<ScanResult> results = new ArrayList<ScanResult>();
-        for (ScanResult scanResult : permittedResults) {
+        for (ScanResult scanResult : allResults) {
+            if (!hasPermission && !isAssociatedDevice(client, scanResult.getDevice())) {
+                continue;
+            }
+            permitted = true;
             if (matchesFilters(client, scanResult).getMatches()) {
                 results.add(scanResult);
             }
         }
+        if (!permitted) {
+            return;
+        }
+
         sendBatchScanResults(app, client, results);
     }
 
-    private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
+    private static boolean isAssociatedDevice(ScanClient client, BluetoothDevice device) {
+        for (String associatedDevice : client.associatedDevices) {
+            if (associatedDevice.equalsIgnoreCase(device.getAddress())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<ScanResult> parseBatchScanResults(int numRecords, int reportType,
             byte[] batchRecord) {
         if (numRecords == 0) {
-            return Collections.emptySet();
+            return Collections.emptyList();
         }
         if (DBG) {
             Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos());
+            Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
         }
+        List<ScanResult> results = new ArrayList<ScanResult>(numRecords);
+        long now = SystemClock.elapsedRealtimeNanos();
         if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
-            return parseTruncatedResults(numRecords, batchRecord);
+            mBatchScanResultParser.parseTruncatedResults(numRecords, batchRecord, now, results);
         } else {
-            return parseFullResults(numRecords, batchRecord);
-        }
-    }
-
-    private Set<ScanResult> parseTruncatedResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "batch record " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        long now = SystemClock.elapsedRealtimeNanos();
-        for (int i = 0; i < numRecords; ++i) {
-            byte[] record =
-                    extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
-            byte[] address = extractBytes(record, 0, 6);
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            int rssi = record[8];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(new byte[0]), rssi,
-                    timestampNanos));
+            mBatchScanResultParser.parseFullResults(batchRecord, now, results);
         }
         return results;
     }
 
     @VisibleForTesting
     long parseTimestampNanos(byte[] data) {
-        long timestampUnit = NumberUtils.littleEndianByteArrayToInt(data);
-        // Timestamp is in every 50 ms.
-        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
-    }
-
-    private Set<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
-        if (DBG) {
-            Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
-        }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        int position = 0;
-        long now = SystemClock.elapsedRealtimeNanos();
-        while (position < batchRecord.length) {
-            byte[] address = extractBytes(batchRecord, position, 6);
-            // TODO: remove temp hack.
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            position += 6;
-            // Skip address type.
-            position++;
-            // Skip tx power level.
-            position++;
-            int rssi = batchRecord[position++];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(batchRecord, position, 2));
-            position += 2;
-
-            // Combine advertise packet and scan response packet.
-            int advertisePacketLen = batchRecord[position++];
-            byte[] advertiseBytes = extractBytes(batchRecord, position, advertisePacketLen);
-            position += advertisePacketLen;
-            int scanResponsePacketLen = batchRecord[position++];
-            byte[] scanResponseBytes = extractBytes(batchRecord, position, scanResponsePacketLen);
-            position += scanResponsePacketLen;
-            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
-            System.arraycopy(advertiseBytes, 0, scanRecord, 0, advertisePacketLen);
-            System.arraycopy(scanResponseBytes, 0, scanRecord, advertisePacketLen,
-                    scanResponsePacketLen);
-            if (DBG) {
-                Log.d(TAG, "ScanRecord : " + Arrays.toString(scanRecord));
-            }
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
-                    timestampNanos));
-        }
-        return results;
-    }
-
-    // Reverse byte array.
-    private void reverse(byte[] address) {
-        int len = address.length;
-        for (int i = 0; i < len / 2; ++i) {
-            byte b = address[i];
-            address[i] = address[len - 1 - i];
-            address[len - 1 - i] = b;
-        }
-    }
-
-    // Helper method to extract bytes from byte array.
-    private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(scanRecord, start, bytes, 0, length);
-        return bytes;
+        return BatchScanResultParser.parseTimestampNanos(data, 0);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -3155,6 +3196,10 @@ public class GattService extends ProfileService {
         }
         mScannerMap.remove(scannerId);
         mScanManager.unregisterScanner(scannerId);
+        ScanResultCoalescer coalescer = mScanResultCoalescer;
+        if (coalescer != null) {
+            coalescer.remove(scannerId);
+        }
     }
 
     private List<String> getAssociatedDevices(String callingPackage) {
@@ -3370,6 +3415,10 @@ public class GattService extends ProfileService {
         }
 
         mScanManager.stopScan(scannerId);
+        ScanResultCoalescer coalescer = mScanResultCoalescer;
+        if (coalescer != null) {
+            coalescer.remove(scannerId);
+        }
         mAdapterService.notifyActivityAttributionInfo(getAttributionSource(),
                 AdapterService.ACTIVITY_ATTRIBUTION_NO_ACTIVE_DEVICE_ADDRESS);
     }
@@ -4962,6 +5011,12 @@ public class GattService extends ProfileService {
         }
 
         println(sb, "mMaxScanFilters: " + mMaxScanFilters);
+        if (mScanManager != null) {
+            mScanManager.dumpFilterIndices(sb);
+        }
+        if (mScanResultCoalescer != null) {
+            mScanResultCoalescer.dump(sb);
+        }
 
         sb.append("\nRegistered App\n");
         dumpRegisterId(sb);
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable index over the {@link ScanFilter}s of a set of {@link ScanClient}s.
+ *
+ * <p>Every filter is stored in exactly one bucket, keyed by the most selective field that
+ * {@link ScanFilter#matches} requires to be present in an advertisement: device address,
+ * manufacturer ID, service data UUID, device name or (unmasked) service UUID. Filters without
+ * any of those fields are always returned as candidates. For a given {@link ScanResult} only the
+ * buckets whose keys appear in the advertisement are visited, so the per-packet cost depends on
+ * the number of plausible filters rather than on the total number of registered filters.
+ *
+ * <p>The index only narrows down the candidates; callers must still run
+ * {@link ScanFilter#matches} on them.
+ */
+class ScanFilterIndex {
+    private final IdentityHashMap<ScanClient, List<ScanFilter>> mSnapshot =
+            new IdentityHashMap<>();
+
+    private final Map<String, List<Entry>> mByAddress = new HashMap<>();
+    private final SparseArray<List<Entry>> mByManufacturerId = new SparseArray<>();
+    private final Map<ParcelUuid, List<Entry>> mByServiceDataUuid = new HashMap<>();
+    private final Map<String, List<Entry>> mByName = new HashMap<>();
+    private final Map<ParcelUuid, List<Entry>> mByServiceUuid = new HashMap<>();
+    private final List<Entry> mUnindexed = new ArrayList<>();
+
+    private int mFilterCount;
+
+    private static class Entry {
+        final ScanClient mClient;
+        final ScanFilter mFilter;
+
+        Entry(ScanClient client, ScanFilter filter) {
+            mClient = client;
+            mFilter = filter;
+        }
+    }
+
+    ScanFilterIndex(Collection<ScanClient> clients) {
+        for (ScanClient client : clients) {
+            mSnapshot.put(client, client.filters);
+            if (client.filters == null) {
+                continue;
+            }
+            for (ScanFilter filter : client.filters) {
+                add(new Entry(client, filter));
+                mFilterCount++;
+            }
+        }
+    }
+
+    /**
+     * Returns true if this index was built from exactly the given clients and their current
+     * filter lists.
+     */
+    boolean isBuiltFrom(Collection<ScanClient> clients) {
+        if (clients.size() != mSnapshot.size()) {
+            return false;
+        }
+        for (ScanClient client : clients) {
+            if (!mSnapshot.containsKey(client) || mSnapshot.get(client) != client.filters) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getFilterCount() {
+        return mFilterCount;
+    }
+
+    /**
+     * Returns, per client, the filters that may match the given result. Filters registered for
+     * {@code originalAddress} (the identity address of a resolved random address) are included as
+     * well. Clients without any candidate filter are absent from the returned map.
+     */
+    Map<ScanClient, List<ScanFilter>> getCandidates(ScanResult result, String originalAddress) {
+        IdentityHashMap<ScanClient, List<ScanFilter>> candidates = new IdentityHashMap<>();
+        collect(mUnindexed, candidates);
+
+        BluetoothDevice device = result.getDevice();
+        if (device != null) {
+            collect(mByAddress.get(normalizeAddress(device.getAddress())), candidates);
+        }
+        if (originalAddress != null
+                && (device == null || !originalAddress.equalsIgnoreCase(device.getAddress()))) {
+            collect(mByAddress.get(normalizeAddress(originalAddress)), candidates);
+        }
+
+        ScanRecord record = result.getScanRecord();
+        if (record == null) {
+            return candidates;
+        }
+        SparseArray<byte[]> manufacturerData = record.getManufacturerSpecificData();
+        if (manufacturerData != null) {
+            for (int i = 0; i < manufacturerData.size(); i++) {
+                collect(mByManufacturerId.get(manufacturerData.keyAt(i)), candidates);
+            }
+        }
+        Map<ParcelUuid, byte[]> serviceData = record.getServiceData();
+        if (serviceData != null && !mByServiceDataUuid.isEmpty()) {
+            for (ParcelUuid uuid : serviceData.keySet()) {
+                collect(mByServiceDataUuid.get(uuid), candidates);
+            }
+        }
+        String name = record.getDeviceName();
+        if (name != null) {
+            collect(mByName.get(name), candidates);
+        }
+        List<ParcelUuid> serviceUuids = record.getServiceUuids();
+        if (serviceUuids != null && !mByServiceUuid.isEmpty()) {
+            for (ParcelUuid uuid : serviceUuids) {
+                collect(mByServiceUuid.get(uuid), candidates);
+            }
+        }
+        return candidates;
+    }
+
+    private void add(Entry entry) {
+        ScanFilter filter = entry.mFilter;
+        if (filter.getDeviceAddress() != null) {
+            bucket(mByAddress, normalizeAddress(filter.getDeviceAddress())).add(entry);
+        } else if (filter.getManufacturerId() >= 0) {
+            List<Entry> bucket = mByManufacturerId.get(filter.getManufacturerId());
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                mByManufacturerId.put(filter.getManufacturerId(), bucket);
+            }
+            bucket.add(entry);
+        } else if (filter.getServiceDataUuid() != null) {
+            bucket(mByServiceDataUuid, filter.getServiceDataUuid()).add(entry);
+        } else if (filter.getDeviceName() != null) {
+            bucket(mByName, filter.getDeviceName()).add(entry);
+        } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+            bucket(mByServiceUuid, filter.getServiceUuid()).add(entry);
+        } else {
+            mUnindexed.add(entry);
+        }
+    }
+
+    private static <K> List<Entry> bucket(Map<K, List<Entry>> map, K key) {
+        return map.computeIfAbsent(key, k -> new ArrayList<>());
+    }
+
+    private static void collect(List<Entry> entries,
+            IdentityHashMap<ScanClient, List<ScanFilter>> candidates) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            candidates.computeIfAbsent(entry.mClient, c -> new ArrayList<>()).add(entry.mFilter);
+        }
+    }
+
+    private static String normalizeAddress(String address) {
+        return address.toUpperCase(Locale.ROOT);
+    }
+}
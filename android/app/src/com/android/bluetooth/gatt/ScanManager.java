@@ -56,12 +56,14 @@ import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -319,6 +321,13 @@ public class ScanManager {
         mScanNative.callbackDone(scannerId, status);
     }
 
+    /**
+     * Dumps usage of the controller scan filter indices.
+     */
+    void dumpFilterIndices(StringBuilder sb) {
+        mScanNative.dumpFilterIndices(sb);
+    }
+
     void onConnectingState(boolean isConnecting) {
         if (isConnecting) {
             sendMessage(MSG_START_CONNECTING, null);
@@ -462,12 +471,16 @@ public class ScanManager {
             // Begin scan operations.
             if (isBatchClient(client) || isAutoBatchScanClientEnabled(client)) {
                 mBatchClients.add(client);
-                mScanNative.startBatchScan(client);
+                if (!mScanNative.startBatchScan(client)) {
+                    return;
+                }
             } else {
                 updateScanModeBeforeStart(client);
                 updateScanModeConcurrency(client);
                 mRegularScanClients.add(client);
-                mScanNative.startRegularScan(client);
+                if (!mScanNative.startRegularScan(client)) {
+                    return;
+                }
                 if (!mScanNative.isOpportunisticScanClient(client)) {
                     mScanNative.configureRegularScanParams();
 
@@ -932,6 +945,37 @@ public class ScanManager {
         }
     }
 
+    /**
+     * Identifies what a scan filter programs into the controller. {@link ScanFilter#equals} leaves
+     * out the address type and the IRK, which are programmed along with the device address.
+     */
+    private static class SharedFilterKey {
+        private final ScanFilter mFilter;
+
+        SharedFilterKey(ScanFilter filter) {
+            mFilter = filter;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            ScanFilter other = ((SharedFilterKey) obj).mFilter;
+            return mFilter.equals(other) && mFilter.getAddressType() == other.getAddressType()
+                    && Arrays.equals(mFilter.getIrk(), other.getIrk());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mFilter, mFilter.getAddressType(),
+                    Arrays.hashCode(mFilter.getIrk()));
+        }
+    }
+
     public int getCurrentUsedTrackingAdvertisement() {
         synchronized (mCurUsedTrackableAdvertisementsLock) {
             return mCurUsedTrackableAdvertisements;
@@ -970,6 +1014,16 @@ public class ScanManager {
         private final Deque<Integer> mFilterIndexStack;
         // Map of scannerId and Filter indices used by client.
         private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Filter indices shared by identical immediate delivery filters, with their reference
+        // counts. Results of such filters are matched against every client in software anyway.
+        private final Map<SharedFilterKey, Integer> mSharedFilterIndices = new HashMap<>();
+        private final Map<Integer, Integer> mSharedFilterRefCounts = new HashMap<>();
+        // Number of filter indices available to clients.
+        private int mNumOfFilterIndices;
+        // Number of filters that reused an existing slot.
+        private int mSharedFilterHits;
+        // Number of filtered clients that fell back to the ALL_PASS filter.
+        private int mAllPassFallbacks;
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -1015,14 +1069,26 @@ public class ScanManager {
             if (DBG) {
                 Log.d(TAG, "callback done for scannerId - " + scannerId + " status - " + status);
             }
-            if (status == 0) {
-                mNativeInterface.callbackDone();
-            }
+            mNativeInterface.callbackDone(scannerId, status);
             // TODO: add a callback for scan failure.
         }
 
-        private void resetCountDownLatch() {
-            mNativeInterface.resetCountDownLatch();
+        private void resetCountDownLatch(int scannerId) {
+            // Completions of pipelined filter commands arrive before the one waited for next.
+            if (!waitForAsyncCommands()) {
+                Log.w(TAG, "pipelined scan filter commands failed or timed out");
+            }
+            mNativeInterface.resetCountDownLatch(scannerId);
+        }
+
+        // Returns true if all the pipelined filter commands completed successfully.
+        private boolean waitForAsyncCommands() {
+            return mNativeInterface.waitForAsyncCommands(OPERATION_TIME_OUT_MILLIS);
+        }
+
+        // Issue the next native scan filter command without waiting for its completion.
+        private void beginAsyncCommand(int scannerId) {
+            mNativeInterface.beginAsyncCommand(scannerId);
         }
 
         private boolean waitForCallback() {
@@ -1089,13 +1155,17 @@ public class ScanManager {
             return result;
         }
 
-        void startRegularScan(ScanClient client) {
+        // Returns false if the scan filters of the client could not be set up, in which case the
+        // client is removed and notified.
+        boolean startRegularScan(ScanClient client) {
             if (isFilteringSupported() && mFilterIndexStack.isEmpty()
                     && mClientFilterIndexMap.isEmpty()) {
                 initFilterIndexStack();
             }
-            if (isFilteringSupported()) {
-                configureScanFilters(client);
+            if (isFilteringSupported() && !configureScanFilters(client)) {
+                stopRegularScan(client);
+                notifyScanFilterSetupFailed(client.scannerId);
+                return false;
             }
             // Start scan native only for the first client.
             if (numRegularScanClients() == 1
@@ -1109,6 +1179,7 @@ public class ScanManager {
                     Log.w(TAG, "Scan radio already started");
                 }
             }
+            return true;
         }
 
         private int numRegularScanClients() {
@@ -1121,16 +1192,34 @@ public class ScanManager {
             return num;
         }
 
-        void startBatchScan(ScanClient client) {
+        // Returns false if the scan filters of the client could not be set up, in which case the
+        // client is removed and notified.
+        boolean startBatchScan(ScanClient client) {
             if (mFilterIndexStack.isEmpty() && isFilteringSupported()) {
                 initFilterIndexStack();
             }
-            configureScanFilters(client);
+            if (!configureScanFilters(client)) {
+                mBatchClients.remove(client);
+                removeScanFilters(client.scannerId);
+                notifyScanFilterSetupFailed(client.scannerId);
+                return false;
+            }
             if (!isOpportunisticScanClient(client)) {
                 // Reset batch scan. May need to stop the existing batch scan and update scan
                 // params.
                 resetBatchScan(client);
             }
+            return true;
+        }
+
+        private void notifyScanFilterSetupFailed(int scannerId) {
+            Log.e(TAG, "Failed to set up scan filters for scannerId " + scannerId);
+            try {
+                mService.onScanManagerErrorCallback(scannerId,
+                        ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+            } catch (RemoteException e) {
+                Log.e(TAG, "failed on onScanManagerCallback", e);
+            }
         }
 
         private boolean isExemptFromScanTimeout(ScanClient client) {
@@ -1179,7 +1268,7 @@ public class ScanManager {
                 if (DBG) {
                     Log.d(TAG, "stopping BLe Batch");
                 }
-                resetCountDownLatch();
+                resetCountDownLatch(scannerId);
                 mNativeInterface.gattClientStopBatchScan(scannerId);
                 waitForCallback();
                 // Clear pending results as it's illegal to config storage if there are still
@@ -1194,14 +1283,14 @@ public class ScanManager {
                 }
                 int resultType = getResultType(batchScanParams);
                 int fullScanPercent = getFullScanStoragePercent(resultType);
-                resetCountDownLatch();
+                resetCountDownLatch(scannerId);
                 if (DBG) {
                     Log.d(TAG, "configuring batch scan storage, appIf " + client.scannerId);
                 }
                 mNativeInterface.gattClientConfigBatchScanStorage(client.scannerId, fullScanPercent,
                         100 - fullScanPercent, notifyThreshold);
                 waitForCallback();
-                resetCountDownLatch();
+                resetCountDownLatch(scannerId);
                 int scanInterval =
                         Utils.millsToUnit(getBatchScanIntervalMillis(batchScanParams.scanMode));
                 int scanWindow =
@@ -1417,13 +1506,13 @@ public class ScanManager {
                 Log.d(TAG, "flushPendingBatchResults - scannerId = " + scannerId);
             }
             if (mBatchScanParms.fullScanscannerId != -1) {
-                resetCountDownLatch();
+                resetCountDownLatch(mBatchScanParms.fullScanscannerId);
                 mNativeInterface.gattClientReadScanReports(mBatchScanParms.fullScanscannerId,
                         SCAN_RESULT_TYPE_FULL);
                 waitForCallback();
             }
             if (mBatchScanParms.truncatedScanscannerId != -1) {
-                resetCountDownLatch();
+                resetCountDownLatch(mBatchScanParms.truncatedScanscannerId);
                 mNativeInterface.gattClientReadScanReports(mBatchScanParms.truncatedScanscannerId,
                         SCAN_RESULT_TYPE_TRUNCATED);
                 waitForCallback();
@@ -1454,47 +1543,68 @@ public class ScanManager {
         // Add scan filters. The logic is:
         // If no offload filter can/needs to be set, set ALL_PASS filter.
         // Otherwise offload all filters to hardware and enable all filters.
-        private void configureScanFilters(ScanClient client) {
+        // Returns false if a filter command failed or timed out.
+        private boolean configureScanFilters(ScanClient client) {
             int scannerId = client.scannerId;
             int deliveryMode = getDeliveryMode(client);
             int trackEntries = 0;
 
             // Do not add any filters set by opportunistic scan clients
             if (isOpportunisticScanClient(client)) {
-                return;
+                return true;
             }
 
             if (!shouldAddAllPassFilterToController(client, deliveryMode)) {
-                return;
+                return true;
+            }
+
+            // Earlier commands, such as the removal of the filters of a stopped client, must not
+            // fail the setup of this client.
+            if (!waitForAsyncCommands()) {
+                Log.w(TAG, "earlier pipelined scan filter commands failed or timed out");
             }
 
-            resetCountDownLatch();
+            // Filter commands are pipelined: the stack executes them in order, and the handler
+            // thread only waits for their completions once all of them are issued.
+            beginAsyncCommand(scannerId);
             mNativeInterface.gattClientScanFilterEnable(scannerId, true);
-            waitForCallback();
 
             if (shouldUseAllPassFilter(client)) {
+                if (client.filters != null && !client.filters.isEmpty()) {
+                    mAllPassFallbacks++;
+                }
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
-                resetCountDownLatch();
+                beginAsyncCommand(scannerId);
                 // Don't allow Onfound/onlost with all pass
                 configureFilterParamter(scannerId, client, ALL_PASS_FILTER_SELECTION, filterIndex,
                         0);
-                waitForCallback();
             } else {
                 Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
+                boolean shareable = deliveryMode == DELIVERY_MODE_IMMEDIATE;
                 for (ScanFilter filter : client.filters) {
+                    SharedFilterKey key = new SharedFilterKey(filter);
+                    Integer sharedIndex = shareable ? mSharedFilterIndices.get(key) : null;
+                    if (sharedIndex != null) {
+                        mSharedFilterRefCounts.merge(sharedIndex, 1, Integer::sum);
+                        mSharedFilterHits++;
+                        clientFilterIndices.add(sharedIndex);
+                        continue;
+                    }
                     ScanFilterQueue queue = new ScanFilterQueue();
                     queue.addScanFilter(filter);
                     int featureSelection = queue.getFeatureSelection();
                     int filterIndex = mFilterIndexStack.pop();
+                    if (shareable) {
+                        mSharedFilterIndices.put(key, filterIndex);
+                        mSharedFilterRefCounts.put(filterIndex, 1);
+                    }
 
-                    resetCountDownLatch();
+                    beginAsyncCommand(scannerId);
                     mNativeInterface.gattClientScanFilterAdd(scannerId, queue.toArray(),
                             filterIndex);
-                    waitForCallback();
 
-                    resetCountDownLatch();
                     if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
                         trackEntries = getNumOfTrackingAdvertisements(client.settings);
                         if (!manageAllocationOfTrackingAdvertisement(trackEntries, true)) {
@@ -1508,13 +1618,15 @@ public class ScanManager {
                             }
                         }
                     }
+                    beginAsyncCommand(scannerId);
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
-                    waitForCallback();
                     clientFilterIndices.add(filterIndex);
                 }
                 mClientFilterIndexMap.put(scannerId, clientFilterIndices);
             }
+            // The scan must not start with the filters partially programmed.
+            return waitForAsyncCommands();
         }
 
         // Check whether the filter should be added to controller.
@@ -1537,11 +1649,14 @@ public class ScanManager {
         private void removeScanFilters(int scannerId) {
             Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
             if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
                 for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
+                    if (!releaseSharedFilterIndex(filterIndex)) {
+                        // Still used by another client.
+                        continue;
+                    }
+                    mFilterIndexStack.add(filterIndex);
+                    beginAsyncCommand(scannerId);
                     mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                    waitForCallback();
                 }
             }
             // Remove if ALL_PASS filters are used.
@@ -1551,6 +1666,47 @@ public class ScanManager {
                     ALL_PASS_FILTER_INDEX_BATCH_SCAN);
         }
 
+        // Returns true if the filter index is no longer referenced and can be freed.
+        private boolean releaseSharedFilterIndex(int filterIndex) {
+            Integer refCount = mSharedFilterRefCounts.get(filterIndex);
+            if (refCount == null) {
+                return true;
+            }
+            if (refCount > 1) {
+                mSharedFilterRefCounts.put(filterIndex, refCount - 1);
+                return false;
+            }
+            mSharedFilterRefCounts.remove(filterIndex);
+            mSharedFilterIndices.values().remove(filterIndex);
+            return true;
+        }
+
+        // Number of filter indices that must be allocated to offload the client's filters.
+        private int getNumOfNewFilterIndices(ScanClient client) {
+            if (getDeliveryMode(client) != DELIVERY_MODE_IMMEDIATE) {
+                return client.filters.size();
+            }
+            Set<SharedFilterKey> newFilters = new HashSet<>();
+            for (ScanFilter filter : client.filters) {
+                SharedFilterKey key = new SharedFilterKey(filter);
+                if (!mSharedFilterIndices.containsKey(key)) {
+                    newFilters.add(key);
+                }
+            }
+            return newFilters.size();
+        }
+
+        void dumpFilterIndices(StringBuilder sb) {
+            int free = mFilterIndexStack.size();
+            sb.append("  Scan filter indices: ").append(mNumOfFilterIndices - free)
+                    .append(" in use, ").append(free).append(" free, ")
+                    .append(mSharedFilterRefCounts.size()).append(" shareable\n");
+            sb.append("  Filters sharing an existing index: ").append(mSharedFilterHits)
+                    .append("\n");
+            sb.append("  Filtered clients falling back to ALL_PASS: ").append(mAllPassFallbacks)
+                    .append("\n");
+        }
+
         private void removeFilterIfExisits(Set<Integer> clients, int scannerId, int filterIndex) {
             if (!clients.contains(scannerId)) {
                 return;
@@ -1558,9 +1714,8 @@ public class ScanManager {
             clients.remove(scannerId);
             // Remove ALL_PASS filter iff no app is using it.
             if (clients.isEmpty()) {
-                resetCountDownLatch();
+                beginAsyncCommand(scannerId);
                 mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                waitForCallback();
             }
         }
 
@@ -1597,7 +1752,7 @@ public class ScanManager {
             if (client.filters == null || client.filters.isEmpty()) {
                 return true;
             }
-            return client.filters.size() > mFilterIndexStack.size();
+            return getNumOfNewFilterIndices(client) > mFilterIndexStack.size();
         }
 
         private void initFilterIndexStack() {
@@ -1611,6 +1766,7 @@ public class ScanManager {
             for (int i = 4; i < maxFiltersSupported; ++i) {
                 mFilterIndexStack.add(i);
             }
+            mNumOfFilterIndices = mFilterIndexStack.size();
         }
 
         // Configure filter parameters.
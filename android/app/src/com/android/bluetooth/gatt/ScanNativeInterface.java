@@ -16,6 +16,13 @@
 
 package com.android.bluetooth.gatt;
 
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -28,9 +35,36 @@ public class ScanNativeInterface {
     private static ScanNativeInterface sInterface;
     private static final Object INSTANCE_LOCK = new Object();
 
-    private CountDownLatch mLatch;
+    // How long a timed out command may still take its late completion before it is forgotten.
+    private static final long LOST_COMMAND_TIMEOUT_MS = 5000;
+
+    private final Object mCommandLock = new Object();
+    // Commands waiting for their completion callback, in issue order.
+    @GuardedBy("mCommandLock")
+    private final ArrayDeque<PendingCommand> mPendingCommands = new ArrayDeque<>();
+    // The command waitForCallback() waits for.
+    @GuardedBy("mCommandLock")
+    private PendingCommand mSyncCommand;
+    // Whether an async command failed since the last waitForAsyncCommands().
+    @GuardedBy("mCommandLock")
+    private boolean mAsyncCommandFailed;
 
-    private ScanNativeInterface() {}
+    /** A scan command issued to the stack and not completed yet. */
+    private static class PendingCommand {
+        final int mScannerId;
+        // Counted down on completion, null for commands issued without waiting.
+        final CountDownLatch mLatch;
+        // Uptime at which the issuer stopped waiting, 0 while the completion is expected.
+        long mAbandonedAt;
+
+        PendingCommand(int scannerId, CountDownLatch latch) {
+            mScannerId = scannerId;
+            mLatch = latch;
+        }
+    }
+
+    @VisibleForTesting
+    ScanNativeInterface() {}
 
     /**
      * This class is a singleton because native library should only be loaded once
@@ -176,20 +210,125 @@ public class ScanNativeInterface {
         gattClientReadScanReportsNative(clientIf, scanType);
     }
 
-    void callbackDone() {
-        mLatch.countDown();
+    /**
+     * Matches a completion callback with the pending command it belongs to. The stack completes
+     * scan commands in issue order, so that is the oldest pending command. A command whose
+     * issuer timed out still takes its late completion, which is dropped instead of being
+     * credited to the next command.
+     */
+    void callbackDone(int scannerId, int status) {
+        synchronized (mCommandLock) {
+            PendingCommand command = mPendingCommands.peek();
+            // Timed out commands of other scanners were never completed by the stack.
+            while (command != null && command.mAbandonedAt != 0
+                    && command.mScannerId != scannerId) {
+                mPendingCommands.poll();
+                command = mPendingCommands.peek();
+            }
+            if (command == null || command.mScannerId != scannerId) {
+                Log.w(TAG, "unexpected completion for scannerId - " + scannerId);
+                return;
+            }
+            mPendingCommands.poll();
+            if (command.mAbandonedAt != 0) {
+                Log.w(TAG, "dropping late completion for scannerId - " + scannerId);
+            } else if (status != 0) {
+                Log.e(TAG, "scan command failed for scannerId - " + scannerId + " status - "
+                        + status);
+                if (command.mLatch == null) {
+                    mAsyncCommandFailed = true;
+                }
+            } else if (command.mLatch != null) {
+                command.mLatch.countDown();
+            }
+            mCommandLock.notifyAll();
+        }
+    }
+
+    /** Records a command issued without waiting for its completion. */
+    void beginAsyncCommand(int scannerId) {
+        synchronized (mCommandLock) {
+            addPendingCommandLocked(new PendingCommand(scannerId, null));
+        }
+    }
+
+    // Returns true if all async commands completed successfully, false if one of them failed, or
+    // if timeout or interrupted. Pending commands are abandoned on timeout, so that their
+    // completions are dropped when they come.
+    boolean waitForAsyncCommands(int timeoutMs) {
+        synchronized (mCommandLock) {
+            long deadline = SystemClock.uptimeMillis() + timeoutMs;
+            try {
+                while (hasPendingAsyncCommandsLocked()) {
+                    long remaining = deadline - SystemClock.uptimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    mCommandLock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                // Fall through and abandon the pending commands.
+            }
+            boolean failed = mAsyncCommandFailed;
+            mAsyncCommandFailed = false;
+            if (!hasPendingAsyncCommandsLocked()) {
+                return !failed;
+            }
+            long now = SystemClock.uptimeMillis();
+            for (PendingCommand command : mPendingCommands) {
+                if (command.mLatch == null && command.mAbandonedAt == 0) {
+                    command.mAbandonedAt = now;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Records the command issued next, whose completion {@link #waitForCallback} waits for. */
+    void resetCountDownLatch(int scannerId) {
+        synchronized (mCommandLock) {
+            mSyncCommand = new PendingCommand(scannerId, new CountDownLatch(1));
+            addPendingCommandLocked(mSyncCommand);
+        }
     }
 
-    void resetCountDownLatch() {
-        mLatch = new CountDownLatch(1);
+    @GuardedBy("mCommandLock")
+    private void addPendingCommandLocked(PendingCommand command) {
+        // Forget the timed out commands the stack never completed.
+        long now = SystemClock.uptimeMillis();
+        mPendingCommands.removeIf(pending -> pending.mAbandonedAt != 0
+                && now - pending.mAbandonedAt > LOST_COMMAND_TIMEOUT_MS);
+        mPendingCommands.add(command);
     }
 
-    // Returns true if mLatch reaches 0, false if timeout or interrupted.
+    @GuardedBy("mCommandLock")
+    private boolean hasPendingAsyncCommandsLocked() {
+        for (PendingCommand command : mPendingCommands) {
+            if (command.mLatch == null && command.mAbandonedAt == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns true if the command completed, false if timeout or interrupted. The command is
+    // abandoned on failure, so that its completion is dropped when it comes.
     boolean waitForCallback(int timeoutMs) {
+        PendingCommand command;
+        synchronized (mCommandLock) {
+            command = mSyncCommand;
+        }
+        boolean completed;
         try {
-            return mLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+            completed = command.mLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
-            return false;
+            completed = false;
+        }
+        if (!completed) {
+            synchronized (mCommandLock) {
+                command.mAbandonedAt = SystemClock.uptimeMillis();
+            }
         }
+        return completed;
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Coalesces regular scan results into per-scanner micro-batches.
+ *
+ * <p>Results are queued from the scan path and handed to a {@link Delivery} on the looper given
+ * at construction, once a scanner has {@code maxBatchSize} pending results or its oldest pending
+ * result is {@code latencyMs} old, whichever comes first. The per-scanner queue is bounded: when
+ * a consumer falls behind, the oldest pending results are dropped rather than blocking the scan
+ * path.
+ */
+class ScanResultCoalescer {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanResultCoalescer";
+
+    private static final int MSG_FLUSH = 1;
+
+    /** Receives coalesced results on the coalescer looper. */
+    interface Delivery {
+        void deliver(int scannerId, ArrayList<ScanResult> results);
+    }
+
+    private static class PendingResults {
+        final int mScannerId;
+        final ArrayDeque<ScanResult> mResults = new ArrayDeque<>();
+        boolean mFlushScheduled;
+        long mDeliveredCount;
+        long mBatchCount;
+        long mDroppedCount;
+
+        PendingResults(int scannerId) {
+            mScannerId = scannerId;
+        }
+    }
+
+    private final Handler mHandler;
+    private final Delivery mDelivery;
+    private final long mLatencyMs;
+    private final int mMaxBatchSize;
+    private final int mMaxPendingResults;
+
+    @GuardedBy("mPending")
+    private final SparseArray<PendingResults> mPending = new SparseArray<>();
+
+    ScanResultCoalescer(Looper looper, Delivery delivery, long latencyMs, int maxBatchSize,
+            int maxPendingResults) {
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_FLUSH) {
+                    flush((PendingResults) msg.obj);
+                }
+            }
+        };
+        mDelivery = delivery;
+        mLatencyMs = latencyMs;
+        mMaxBatchSize = maxBatchSize;
+        mMaxPendingResults = Math.max(maxPendingResults, maxBatchSize);
+    }
+
+    /** Queues a result for the given scanner. Never blocks on delivery. */
+    void add(int scannerId, ScanResult result) {
+        synchronized (mPending) {
+            PendingResults pending = mPending.get(scannerId);
+            if (pending == null) {
+                pending = new PendingResults(scannerId);
+                mPending.put(scannerId, pending);
+            }
+            if (pending.mResults.size() >= mMaxPendingResults) {
+                pending.mResults.pollFirst();
+                pending.mDroppedCount++;
+            }
+            pending.mResults.addLast(result);
+
+            if (pending.mResults.size() >= mMaxBatchSize) {
+                mHandler.removeMessages(MSG_FLUSH, pending);
+                mHandler.obtainMessage(MSG_FLUSH, pending).sendToTarget();
+                pending.mFlushScheduled = true;
+            } else if (!pending.mFlushScheduled) {
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_FLUSH, pending),
+                        mLatencyMs);
+                pending.mFlushScheduled = true;
+            }
+        }
+    }
+
+    /** Drops all pending results of a scanner, e.g. once its scan has stopped. */
+    void remove(int scannerId) {
+        synchronized (mPending) {
+            PendingResults pending = mPending.get(scannerId);
+            if (pending == null) {
+                return;
+            }
+            mPending.remove(scannerId);
+            mHandler.removeMessages(MSG_FLUSH, pending);
+        }
+    }
+
+    void cleanup() {
+        synchronized (mPending) {
+            mPending.clear();
+        }
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    @VisibleForTesting
+    int getPendingCount(int scannerId) {
+        synchronized (mPending) {
+            PendingResults pending = mPending.get(scannerId);
+            return pending == null ? 0 : pending.mResults.size();
+        }
+    }
+
+    @VisibleForTesting
+    long getDroppedCount(int scannerId) {
+        synchronized (mPending) {
+            PendingResults pending = mPending.get(scannerId);
+            return pending == null ? 0 : pending.mDroppedCount;
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        synchronized (mPending) {
+            sb.append("  Scan result coalescing: latency=").append(mLatencyMs)
+                    .append("ms, maxBatchSize=").append(mMaxBatchSize)
+                    .append(", maxPending=").append(mMaxPendingResults).append("\n");
+            for (int i = 0; i < mPending.size(); i++) {
+                PendingResults pending = mPending.valueAt(i);
+                sb.append("    scannerId=").append(pending.mScannerId)
+                        .append(" pending=").append(pending.mResults.size())
+                        .append(" delivered=").append(pending.mDeliveredCount)
+                        .append(" batches=").append(pending.mBatchCount)
+                        .append(" dropped=").append(pending.mDroppedCount).append("\n");
+            }
+        }
+    }
+
+    private void flush(PendingResults pending) {
+        ArrayList<ScanResult> results;
+        synchronized (mPending) {
+            pending.mFlushScheduled = false;
+            if (mPending.get(pending.mScannerId) != pending || pending.mResults.isEmpty()) {
+                return;
+            }
+            results = new ArrayList<>(pending.mResults);
+            pending.mResults.clear();
+            pending.mDeliveredCount += results.size();
+            pending.mBatchCount++;
+        }
+        try {
+            mDelivery.deliver(pending.mScannerId, results);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to deliver coalesced results to scannerId="
+                    + pending.mScannerId, e);
+        }
+    }
+}
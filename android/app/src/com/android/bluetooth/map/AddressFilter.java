@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.text.TextUtils;
+
+import java.util.regex.Pattern;
+
+/**
+ * Originator or recipient filter of a message listing request, compiled once per request.
+ *
+ * <p>A filter matches a phone number or name that contains it, where '*' in the filter matches
+ * any sequence of characters. All other characters are matched literally, so that e.g. a leading
+ * '+' of an international number is not taken for a regular expression quantifier. Filters
+ * without wildcards are matched with {@link String#contains}, without a regular expression.
+ */
+final class AddressFilter {
+    private static final Pattern PHONE_NUMBER = Pattern.compile("\\+?[0-9]+");
+
+    private final String mFilter;
+    // Exactly one of these is set.
+    private final String mLiteral;
+    private final Pattern mPattern;
+
+    private AddressFilter(String filter) {
+        mFilter = filter;
+        if (filter.indexOf('*') < 0) {
+            mLiteral = filter;
+            mPattern = null;
+        } else {
+            StringBuilder regex = new StringBuilder();
+            for (String part : filter.split("\\*", -1)) {
+                if (regex.length() > 0) {
+                    regex.append(".*");
+                }
+                if (!part.isEmpty()) {
+                    regex.append(Pattern.quote(part));
+                }
+            }
+            mLiteral = null;
+            mPattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    /** Returns the compiled filter, or null if the filter is absent and matches everything. */
+    static AddressFilter compile(String filter) {
+        if (TextUtils.isEmpty(filter)) {
+            return null;
+        }
+        return new AddressFilter(filter);
+    }
+
+    boolean matches(String value) {
+        if (value == null) {
+            return false;
+        }
+        if (mLiteral != null) {
+            return value.contains(mLiteral);
+        }
+        return mPattern.matcher(value).find();
+    }
+
+    /**
+     * Returns true if the filter is a plain phone number, i.e. digits with an optional leading
+     * '+'. Such a filter can be evaluated by the provider with a LIKE clause.
+     */
+    boolean isPhoneNumber() {
+        return PHONE_NUMBER.matcher(mFilter).matches();
+    }
+
+    String getFilter() {
+        return mFilter;
+    }
+}
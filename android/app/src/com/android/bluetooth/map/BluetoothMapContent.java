@@ -274,6 +274,11 @@ public class BluetoothMapContent {
         int mPhoneType = 0;
         String mPhoneNum = null;
         String mPhoneAlphaTag = null;
+        /* MMS addresses and contact names resolved while serving this request */
+        final ListingAddressCache mAddressCache = new ListingAddressCache();
+        /* Originator and recipient filters of the request, null if absent */
+        AddressFilter mOriginatorFilter = null;
+        AddressFilter mRecipientFilter = null;
         /*column indices used to optimize queries */
         public int mMessageColId = -1;
         public int mMessageColDate = -1;
@@ -430,6 +435,11 @@ public class BluetoothMapContent {
             mMmsColSubject = c.getColumnIndex(Mms.SUBJECT);
             mMmsColThreadId = c.getColumnIndex(Mms.THREAD_ID);
         }
+
+        public void setAddressFilters(BluetoothMapAppParams ap) {
+            mOriginatorFilter = AddressFilter.compile(ap.getFilterOriginator());
+            mRecipientFilter = AddressFilter.compile(ap.getFilterRecipient());
+        }
     }
 
     public BluetoothMapContent(final Context context, BluetoothMapAccountItem account,
@@ -961,7 +971,7 @@ public class BluetoothMapContent {
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
                 long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-                address = getAddressMms(mResolver, id, MMS_TO);
+                address = fi.mAddressCache.getAddressMms(mResolver, id, MMS_TO);
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL) {
                 /* Might be another way to handle addresses */
                 address = getRecipientAddressingEmail(c, fi);
@@ -985,7 +995,7 @@ public class BluetoothMapContent {
                 if (msgType != 1) {
                     String phone = c.getString(fi.mSmsColAddress);
                     if (phone != null && !phone.isEmpty()) {
-                        name = getContactNameFromPhone(phone, mResolver);
+                        name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
                     }
                 } else {
                     name = fi.mPhoneAlphaTag;
@@ -994,12 +1004,12 @@ public class BluetoothMapContent {
                 long id = c.getLong(fi.mMmsColId);
                 String phone;
                 if (e.getRecipientAddressing() != null) {
-                    phone = getAddressMms(mResolver, id, MMS_TO);
+                    phone = fi.mAddressCache.getAddressMms(mResolver, id, MMS_TO);
                 } else {
                     phone = e.getRecipientAddressing();
                 }
                 if (phone != null && !phone.isEmpty()) {
-                    name = getContactNameFromPhone(phone, mResolver);
+                    name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL) {
                 /* Might be another way to handle address and names */
@@ -1047,7 +1057,7 @@ public class BluetoothMapContent {
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
                 long id = c.getLong(fi.mMmsColId);
-                tempAddress = getAddressMms(mResolver, id, MMS_FROM);
+                tempAddress = fi.mAddressCache.getAddressMms(mResolver, id, MMS_FROM);
                 address = PhoneNumberUtils.extractNetworkPortion(tempAddress);
                 if (address == null || address.length() < 1) {
                     address = tempAddress; // if the number is a service acsii text just use it
@@ -1119,7 +1129,7 @@ public class BluetoothMapContent {
                 if (msgType == 1) {
                     String phone = c.getString(fi.mSmsColAddress);
                     if (phone != null && !phone.isEmpty()) {
-                        name = getContactNameFromPhone(phone, mResolver);
+                        name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
                     }
                 } else {
                     name = fi.mPhoneAlphaTag;
@@ -1128,12 +1138,12 @@ public class BluetoothMapContent {
                 long id = c.getLong(fi.mMmsColId);
                 String phone;
                 if (e.getSenderAddressing() != null) {
-                    phone = getAddressMms(mResolver, id, MMS_FROM);
+                    phone = fi.mAddressCache.getAddressMms(mResolver, id, MMS_FROM);
                 } else {
                     phone = e.getSenderAddressing();
                 }
                 if (phone != null && !phone.isEmpty()) {
-                    name = getContactNameFromPhone(phone, mResolver);
+                    name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL/*  ||
                        fi.mMsgType == FilterInfo.TYPE_IM*/) {
@@ -1486,19 +1496,19 @@ public class BluetoothMapContent {
      * Matching functions for originator and recipient for MMS
      * @return true if found a match
      */
-    private boolean matchRecipientMms(Cursor c, String recip) {
+    private boolean matchRecipientMms(Cursor c, FilterInfo fi, AddressFilter recip) {
         boolean res;
         long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-        String phone = getAddressMms(mResolver, id, MMS_TO);
+        String phone = fi.mAddressCache.getAddressMms(mResolver, id, MMS_TO);
         if (phone != null && phone.length() > 0) {
-            if (phone.matches(recip)) {
+            if (recip.matches(phone)) {
                 if (V) {
                     Log.v(TAG, "matchRecipientMms: match recipient phone = " + phone);
                 }
                 res = true;
             } else {
-                String name = getContactNameFromPhone(phone, mResolver);
-                if (name != null && name.length() > 0 && name.matches(recip)) {
+                String name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
+                if (name != null && name.length() > 0 && recip.matches(name)) {
                     if (V) {
                         Log.v(TAG, "matchRecipientMms: match recipient name = " + name);
                     }
@@ -1513,18 +1523,18 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchRecipientSms(Cursor c, FilterInfo fi, String recip) {
+    private boolean matchRecipientSms(Cursor c, FilterInfo fi, AddressFilter recip) {
         boolean res;
         int msgType = c.getInt(c.getColumnIndex(Sms.TYPE));
         if (msgType == 1) {
             String phone = fi.mPhoneNum;
             String name = fi.mPhoneAlphaTag;
-            if (phone != null && phone.length() > 0 && phone.matches(recip)) {
+            if (phone != null && phone.length() > 0 && recip.matches(phone)) {
                 if (V) {
                     Log.v(TAG, "matchRecipientSms: match recipient phone = " + phone);
                 }
                 res = true;
-            } else if (name != null && name.length() > 0 && name.matches(recip)) {
+            } else if (name != null && name.length() > 0 && recip.matches(name)) {
                 if (V) {
                     Log.v(TAG, "matchRecipientSms: match recipient name = " + name);
                 }
@@ -1535,14 +1545,14 @@ public class BluetoothMapContent {
         } else {
             String phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
             if (phone != null && phone.length() > 0) {
-                if (phone.matches(recip)) {
+                if (recip.matches(phone)) {
                     if (V) {
                         Log.v(TAG, "matchRecipientSms: match recipient phone = " + phone);
                     }
                     res = true;
                 } else {
-                    String name = getContactNameFromPhone(phone, mResolver);
-                    if (name != null && name.length() > 0 && name.matches(recip)) {
+                    String name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
+                    if (name != null && name.length() > 0 && recip.matches(name)) {
                         if (V) {
                             Log.v(TAG, "matchRecipientSms: match recipient name = " + name);
                         }
@@ -1558,16 +1568,14 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchRecipient(Cursor c, FilterInfo fi, BluetoothMapAppParams ap) {
+    private boolean matchRecipient(Cursor c, FilterInfo fi) {
         boolean res;
-        String recip = ap.getFilterRecipient();
-        if (recip != null && recip.length() > 0) {
-            recip = recip.replace("*", ".*");
-            recip = ".*" + recip + ".*";
+        AddressFilter recip = fi.mRecipientFilter;
+        if (recip != null) {
             if (fi.mMsgType == FilterInfo.TYPE_SMS) {
                 res = matchRecipientSms(c, fi, recip);
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
-                res = matchRecipientMms(c, recip);
+                res = matchRecipientMms(c, fi, recip);
             } else {
                 if (D) {
                     Log.d(TAG, "matchRecipient: Unknown msg type: " + fi.mMsgType);
@@ -1580,19 +1588,19 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchOriginatorMms(Cursor c, String orig) {
+    private boolean matchOriginatorMms(Cursor c, FilterInfo fi, AddressFilter orig) {
         boolean res;
         long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-        String phone = getAddressMms(mResolver, id, MMS_FROM);
+        String phone = fi.mAddressCache.getAddressMms(mResolver, id, MMS_FROM);
         if (phone != null && phone.length() > 0) {
-            if (phone.matches(orig)) {
+            if (orig.matches(phone)) {
                 if (V) {
                     Log.v(TAG, "matchOriginatorMms: match originator phone = " + phone);
                 }
                 res = true;
             } else {
-                String name = getContactNameFromPhone(phone, mResolver);
-                if (name != null && name.length() > 0 && name.matches(orig)) {
+                String name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
+                if (name != null && name.length() > 0 && orig.matches(name)) {
                     if (V) {
                         Log.v(TAG, "matchOriginatorMms: match originator name = " + name);
                     }
@@ -1607,20 +1615,20 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchOriginatorSms(Cursor c, FilterInfo fi, String orig) {
+    private boolean matchOriginatorSms(Cursor c, FilterInfo fi, AddressFilter orig) {
         boolean res;
         int msgType = c.getInt(c.getColumnIndex(Sms.TYPE));
         if (msgType == 1) {
             String phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
             if (phone != null && phone.length() > 0) {
-                if (phone.matches(orig)) {
+                if (orig.matches(phone)) {
                     if (V) {
                         Log.v(TAG, "matchOriginatorSms: match originator phone = " + phone);
                     }
                     res = true;
                 } else {
-                    String name = getContactNameFromPhone(phone, mResolver);
-                    if (name != null && name.length() > 0 && name.matches(orig)) {
+                    String name = fi.mAddressCache.getContactNameFromPhone(phone, mResolver);
+                    if (name != null && name.length() > 0 && orig.matches(name)) {
                         if (V) {
                             Log.v(TAG, "matchOriginatorSms: match originator name = " + name);
                         }
@@ -1635,12 +1643,12 @@ public class BluetoothMapContent {
         } else {
             String phone = fi.mPhoneNum;
             String name = fi.mPhoneAlphaTag;
-            if (phone != null && phone.length() > 0 && phone.matches(orig)) {
+            if (phone != null && phone.length() > 0 && orig.matches(phone)) {
                 if (V) {
                     Log.v(TAG, "matchOriginatorSms: match originator phone = " + phone);
                 }
                 res = true;
-            } else if (name != null && name.length() > 0 && name.matches(orig)) {
+            } else if (name != null && name.length() > 0 && orig.matches(name)) {
                 if (V) {
                     Log.v(TAG, "matchOriginatorSms: match originator name = " + name);
                 }
@@ -1652,16 +1660,14 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchOriginator(Cursor c, FilterInfo fi, BluetoothMapAppParams ap) {
+    private boolean matchOriginator(Cursor c, FilterInfo fi) {
         boolean res;
-        String orig = ap.getFilterOriginator();
-        if (orig != null && orig.length() > 0) {
-            orig = orig.replace("*", ".*");
-            orig = ".*" + orig + ".*";
+        AddressFilter orig = fi.mOriginatorFilter;
+        if (orig != null) {
             if (fi.mMsgType == FilterInfo.TYPE_SMS) {
                 res = matchOriginatorSms(c, fi, orig);
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
-                res = matchOriginatorMms(c, orig);
+                res = matchOriginatorMms(c, fi, orig);
             } else {
                 if (D) {
                     Log.d(TAG, "matchOriginator: Unknown msg type: " + fi.mMsgType);
@@ -1675,7 +1681,7 @@ public class BluetoothMapContent {
     }
 
     private boolean matchAddresses(Cursor c, FilterInfo fi, BluetoothMapAppParams ap) {
-        return matchOriginator(c, fi, ap) && matchRecipient(c, fi, ap);
+        return matchOriginator(c, fi) && matchRecipient(c, fi);
     }
 
     /*
@@ -1880,6 +1886,34 @@ public class BluetoothMapContent {
         return where;
     }
 
+    /* A phone number filter is evaluated by the provider on the address column, which holds the
+     * originator of received messages and the recipient of all other messages. The own number
+     * stands in for the other side, so it is matched here. A phone number filter is not expected
+     * to match a contact name. */
+    @VisibleForTesting
+    String setWhereFilterAddressSms(FilterInfo fi) {
+        String where = "";
+        AddressFilter orig = fi.mOriginatorFilter;
+        if (orig != null && orig.isPhoneNumber()) {
+            String like = Sms.ADDRESS + " LIKE '%" + orig.getFilter() + "%'";
+            if (orig.matches(fi.mPhoneNum) || orig.matches(fi.mPhoneAlphaTag)) {
+                where += " AND (" + Sms.TYPE + " <> 1 OR " + like + ")";
+            } else {
+                where += " AND " + Sms.TYPE + " = 1 AND " + like;
+            }
+        }
+        AddressFilter recip = fi.mRecipientFilter;
+        if (recip != null && recip.isPhoneNumber()) {
+            String like = Sms.ADDRESS + " LIKE '%" + recip.getFilter() + "%'";
+            if (recip.matches(fi.mPhoneNum) || recip.matches(fi.mPhoneAlphaTag)) {
+                where += " AND (" + Sms.TYPE + " = 1 OR " + like + ")";
+            } else {
+                where += " AND " + Sms.TYPE + " <> 1 AND " + like;
+            }
+        }
+        return where;
+    }
+
     private String setWhereFilterMessageHandle(BluetoothMapAppParams ap, FilterInfo fi) {
         String where = "";
         long id = -1;
@@ -1944,6 +1978,9 @@ public class BluetoothMapContent {
                 where += setWhereFilterOriginatorIM(ap);
                 // TODO: set 'where' filer recipient?
             }
+            if (fi.mMsgType == FilterInfo.TYPE_SMS) {
+                where += setWhereFilterAddressSms(fi);
+            }
             where += setWhereFilterThreadId(ap, fi);
         } else {
             where += msgHandleWhere;
@@ -2131,7 +2168,15 @@ public class BluetoothMapContent {
             Log.d(TAG, "msgListing: messageType = " + ap.getFilterMessageType());
         }
 
-        BluetoothMapMessageListing bmList = new BluetoothMapMessageListing();
+        /* Only the segment [offset, offset + MaxListCount) of the sorted listing is sent, so keep
+         * just the newest offset + MaxListCount elements across all message types. */
+        BluetoothMapMessageListing bmList;
+        if (ap.getMaxListCount() > 0) {
+            bmList = new BluetoothMapMessageListing(
+                    ap.getMaxListCount() + Math.max(ap.getStartOffset(), 0));
+        } else {
+            bmList = new BluetoothMapMessageListing();
+        }
 
         /* We overwrite the parameter mask here if it is 0 or not present, as this
          * should cause all parameters to be included in the message list. */
@@ -2152,6 +2197,7 @@ public class BluetoothMapContent {
         /* Cache some info used throughout filtering */
         FilterInfo fi = new FilterInfo();
         setFilterInfo(fi);
+        fi.setAddressFilters(ap);
         Cursor smsCursor = null;
         Cursor mmsCursor = null;
         Cursor emailCursor = null;
@@ -2398,7 +2444,8 @@ public class BluetoothMapContent {
 
 
         if (D) {
-            Log.d(TAG, "messagelisting end");
+            Log.d(TAG, "messagelisting end, address lookups: "
+                    + fi.mAddressCache.getQueryCount());
         }
         return bmList;
     }
@@ -2418,6 +2465,7 @@ public class BluetoothMapContent {
         /* Cache some info used throughout filtering */
         FilterInfo fi = new FilterInfo();
         setFilterInfo(fi);
+        fi.setAddressFilters(ap);
 
         if (smsSelected(fi, ap) && folderElement.hasSmsMmsContent()) {
             fi.mMsgType = FilterInfo.TYPE_SMS;
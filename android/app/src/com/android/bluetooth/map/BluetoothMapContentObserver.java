@@ -134,6 +134,20 @@ public class BluetoothMapContentObserver {
     //       cases.
     private static final long PROVIDER_ANR_TIMEOUT = 20 * DateUtils.SECOND_IN_MILLIS;
 
+    /* A change notification only queries the messages from the highest known _id up, which picks
+     * up new messages right away. Shifts, read status changes and deletes of older messages are
+     * found by a full rescan of the message tables: shortly after a notification the incremental
+     * queries could not account for, otherwise at most once per interval as a safety net. */
+    @VisibleForTesting
+    static final long RECONCILE_DELAY_MS = DateUtils.SECOND_IN_MILLIS;
+    @VisibleForTesting
+    static final long RECONCILE_INTERVAL_MS = DateUtils.MINUTE_IN_MILLIS;
+    @VisibleForTesting
+    static final int MSG_RECONCILE = 1;
+    @VisibleForTesting
+    static final int MSG_RECONCILE_PERIODIC = 2;
+    private static final long UNKNOWN_ID = -1;
+
     private Context mContext;
     private ContentResolver mResolver;
     @VisibleForTesting
@@ -481,7 +495,17 @@ public class BluetoothMapContentObserver {
         return smsType;
     }
 
-    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+    @VisibleForTesting
+    final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_RECONCILE || msg.what == MSG_RECONCILE_PERIODIC) {
+                reconcileMsgLists();
+            }
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
             onChange(selfChange, null);
@@ -916,6 +940,11 @@ public class BluetoothMapContentObserver {
 
     private Map<Long, Msg> mMsgListMsg = null;
 
+    /* Highest _id seen in each message table, UNKNOWN_ID until the table has been scanned */
+    private long mSmsHighestId = UNKNOWN_ID;
+    private long mMmsHighestId = UNKNOWN_ID;
+    private long mMsgHighestId = UNKNOWN_ID;
+
     private Map<String, BluetoothMapConvoContactElement> mContactList = null;
 
     public int setNotificationRegistration(int notificationStatus) throws RemoteException {
@@ -1080,6 +1109,8 @@ public class BluetoothMapContentObserver {
         }
         mResolver.unregisterContentObserver(mObserver);
         mObserverRegistered = false;
+        mHandler.removeMessages(MSG_RECONCILE);
+        mHandler.removeMessages(MSG_RECONCILE_PERIODIC);
         if (mProviderClient != null) {
             mProviderClient.close();
             mProviderClient = null;
@@ -1276,6 +1307,7 @@ public class BluetoothMapContentObserver {
 
         if (mEnableSmsMms) {
             HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
+            long smsHighestId = 0;
 
             Cursor c;
             try {
@@ -1296,6 +1328,7 @@ public class BluetoothMapContentObserver {
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListSms.put(id, msg);
+                        smsHighestId = Math.max(smsHighestId, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1307,9 +1340,11 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListSms()) {
                 getMsgListSms().clear();
                 setMsgListSms(msgListSms, true); // Set initial folder version counter
+                mSmsHighestId = smsHighestId;
             }
 
             HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
+            long mmsHighestId = 0;
 
             c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver, Mms.CONTENT_URI,
                     MMS_PROJECTION_SHORT, null, null, null);
@@ -1323,6 +1358,7 @@ public class BluetoothMapContentObserver {
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListMms.put(id, msg);
+                        mmsHighestId = Math.max(mmsHighestId, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1334,11 +1370,13 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListMms()) {
                 getMsgListMms().clear();
                 setMsgListMms(msgListMms, true); // Set initial folder version counter
+                mMmsHighestId = mmsHighestId;
             }
         }
 
         if (mAccount != null) {
             HashMap<Long, Msg> msgList = new HashMap<Long, Msg>();
+            long msgHighestId = 0;
             Uri uri = mMessageUri;
             Cursor c = mProviderClient.query(uri, MSG_PROJECTION_SHORT, null, null, null);
 
@@ -1352,6 +1390,7 @@ public class BluetoothMapContentObserver {
                                 c.getColumnIndex(BluetoothMapContract.MessageColumns.FLAG_READ));
                         Msg msg = new Msg(id, folderId, readFlag);
                         msgList.put(id, msg);
+                        msgHighestId = Math.max(msgHighestId, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1363,6 +1402,7 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListMsg()) {
                 getMsgListMsg().clear();
                 setMsgListMsg(msgList, true);
+                mMsgHighestId = msgHighestId;
             }
         }
     }
@@ -1424,21 +1464,44 @@ public class BluetoothMapContentObserver {
 
     @VisibleForTesting
     void handleMsgListChangesSms() {
+        handleMsgListChangesSms(false);
+    }
+
+    /**
+     * Compares the SMS table with the tracked messages and sends the resulting events.
+     * @param incremental only look at messages from the highest known _id up, leaving the other
+     *        tracked messages untouched
+     * @return true if the tracked messages changed
+     */
+    @VisibleForTesting
+    boolean handleMsgListChangesSms(boolean incremental) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesSms");
+            Log.d(TAG, "handleMsgListChangesSms, incremental: " + incremental);
         }
 
-        HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
         boolean listChanged = false;
 
         Cursor c;
         synchronized (getMsgListSms()) {
+            incremental &= mSmsHighestId != UNKNOWN_ID;
+            Map<Long, Msg> msgListSms = incremental ? getMsgListSms() : new HashMap<Long, Msg>();
+            long highestId = incremental ? mSmsHighestId : 0;
+            String selection = incremental ? Sms._ID + " >= " + mSmsHighestId : null;
+            String sortOrder = incremental ? Sms._ID : null;
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, selection, null, sortOrder);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, selection, null, sortOrder);
+            }
+            if (incremental && !startsAtId(c, Sms._ID, mSmsHighestId)) {
+                // The newest known message is gone and its _id may already have been handed out
+                // again, only a full rescan can tell new messages from known ones.
+                if (c != null) {
+                    c.close();
+                }
+                return handleMsgListChangesSms(false);
             }
             try {
                 if (c != null && c.moveToFirst()) {
@@ -1449,6 +1512,7 @@ public class BluetoothMapContentObserver {
                             continue;
                         }
                         long id = c.getLong(idIndex);
+                        highestId = Math.max(highestId, id);
                         int type = c.getInt(c.getColumnIndex(Sms.TYPE));
                         int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
                         int read = c.getInt(c.getColumnIndex(Sms.READ));
@@ -1574,6 +1638,14 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
+            mSmsHighestId = highestId;
+            if (incremental) {
+                // The list is updated in place, nothing else can have been deleted.
+                if (listChanged) {
+                    setMsgListSms(msgListSms, true);
+                }
+                return listChanged;
+            }
             String eventType = EVENT_TYPE_DELETE;
             for (Msg msg : getMsgListSms().values()) {
                 // "old_folder" used only for MessageShift event
@@ -1589,24 +1661,48 @@ public class BluetoothMapContentObserver {
 
             setMsgListSms(msgListSms, listChanged);
         }
+        return listChanged;
     }
 
     @VisibleForTesting
     void handleMsgListChangesMms() {
+        handleMsgListChangesMms(false);
+    }
+
+    /**
+     * Compares the MMS table with the tracked messages and sends the resulting events.
+     * @param incremental only look at messages from the highest known _id up, leaving the other
+     *        tracked messages untouched
+     * @return true if the tracked messages changed
+     */
+    @VisibleForTesting
+    boolean handleMsgListChangesMms(boolean incremental) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesMms");
+            Log.d(TAG, "handleMsgListChangesMms, incremental: " + incremental);
         }
 
-        HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
         boolean listChanged = false;
         Cursor c;
         synchronized (getMsgListMms()) {
+            incremental &= mMmsHighestId != UNKNOWN_ID;
+            Map<Long, Msg> msgListMms = incremental ? getMsgListMms() : new HashMap<Long, Msg>();
+            long highestId = incremental ? mMmsHighestId : 0;
+            String selection = incremental ? Mms._ID + " >= " + mMmsHighestId : null;
+            String sortOrder = incremental ? Mms._ID : null;
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, selection, null, sortOrder);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, selection, null, sortOrder);
+            }
+            if (incremental && !startsAtId(c, Mms._ID, mMmsHighestId)) {
+                // The newest known message is gone and its _id may already have been handed out
+                // again, only a full rescan can tell new messages from known ones.
+                if (c != null) {
+                    c.close();
+                }
+                return handleMsgListChangesMms(false);
             }
 
             try {
@@ -1618,6 +1714,7 @@ public class BluetoothMapContentObserver {
                             continue;
                         }
                         long id = c.getLong(idIndex);
+                        highestId = Math.max(highestId, id);
                         int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
                         int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
                         int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
@@ -1759,6 +1856,14 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
+            mMmsHighestId = highestId;
+            if (incremental) {
+                // The list is updated in place, nothing else can have been deleted.
+                if (listChanged) {
+                    setMsgListMms(msgListMms, true);
+                }
+                return listChanged;
+            }
             for (Msg msg : getMsgListMms().values()) {
                 // "old_folder" used only for MessageShift event
                 Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
@@ -1768,32 +1873,63 @@ public class BluetoothMapContentObserver {
             }
             setMsgListMms(msgListMms, listChanged);
         }
+        return listChanged;
     }
 
     @VisibleForTesting
     void handleMsgListChangesMsg(Uri uri) throws RemoteException {
+        handleMsgListChangesMsg(uri, false);
+    }
+
+    /**
+     * Compares the account messages with the tracked messages and sends the resulting events.
+     * @param incremental only look at messages from the highest known _id up, leaving the other
+     *        tracked messages untouched
+     * @return true if the tracked messages changed
+     */
+    @VisibleForTesting
+    boolean handleMsgListChangesMsg(Uri uri, boolean incremental) throws RemoteException {
         if (V) {
-            Log.v(TAG, "handleMsgListChangesMsg uri: " + uri.toString());
+            Log.v(TAG, "handleMsgListChangesMsg uri: " + uri.toString() + " incremental: "
+                    + incremental);
         }
 
         // TODO: Change observer to handle accountId and message ID if present
 
-        HashMap<Long, Msg> msgList = new HashMap<Long, Msg>();
         Cursor c;
         boolean listChanged = false;
-        if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT, null, null, null);
-        } else if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT, null, null, null);
-        } else {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT2, null, null, null);
-        }
         synchronized (getMsgListMsg()) {
+            incremental &= mMsgHighestId != UNKNOWN_ID;
+            Map<Long, Msg> msgList = incremental ? getMsgListMsg() : new HashMap<Long, Msg>();
+            long highestId = incremental ? mMsgHighestId : 0;
+            String selection = incremental
+                    ? BluetoothMapContract.MessageColumns._ID + " >= " + mMsgHighestId : null;
+            String sortOrder = incremental ? BluetoothMapContract.MessageColumns._ID : null;
+            if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT, selection, null,
+                        sortOrder);
+            } else if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT, selection, null,
+                        sortOrder);
+            } else {
+                c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT2, selection,
+                        null, sortOrder);
+            }
+            if (incremental
+                    && !startsAtId(c, BluetoothMapContract.MessageColumns._ID, mMsgHighestId)) {
+                // The newest known message is gone and its _id may already have been handed out
+                // again, only a full rescan can tell new messages from known ones.
+                if (c != null) {
+                    c.close();
+                }
+                return handleMsgListChangesMsg(uri, false);
+            }
             try {
                 if (c != null && c.moveToFirst()) {
                     do {
                         long id = c.getLong(
                                 c.getColumnIndex(BluetoothMapContract.MessageColumns._ID));
+                        highestId = Math.max(highestId, id);
                         int folderId = c.getInt(
                                 c.getColumnIndex(BluetoothMapContract.MessageColumns.FOLDER_ID));
                         int readFlag = c.getInt(
@@ -1924,6 +2060,14 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
+            mMsgHighestId = highestId;
+            if (incremental) {
+                // The list is updated in place, nothing else can have been deleted.
+                if (listChanged) {
+                    setMsgListMsg(msgList, true);
+                }
+                return listChanged;
+            }
             // For all messages no longer in the database send a delete notification
             for (Msg msg : getMsgListMsg().values()) {
                 BluetoothMapFolderElement oldFolderElement = mFolders.getFolderById(msg.folderId);
@@ -1961,16 +2105,18 @@ public class BluetoothMapContentObserver {
             }
             setMsgListMsg(msgList, listChanged);
         }
+        return listChanged;
     }
 
     private void handleMsgListChanges(Uri uri) {
+        boolean explained = false;
         if (uri.getAuthority().equals(mAuthority)) {
             try {
                 if (D) {
                     Log.d(TAG, "handleMsgListChanges: account type = " + mAccount.getType()
                             .toString());
                 }
-                handleMsgListChangesMsg(uri);
+                explained |= handleMsgListChangesMsg(uri, true);
             } catch (RemoteException e) {
                 mMasInstance.restartObexServerSession();
                 Log.w(TAG, "Problems contacting the ContentProvider in mas Instance " + mMasId
@@ -1979,10 +2125,55 @@ public class BluetoothMapContentObserver {
 
         }
         // TODO: check to see if there could be problem with IM and SMS in one instance
+        if (mEnableSmsMms) {
+            explained |= handleMsgListChangesSms(true);
+            explained |= handleMsgListChangesMms(true);
+        }
+        scheduleReconcile(explained);
+    }
+
+    /**
+     * Schedules the full rescan after a change notification.
+     * @param explained true if the incremental queries found the change, in which case the
+     *        rescan only runs as the periodic safety net
+     */
+    @VisibleForTesting
+    void scheduleReconcile(boolean explained) {
+        if (mHandler.hasMessages(MSG_RECONCILE)) {
+            return;
+        }
+        if (!explained) {
+            mHandler.removeMessages(MSG_RECONCILE_PERIODIC);
+            mHandler.sendEmptyMessageDelayed(MSG_RECONCILE, RECONCILE_DELAY_MS);
+        } else if (!mHandler.hasMessages(MSG_RECONCILE_PERIODIC)) {
+            mHandler.sendEmptyMessageDelayed(MSG_RECONCILE_PERIODIC, RECONCILE_INTERVAL_MS);
+        }
+    }
+
+    /* True if the first row of the cursor holds the given _id */
+    private static boolean startsAtId(Cursor c, String idColumn, long id) {
+        return c != null && c.moveToFirst() && c.getLong(c.getColumnIndexOrThrow(idColumn)) == id;
+    }
+
+    /* Full rescan of the message tables, catching the changes the incremental queries miss */
+    @VisibleForTesting
+    void reconcileMsgLists() {
+        if (!mObserverRegistered) {
+            return;
+        }
         if (mEnableSmsMms) {
             handleMsgListChangesSms();
             handleMsgListChangesMms();
         }
+        if (mAccount != null && mProviderClient != null) {
+            try {
+                handleMsgListChangesMsg(mMessageUri);
+            } catch (RemoteException e) {
+                mMasInstance.restartObexServerSession();
+                Log.w(TAG, "Problems contacting the ContentProvider in mas Instance " + mMasId
+                        + " restaring ObexServerSession");
+            }
+        }
     }
 
     @VisibleForTesting
@@ -25,6 +25,7 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
@@ -93,17 +94,7 @@ public class BluetoothMapConvoListing {
         XmlSerializer xmlConvoElement = Xml.newSerializer();
         try {
             xmlConvoElement.setOutput(sw);
-            xmlConvoElement.startDocument("UTF-8", true);
-            xmlConvoElement.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
-                    true);
-            xmlConvoElement.startTag(null, XML_TAG);
-            xmlConvoElement.attribute(null, "version", "1.0");
-            // Do the XML encoding of list
-            for (BluetoothMapConvoListingElement element : mList) {
-                element.encode(xmlConvoElement); // Append the list element
-            }
-            xmlConvoElement.endTag(null, XML_TAG);
-            xmlConvoElement.endDocument();
+            serialize(xmlConvoElement);
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
@@ -114,6 +105,38 @@ public class BluetoothMapConvoListing {
         return sw.toString().getBytes("UTF-8");
     }
 
+    /**
+     * Encode the list of BluetoothMapConvoListingElement(s) as UTF-8 XML directly into a stream,
+     * without holding the encoded listing in memory.
+     *
+     * @param out the stream to write to. It is flushed, but not closed.
+     * @throws IOException if writing to the stream failed or the listing could not be encoded.
+     *             Part of the listing may already have been written in both cases.
+     */
+    public void encode(OutputStream out) throws IOException {
+        XmlSerializer xmlConvoElement = Xml.newSerializer();
+        xmlConvoElement.setOutput(out, "UTF-8");
+        try {
+            serialize(xmlConvoElement);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Failed to encode the conversation listing", e);
+        }
+    }
+
+    private void serialize(XmlSerializer xmlConvoElement) throws IOException {
+        xmlConvoElement.startDocument("UTF-8", true);
+        xmlConvoElement.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
+                true);
+        xmlConvoElement.startTag(null, XML_TAG);
+        xmlConvoElement.attribute(null, "version", "1.0");
+        // Do the XML encoding of list
+        for (BluetoothMapConvoListingElement element : mList) {
+            element.encode(xmlConvoElement); // Append the list element
+        }
+        xmlConvoElement.endTag(null, XML_TAG);
+        xmlConvoElement.endDocument();
+    }
+
     public void sort() {
         Collections.sort(mList);
     }
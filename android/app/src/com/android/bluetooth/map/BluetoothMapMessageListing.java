@@ -23,11 +23,15 @@ import com.android.bluetooth.Utils;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 public class BluetoothMapMessageListing {
     private boolean mHasUnread = false;
@@ -36,16 +40,73 @@ public class BluetoothMapMessageListing {
 
     private List<BluetoothMapMessageListingElement> mList;
 
+    /* When bounded, only the newest mMaxSize elements are kept, in a heap with the element that
+     * would sort last at its head. Ties are broken on insertion order, to match the stable sort
+     * of an unbounded list. */
+    private final int mMaxSize;
+    private PriorityQueue<Candidate> mTopElements;
+    private long mInsertionCount = 0;
+
+    private static class Candidate {
+        final BluetoothMapMessageListingElement mElement;
+        final long mInsertionOrder;
+
+        Candidate(BluetoothMapMessageListingElement element, long insertionOrder) {
+            mElement = element;
+            mInsertionOrder = insertionOrder;
+        }
+    }
+
+    private static final Comparator<Candidate> LISTING_ORDER =
+            Comparator.<Candidate, BluetoothMapMessageListingElement>comparing(c -> c.mElement)
+                    .thenComparingLong(c -> c.mInsertionOrder);
+
     public BluetoothMapMessageListing() {
         mList = new ArrayList<BluetoothMapMessageListingElement>();
+        mMaxSize = 0;
+    }
+
+    /**
+     * Create a listing that only keeps the first {@code maxSize} elements in listing order, i.e.
+     * the newest ones. Use this when only a segment within the first {@code maxSize} elements
+     * will be sent, so that memory and sorting depend on the segment and not on the number of
+     * elements added.
+     */
+    public BluetoothMapMessageListing(int maxSize) {
+        mList = new ArrayList<BluetoothMapMessageListingElement>();
+        mMaxSize = maxSize;
+        mTopElements = new PriorityQueue<>(maxSize, LISTING_ORDER.reversed());
     }
 
     public void add(BluetoothMapMessageListingElement element) {
-        mList.add(element);
         /* update info regarding whether the list contains unread messages */
         if (!element.getReadBool()) {
             mHasUnread = true;
         }
+        if (mTopElements == null) {
+            mList.add(element);
+            return;
+        }
+        Candidate candidate = new Candidate(element, mInsertionCount++);
+        if (mTopElements.size() < mMaxSize) {
+            mTopElements.add(candidate);
+        } else if (LISTING_ORDER.compare(candidate, mTopElements.peek()) < 0) {
+            mTopElements.poll();
+            mTopElements.add(candidate);
+        }
+    }
+
+    /* Move the elements kept by a bounded listing into mList, in listing order. */
+    private void drainTopElements() {
+        if (mTopElements == null || mTopElements.isEmpty()) {
+            return;
+        }
+        Candidate[] candidates = mTopElements.toArray(new Candidate[0]);
+        mTopElements.clear();
+        Arrays.sort(candidates, LISTING_ORDER);
+        for (Candidate candidate : candidates) {
+            mList.add(candidate.mElement);
+        }
     }
 
     /**
@@ -53,6 +114,7 @@ public class BluetoothMapMessageListing {
      * @return the number of elements in the list.
      */
     public int getCount() {
+        drainTopElements();
         if (mList != null) {
             return mList.size();
         }
@@ -73,6 +135,7 @@ public class BluetoothMapMessageListing {
      * @return list
      */
     public List<BluetoothMapMessageListingElement> getList() {
+        drainTopElements();
         return mList;
     }
 
@@ -91,35 +154,10 @@ public class BluetoothMapMessageListing {
     public byte[] encode(boolean includeThreadId, String version)
             throws UnsupportedEncodingException {
         StringWriter sw = new StringWriter();
-        boolean isBenzCarkit;
-
-        if (Utils.isInstrumentationTestMode()) {
-            isBenzCarkit = false;
-        } else {
-            isBenzCarkit = DeviceWorkArounds.addressStartsWith(
-                    BluetoothMapService.getRemoteDevice().getAddress(),
-                    DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
-        }
         try {
             XmlSerializer xmlMsgElement = Xml.newSerializer();
             xmlMsgElement.setOutput(sw);
-            if (isBenzCarkit) {
-                Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
-                        + "using Xml Workaround.");
-                xmlMsgElement.text("\n");
-            } else {
-                xmlMsgElement.startDocument("UTF-8", true);
-                xmlMsgElement.setFeature(
-                        "http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            }
-            xmlMsgElement.startTag(null, "MAP-msg-listing");
-            xmlMsgElement.attribute(null, "version", version);
-            // Do the XML encoding of list
-            for (BluetoothMapMessageListingElement element : mList) {
-                element.encode(xmlMsgElement, includeThreadId); // Append the list element
-            }
-            xmlMsgElement.endTag(null, "MAP-msg-listing");
-            xmlMsgElement.endDocument();
+            serialize(xmlMsgElement, includeThreadId, version);
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
@@ -128,9 +166,7 @@ public class BluetoothMapMessageListing {
             Log.w(TAG, e);
         }
         /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
-        if (!Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
-                BluetoothMapService.getRemoteDevice().getAddress(),
-                DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
+        if (isBrezzaCarkit()) {
             return sw.toString()
                     .replaceAll("&amp;", "&")
                     .replaceAll("&lt;", "<")
@@ -140,11 +176,78 @@ public class BluetoothMapMessageListing {
         return sw.toString().getBytes("UTF-8");
     }
 
+    /**
+     * Encode the list of BluetoothMapMessageListingElement(s) as UTF-8 XML directly into a stream,
+     * typically the OBEX body stream, without holding the encoded listing in memory. The
+     * serializer encodes through a single fixed size buffer, which is flushed to the stream
+     * whenever it fills up, so the first packets can be sent while later elements are encoded.
+     *
+     * @param out the stream to write to. It is flushed, but not closed.
+     * @param version the version as a string, see {@link #encode(boolean, String)}.
+     * @throws IOException if writing to the stream failed, e.g. because the operation was
+     *             aborted, or if the listing could not be encoded. Part of the listing may
+     *             already have been written in both cases.
+     */
+    public void encode(OutputStream out, boolean includeThreadId, String version)
+            throws IOException {
+        if (isBrezzaCarkit()) {
+            // The workaround rewrites the encoded listing, hence it cannot be streamed.
+            out.write(encode(includeThreadId, version));
+            return;
+        }
+        XmlSerializer xmlMsgElement = Xml.newSerializer();
+        xmlMsgElement.setOutput(out, "UTF-8");
+        try {
+            serialize(xmlMsgElement, includeThreadId, version);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Failed to encode the message listing", e);
+        }
+    }
+
+    private void serialize(XmlSerializer xmlMsgElement, boolean includeThreadId, String version)
+            throws IOException {
+        boolean isBenzCarkit;
+
+        if (Utils.isInstrumentationTestMode()) {
+            isBenzCarkit = false;
+        } else {
+            isBenzCarkit = DeviceWorkArounds.addressStartsWith(
+                    BluetoothMapService.getRemoteDevice().getAddress(),
+                    DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
+        }
+        if (isBenzCarkit) {
+            Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
+                    + "using Xml Workaround.");
+            xmlMsgElement.text("\n");
+        } else {
+            xmlMsgElement.startDocument("UTF-8", true);
+            xmlMsgElement.setFeature(
+                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        }
+        xmlMsgElement.startTag(null, "MAP-msg-listing");
+        xmlMsgElement.attribute(null, "version", version);
+        // Do the XML encoding of list
+        drainTopElements();
+        for (BluetoothMapMessageListingElement element : mList) {
+            element.encode(xmlMsgElement, includeThreadId); // Append the list element
+        }
+        xmlMsgElement.endTag(null, "MAP-msg-listing");
+        xmlMsgElement.endDocument();
+    }
+
+    private static boolean isBrezzaCarkit() {
+        return !Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
+                BluetoothMapService.getRemoteDevice().getAddress(),
+                DeviceWorkArounds.BREZZA_ZDI_CARKIT);
+    }
+
     public void sort() {
+        drainTopElements();
         Collections.sort(mList);
     }
 
     public void segment(int count, int offset) {
+        drainTopElements();
         count = Math.min(count, mList.size() - offset);
         if (count > 0) {
             mList = mList.subList(offset, offset + count);
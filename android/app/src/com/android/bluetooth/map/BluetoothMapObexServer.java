@@ -1139,12 +1139,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private int sendMessageListingRsp(Operation op, BluetoothMapAppParams appParams,
             String folderName) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0, listSize;
+        int listSize;
         boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
-        BluetoothMapMessageListing outList;
+        BluetoothMapMessageListing outList = null;
+        String version = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1193,7 +1193,6 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 outList = mOutContent.msgListing(folderToList, appParams);
                 // Generate the byte stream
                 outAppParams.setMessageListingSize(outList.getCount());
-                String version;
                 if (0 < (mRemoteFeatureMask
                         & BluetoothMapUtils.MAP_FEATURE_MESSAGE_LISTING_FORMAT_V11_BIT)) {
                     version = BluetoothMapUtils.MAP_V11_STR;
@@ -1201,8 +1200,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     version = BluetoothMapUtils.MAP_V10_STR;
                 }
                 /* This will only set the version, the bit must also be checked before adding any
-                 * 1.1 bits to the listing. */
-                outBytes = outList.encode(mThreadIdSupport, version);
+                 * 1.1 bits to the listing. The listing is encoded straight into the body stream
+                 * once the headers are sent. */
                 hasUnread = outList.hasUnread();
             } else {
                 listSize = mOutContent.msgListingSize(folderToList, appParams);
@@ -1264,19 +1263,16 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
         }
 
-        maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (outList != null) {
+            boolean encoded = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                outList.encode(outStream, mThreadIdSupport, version);
+                encoded = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
                 }
-                // We were probably aborted or disconnected
+                // We were probably aborted or disconnected, or the listing could not be encoded
             } finally {
                 if (outStream != null) {
                     try {
@@ -1286,8 +1282,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendMessageListingRsp: bytesWritten != outBytes.length"
+            if (!encoded && !mIsAborted) {
+                Log.w(TAG, "sendMessageListingRsp: listing not fully written"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -1358,12 +1354,11 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
      */
     private int sendConvoListingRsp(Operation op, BluetoothMapAppParams appParams) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0;
         //boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
         BluetoothMapConvoListing outList;
+        BluetoothMapConvoListing listToEncode = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1386,11 +1381,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             if (appParams.getMaxListCount() != 0) {
                 outList = mOutContent.convoListing(appParams, false);
                 outAppParams.setConvoListingSize(outList.getCount());
-                // Generate the byte stream
-                outBytes = outList.encode(); // Include thread ID for clients that supports it.
-                if (D) {
-                    Log.d(TAG, "outBytes size:" + outBytes.length);
-                }
+                // Encoded straight into the body stream once the headers are sent
+                listToEncode = outList;
             } else {
                 outList = mOutContent.convoListing(appParams, true);
                 outAppParams.setConvoListingSize(outList.getCount());
@@ -1413,7 +1405,6 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 Log.d(TAG, "outList size:" + outList.getCount() + " MaxListCount: "
                         + appParams.getMaxListCount());
             }
-            outList = null; // We don't need it anymore - we might as well give it up for GC
             outAppParams.setDatabaseIdentifier(0, mMasInstance.getDbIdentifier());
 
             // Build the application parameter header
@@ -1454,19 +1445,16 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
             return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
         }
 
-        maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (listToEncode != null) {
+            boolean encoded = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                listToEncode.encode(outStream);
+                encoded = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
                 }
-                // We were probably aborted or disconnected
+                // We were probably aborted or disconnected, or the listing could not be encoded
             } finally {
                 if (outStream != null) {
                     try {
@@ -1476,8 +1464,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendConvoListingRsp: bytesWritten != outBytes.length"
+            if (!encoded && !mIsAborted) {
+                Log.w(TAG, "sendConvoListingRsp: listing not fully written"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.content.ContentResolver;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
+
+import java.util.HashMap;
+
+/**
+ * Resolves MMS addresses and contact names for the duration of a single listing request.
+ *
+ * <p>The address filters and the element setters of a listing look up the same MMS addresses and
+ * the same contact names, often for every message of a conversation. Each lookup is a provider
+ * query, so results - including misses - are remembered until the owning {@link
+ * BluetoothMapContent.FilterInfo} is discarded at the end of the request. Nothing is cached
+ * across requests, so a listing never observes stale contacts.
+ */
+class ListingAddressCache {
+    private final LongSparseArray<String> mMmsFrom = new LongSparseArray<>();
+    private final LongSparseArray<String> mMmsTo = new LongSparseArray<>();
+    private final HashMap<String, String> mNames = new HashMap<>();
+
+    private int mQueryCount;
+
+    /**
+     * Returns the first MMS address of the given type, as {@link
+     * BluetoothMapContent#getAddressMms} would.
+     */
+    String getAddressMms(ContentResolver resolver, long id, int type) {
+        LongSparseArray<String> addresses;
+        if (type == BluetoothMapContent.MMS_FROM) {
+            addresses = mMmsFrom;
+        } else if (type == BluetoothMapContent.MMS_TO) {
+            addresses = mMmsTo;
+        } else {
+            mQueryCount++;
+            return BluetoothMapContent.getAddressMms(resolver, id, type);
+        }
+        int index = addresses.indexOfKey(id);
+        if (index >= 0) {
+            return addresses.valueAt(index);
+        }
+        mQueryCount++;
+        String address = BluetoothMapContent.getAddressMms(resolver, id, type);
+        addresses.put(id, address);
+        return address;
+    }
+
+    /**
+     * Returns the contact name for a phone number, as {@link
+     * BluetoothMapContent#getContactNameFromPhone} would.
+     */
+    String getContactNameFromPhone(String phone, ContentResolver resolver) {
+        if (TextUtils.isEmpty(phone)) {
+            return null;
+        }
+        if (mNames.containsKey(phone)) {
+            return mNames.get(phone);
+        }
+        mQueryCount++;
+        String name = BluetoothMapContent.getContactNameFromPhone(phone, resolver);
+        mNames.put(phone, name);
+        return name;
+    }
+
+    /** Returns the number of provider lookups issued so far. */
+    int getQueryCount() {
+        return mQueryCount;
+    }
+}
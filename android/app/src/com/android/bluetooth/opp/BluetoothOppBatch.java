@@ -169,6 +169,18 @@ public class BluetoothOppBatch {
         return mShares.contains(info);
     }
 
+    /** check if this batch and {@code other} have a share of the same content */
+    public boolean hasShareUriOf(BluetoothOppBatch other) {
+        for (BluetoothOppShareInfo share : mShares) {
+            for (BluetoothOppShareInfo otherShare : other.mShares) {
+                if (share.mUri != null && share.mUri.equals(otherShare.mUri)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /** if this batch is empty */
     public boolean isEmpty() {
         return (mShares.size() == 0);
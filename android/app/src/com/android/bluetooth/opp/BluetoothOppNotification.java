@@ -124,6 +124,10 @@ class BluetoothOppNotification {
 
     private ContentResolver mContentResolver = null;
 
+    /** Refreshes the progress notification as the running transfer advances. */
+    final BluetoothOppTransferProgress.Listener mProgressListener =
+            (shareId, currentBytes) -> updateNotification();
+
     /**
      * This inner class is used to describe some properties for one transfer.
      */
@@ -284,7 +288,8 @@ class BluetoothOppNotification {
             int dir = cursor.getInt(directionIndex);
             int id = cursor.getInt(idIndex);
             long total = cursor.getLong(totalBytesIndex);
-            long current = cursor.getLong(currentBytesIndex);
+            long current = BluetoothOppTransferProgress.getInstance()
+                    .getCurrentBytes(id, cursor.getLong(currentBytesIndex));
             int confirmation = cursor.getInt(confirmIndex);
 
             String destination = cursor.getString(destinationIndex);
@@ -54,7 +54,6 @@ import com.android.obex.ResponseCodes;
 
 import com.google.common.annotations.VisibleForTesting;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -131,19 +130,6 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
         mThread.addShare(share);
     }
 
-    @VisibleForTesting
-    static int readFully(InputStream is, byte[] buffer, int size) throws IOException {
-        int done = 0;
-        while (done < size) {
-            int got = is.read(buffer, done, size - done);
-            if (got <= 0) {
-                break;
-            }
-            done += got;
-        }
-        return done;
-    }
-
     @VisibleForTesting
     class ClientThread extends Thread {
 
@@ -391,6 +377,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             int status = BluetoothShare.STATUS_SUCCESS;
             Uri contentUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + mInfo.mId);
             ContentValues updateValues;
+            BluetoothOppTransferProgress.Reporter progress = null;
+            BluetoothOppReadAheadPump pump = null;
             HeaderSet request = new HeaderSet();
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
@@ -452,6 +440,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     updateValues.put(BluetoothShare.CURRENT_BYTES, 0);
                     updateValues.put(BluetoothShare.STATUS, BluetoothShare.STATUS_RUNNING);
                     mContext1.getContentResolver().update(contentUri, updateValues, null, null);
+                    progress = new BluetoothOppTransferProgress.Reporter(mContext1, mInfo.mId, 0);
                 }
 
                 if (!error) {
@@ -462,12 +451,14 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     long timestamp = 0;
                     long currentTime = 0;
                     long prevTimestamp = SystemClock.elapsedRealtime();
-                    int outputBufferSize = putOperation.getMaxPacketSize();
-                    byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    BluetoothOppReadAheadPump.Chunk chunk;
+                    pump = BluetoothOppReadAheadPump.create(mInfo.mUri, fileInfo.mInputStream,
+                            putOperation.getMaxPacketSize(), fileInfo.mLength);
+                    pump.start();
 
                     if (!mInterrupted && (position != fileInfo.mLength)) {
-                        readLength = readFully(a, buffer, outputBufferSize);
+                        chunk = pump.take();
+                        readLength = chunk.mLength;
 
                         mCallback.sendMessageDelayed(mCallback.obtainMessage(
                                 BluetoothOppObexSession.MSG_CONNECT_TIMEOUT),
@@ -477,7 +468,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                         }
 
                         // first packet will block here
-                        outputStream.write(buffer, 0, readLength);
+                        outputStream.write(chunk.mData, 0, readLength);
+                        pump.recycle(chunk);
 
                         position += readLength;
 
@@ -502,10 +494,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                                 Log.v(TAG, "Remote accept");
                             }
                             okToProceed = true;
-                            updateValues = new ContentValues();
-                            updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                            mContext1.getContentResolver()
-                                    .update(contentUri, updateValues, null, null);
+                            progress.update(position);
                             mNumFilesAttemptedToSend++;
                         } else {
                             Log.i(TAG, "Remote reject, Response code is " + responseCode);
@@ -517,8 +506,11 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             timestamp = SystemClock.elapsedRealtime();
                         }
 
-                        readLength = a.read(buffer, 0, outputBufferSize);
-                        outputStream.write(buffer, 0, readLength);
+                        // the next packet is read ahead while this one is being sent
+                        chunk = pump.take();
+                        readLength = chunk.mLength;
+                        outputStream.write(chunk.mData, 0, readLength);
+                        pump.recycle(chunk);
 
                         /* check remote abort */
                         responseCode = putOperation.getResponseCode();
@@ -542,10 +534,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             percent = position * 100 / fileInfo.mLength;
                             if (percent > prevPercent
                                     || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                                updateValues = new ContentValues();
-                                updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                                mContext1.getContentResolver()
-                                        .update(contentUri, updateValues, null, null);
+                                progress.update(position);
                                 prevPercent = percent;
                                 prevTimestamp = currentTime;
                             }
@@ -587,6 +576,12 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                 } catch (IOException e) {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
+                if (pump != null) {
+                    pump.close();
+                }
+                if (progress != null) {
+                    progress.finish();
+                }
 
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
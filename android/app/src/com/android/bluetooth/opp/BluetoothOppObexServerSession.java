@@ -465,8 +465,6 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         long position = 0;
-        long percent;
-        long prevPercent = 0;
 
         if (!error) {
             try {
@@ -479,12 +477,15 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         if (!error) {
-            int outputBufferSize = op.getMaxPacketSize();
-            byte[] b = new byte[outputBufferSize];
+            BluetoothOppReadAheadPump.Chunk chunk;
             int readLength;
             long timestamp = 0;
-            long currentTime;
-            long prevTimestamp = SystemClock.elapsedRealtime();
+            BluetoothOppTransferProgress.Reporter progress =
+                    new BluetoothOppTransferProgress.Reporter(mContext, mInfo.mId, 0);
+            // The file is written and the progress reported behind the receiving loop
+            BluetoothOppWriteBehindSink sink = new BluetoothOppWriteBehindSink(os,
+                    op.getMaxPacketSize(), fileInfo.mLength, progress);
+            sink.start();
             try {
                 while ((!mInterrupted) && (position != fileInfo.mLength)) {
 
@@ -492,39 +493,29 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         timestamp = SystemClock.elapsedRealtime();
                     }
 
-                    readLength = is.read(b);
+                    chunk = sink.obtain();
+                    readLength = is.read(chunk.mData);
 
                     if (readLength == -1) {
+                        sink.recycle(chunk);
                         if (D) {
                             Log.d(TAG, "Receive file reached stream end at position" + position);
                         }
                         break;
                     }
 
-                    os.write(b, 0, readLength);
+                    chunk.mLength = readLength;
+                    sink.submit(chunk);
                     position += readLength;
-                    percent = position * 100 / fileInfo.mLength;
-                    currentTime = SystemClock.elapsedRealtime();
 
                     if (V) {
                         Log.v(TAG,
                                 "Receive file position = " + position + " readLength " + readLength
-                                        + " bytes took " + (currentTime - timestamp) + " ms");
-                    }
-
-                    // Update the Progress Bar only if there is change in percentage
-                    // or once per a period to notify NFC of this transfer is still alive
-                    if (percent > prevPercent
-                            || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
-                        ContentValues updateValues = new ContentValues();
-                        updateValues.put(BluetoothShare.CURRENT_BYTES, position);
-                        BluetoothMethodProxy.getInstance().contentResolverUpdate(
-                                mContext.getContentResolver(), contentUri, updateValues, null,
-                                null);
-                        prevPercent = percent;
-                        prevTimestamp = currentTime;
+                                        + " bytes took " + (SystemClock.elapsedRealtime()
+                                        - timestamp) + " ms");
                     }
                 }
+                sink.finish();
             } catch (IOException e1) {
                 Log.e(TAG, "Error when receiving file: " + e1);
                 /* OBEX Abort packet received from remote device */
@@ -534,7 +525,10 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                     status = BluetoothShare.STATUS_OBEX_DATA_ERROR;
                 }
                 error = true;
+            } finally {
+                sink.close();
             }
+            progress.finish();
         }
 
         if (mInterrupted) {
@@ -543,7 +537,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
             }
             status = BluetoothShare.STATUS_CANCELED;
         } else {
-            if (position == fileInfo.mLength) {
+            // the last chunks may still fail to be written after they were all received
+            if (!error && position == fileInfo.mLength) {
                 if (D) {
                     Log.d(TAG, "Receiving file completed for " + fileInfo.mFileName);
                 }
@@ -311,9 +311,11 @@ public final class BluetoothOppProvider extends ContentProvider {
             return null;
         }
 
-        context.getContentResolver().notifyChange(uri, null);
+        Uri rowUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + rowID);
+        // Notify the row so observers of the share table only need to load the new share.
+        context.getContentResolver().notifyChange(rowUri, null);
 
-        return Uri.parse(BluetoothShare.CONTENT_URI + "/" + rowID);
+        return rowUri;
     }
 
     @Override
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the file being sent ahead of the OBEX session.
+ *
+ * <p>A reader thread fills a small pool of packet sized buffers, so the next packet is already
+ * read while the previous one is written to the remote device. Each chunk returned by {@link
+ * #take} must be handed back with {@link #recycle} once it has been written.
+ */
+class BluetoothOppReadAheadPump {
+    private static final String TAG = "BtOppReadAheadPump";
+    private static final boolean V = Constants.VERBOSE;
+
+    /** Number of pooled buffers: one being written while the other is read. */
+    private static final int BUFFER_COUNT = 2;
+
+    /** A buffer holding {@code mLength} bytes of the file. */
+    static class Chunk {
+        final byte[] mData;
+        int mLength;
+
+        Chunk(int size) {
+            mData = new byte[size];
+        }
+    }
+
+    /** Where the file content is read from. */
+    interface Source {
+        /** Reads up to {@code length} bytes, returning -1 or 0 at the end of the file. */
+        int read(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    // Queued by the reader when it stops early, after mError has been set.
+    private final Chunk mEndOfStream = new Chunk(0);
+
+    private final Source mSource;
+    private final long mLength;
+    private final BlockingQueue<Chunk> mFreeChunks;
+    private final BlockingQueue<Chunk> mFilledChunks;
+    private final Thread mReader;
+
+    private volatile IOException mError;
+
+    /**
+     * Creates a pump reading {@code length} bytes of {@code uri}. Files are read through their
+     * {@link FileChannel}; content URIs keep going through the stream, which may only expose a
+     * part of the underlying file.
+     */
+    static BluetoothOppReadAheadPump create(Uri uri, FileInputStream inputStream, int chunkSize,
+            long length) {
+        Source source;
+        if (uri != null && ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            FileChannel channel = inputStream.getChannel();
+            source = (buffer, offset, size) -> channel.read(ByteBuffer.wrap(buffer, offset, size));
+        } else {
+            source = inputStream::read;
+        }
+        return new BluetoothOppReadAheadPump(source, chunkSize, length);
+    }
+
+    @VisibleForTesting
+    BluetoothOppReadAheadPump(Source source, int chunkSize, long length) {
+        mSource = source;
+        mLength = length;
+        mFreeChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+        // One extra slot so that mEndOfStream can always be queued.
+        mFilledChunks = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeChunks.add(new Chunk(chunkSize));
+        }
+        mReader = new Thread(this::readLoop, "BtOppReadAheadPump");
+    }
+
+    void start() {
+        mReader.start();
+    }
+
+    /** Returns the next chunk of the file, waiting for the reader if needed. */
+    Chunk take() throws IOException {
+        Chunk chunk;
+        try {
+            chunk = mFilledChunks.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for file data");
+        }
+        if (chunk == mEndOfStream) {
+            // Keep failing if the caller asks again.
+            mFilledChunks.offer(mEndOfStream);
+            throw mError;
+        }
+        return chunk;
+    }
+
+    /** Returns a chunk obtained from {@link #take} to the reader. */
+    void recycle(Chunk chunk) {
+        mFreeChunks.offer(chunk);
+    }
+
+    /** Stops the reader. Must be called once the transfer is over, whatever its outcome. */
+    void close() {
+        mReader.interrupt();
+    }
+
+    private void readLoop() {
+        long remaining = mLength;
+        try {
+            while (remaining > 0) {
+                Chunk chunk = mFreeChunks.take();
+                int size = (int) Math.min(chunk.mData.length, remaining);
+                int done = 0;
+                while (done < size) {
+                    int got = mSource.read(chunk.mData, done, size - done);
+                    if (got <= 0) {
+                        break;
+                    }
+                    done += got;
+                }
+                chunk.mLength = done;
+                remaining -= done;
+                if (done > 0) {
+                    mFilledChunks.put(chunk);
+                }
+                if (done < size) {
+                    throw new EOFException("File ended " + remaining + " bytes early");
+                }
+            }
+            if (V) {
+                Log.v(TAG, "Read " + mLength + " bytes ahead");
+            }
+        } catch (InterruptedException e) {
+            // The transfer is over.
+        } catch (IOException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                Log.e(TAG, "Error when reading file: " + e);
+            }
+            mError = e;
+            mFilledChunks.offer(mEndOfStream);
+        }
+    }
+}
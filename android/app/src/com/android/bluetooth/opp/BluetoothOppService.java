@@ -55,9 +55,11 @@ import android.os.Process;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.IObexConnectionHandler;
 import com.android.bluetooth.ObexServerSockets;
+import com.android.bluetooth.R;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.sdp.SdpManager;
@@ -68,6 +70,8 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 
 /**
@@ -112,11 +116,11 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
 
         @Override
-        public void onChange(boolean selfChange) {
+        public void onChange(boolean selfChange, Uri uri) {
             if (V) {
-                Log.v(TAG, "ContentObserver received notification");
+                Log.v(TAG, "ContentObserver received notification for " + uri);
             }
-            updateFromProvider();
+            updateFromProvider(uri);
         }
     }
 
@@ -130,15 +134,29 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
 
     private boolean mPendingUpdate;
 
+    /** Whether the next update has to rescan the whole share table. */
+    private boolean mPendingFullUpdate;
+
+    /** Ids of the shares changed since the last update, when a rescan is not pending. */
+    private final HashSet<Integer> mPendingShareIds = new HashSet<>();
+
     private UpdateThread mUpdateThread;
 
     private boolean mUpdateThreadRunning;
 
-    private ArrayList<BluetoothOppShareInfo> mShares;
+    @VisibleForTesting
+    ArrayList<BluetoothOppShareInfo> mShares;
+
+    // Guards mBatches, mTransfers and mServerTransfer, which the update thread changes while the
+    // handler checks them for incoming connections.
+    private final Object mBatchLock = new Object();
 
     private ArrayList<BluetoothOppBatch> mBatches;
 
-    private BluetoothOppTransfer mTransfer;
+    /** Running outbound transfers, by batch id. */
+    private HashMap<Integer, BluetoothOppTransfer> mTransfers;
+
+    private BluetoothOppTransferScheduler mScheduler;
 
     private BluetoothOppTransfer mServerTransfer;
 
@@ -219,7 +237,12 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
         mShares = new ArrayList();
         mBatches = new ArrayList();
+        mTransfers = new HashMap<>();
         mBatchId = 1;
+        mScheduler = new BluetoothOppTransferScheduler(
+                getResources().getInteger(R.integer.config_opp_max_concurrent_transfers),
+                getResources().getInteger(
+                        R.integer.config_opp_max_concurrent_transfers_per_device));
 
         IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
         filter.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY);
@@ -261,6 +284,8 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         getContentResolver().registerContentObserver(BluetoothShare.CONTENT_URI, true, mObserver);
         mNotifier = new BluetoothOppNotification(this);
         mNotifier.mNotificationMgr.cancelAll();
+        BluetoothOppTransferProgress.getInstance().addListener(mNotifier.mProgressListener);
+        BluetoothOppTransferProgress.getInstance().addListener(mScheduler);
         updateFromProvider();
         setBluetoothOppService(this);
         mAdapterService.notifyActivityAttributionInfo(
@@ -306,13 +331,16 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
     @Override
     public void dump(StringBuilder sb) {
         super.dump(sb);
+        mScheduler.dump(sb);
         if (mShares.size() > 0) {
             println(sb, "Shares:");
             for (BluetoothOppShareInfo info : mShares) {
                 String dir = info.mDirection == BluetoothShare.DIRECTION_OUTBOUND ? " -> " : " <- ";
                 SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
                 Date date = new Date(info.mTimestamp);
-                println(sb, "  " + format.format(date) + dir + info.mCurrentBytes + "/"
+                long currentBytes = BluetoothOppTransferProgress.getInstance()
+                        .getCurrentBytes(info.mId, info.mCurrentBytes);
+                println(sb, "  " + format.format(date) + dir + currentBytes + "/"
                         + info.mTotalBytes);
             }
         }
@@ -362,15 +390,18 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 case STOP_LISTENER:
                     stopListeners();
                     mListenStarted = false;
-                    //Stop Active INBOUND Transfer
-                    if (mServerTransfer != null) {
-                        mServerTransfer.onBatchCanceled();
-                        mServerTransfer = null;
-                    }
-                    //Stop Active OUTBOUND Transfer
-                    if (mTransfer != null) {
-                        mTransfer.onBatchCanceled();
-                        mTransfer = null;
+                    synchronized (mBatchLock) {
+                        //Stop Active INBOUND Transfer
+                        if (mServerTransfer != null) {
+                            mServerTransfer.onBatchCanceled();
+                            mServerTransfer = null;
+                        }
+                        //Stop Active OUTBOUND Transfers
+                        for (BluetoothOppTransfer transfer : mTransfers.values()) {
+                            transfer.onBatchCanceled();
+                        }
+                        mTransfers.clear();
+                        mScheduler.onRunningTransfersChanged(0);
                     }
                     unregisterReceivers();
                     synchronized (BluetoothOppService.this) {
@@ -440,11 +471,11 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
 
                     /*
                      * Strategy for incoming connections:
-                     * 1. If there is no ongoing transfer, no on-hold connection, start it
-                     * 2. If there is ongoing transfer, hold it for 20 seconds(1 seconds * 20 times)
+                     * 1. If an inbound transfer can start, no on-hold connection, start it
+                     * 2. Otherwise hold it for 20 seconds(1 seconds * 20 times)
                      * 3. If there is on-hold connection, reject directly
                      */
-                    if (mBatches.size() == 0 && mPendingConnection == null) {
+                    if (canAcceptIncoming(transport) && mPendingConnection == null) {
                         Log.i(TAG, "Start Obex Server");
                         createServerSession(transport);
                     } else {
@@ -466,7 +497,7 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                     }
                     break;
                 case MSG_INCOMING_CONNECTION_RETRY:
-                    if (mBatches.size() == 0) {
+                    if (canAcceptIncoming(mPendingConnection)) {
                         Log.i(TAG, "Start Obex Server");
                         createServerSession(mPendingConnection);
                         mIncomingRetries = 0;
@@ -526,8 +557,13 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
             Log.v(TAG, "onDestroy");
         }
         stopListeners();
-        if (mBatches != null) {
-            mBatches.clear();
+        synchronized (mBatchLock) {
+            if (mBatches != null) {
+                mBatches.clear();
+            }
+            if (mTransfers != null) {
+                mTransfers.clear();
+            }
         }
         if (mShares != null) {
             mShares.clear();
@@ -543,6 +579,11 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                 getContentResolver().unregisterContentObserver(mObserver);
                 mObserver = null;
             }
+            if (mNotifier != null) {
+                BluetoothOppTransferProgress.getInstance()
+                        .removeListener(mNotifier.mProgressListener);
+            }
+            BluetoothOppTransferProgress.getInstance().removeListener(mScheduler);
             unregisterReceiver(mBluetoothReceiver);
         } catch (IllegalArgumentException e) {
             Log.w(TAG, "unregisterReceivers " + e.toString());
@@ -605,7 +646,22 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
     };
 
     private void updateFromProvider() {
+        updateFromProvider(null);
+    }
+
+    /**
+     * Schedules the reconciliation of {@link #mShares} with the provider. A change to a single
+     * share row only reloads that share; any other change rescans the whole table.
+     */
+    private void updateFromProvider(Uri uri) {
+        int shareId = getShareId(uri);
         synchronized (BluetoothOppService.this) {
+            if (shareId < 0) {
+                mPendingFullUpdate = true;
+                mPendingShareIds.clear();
+            } else if (!mPendingFullUpdate) {
+                mPendingShareIds.add(shareId);
+            }
             mPendingUpdate = true;
             if (mUpdateThread == null) {
                 mUpdateThread = new UpdateThread();
@@ -637,6 +693,8 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         public void run() {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
+            boolean fullUpdate;
+            ArrayList<Integer> shareIds;
             while (!mIsInterrupted) {
                 synchronized (BluetoothOppService.this) {
                     if (mUpdateThread != this) {
@@ -654,6 +712,18 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                         return;
                     }
                     mPendingUpdate = false;
+                    // Until the listener runs, only the full walk decides which shares to keep.
+                    fullUpdate = mPendingFullUpdate || !mListenStarted;
+                    shareIds = new ArrayList<>(mPendingShareIds);
+                    mPendingFullUpdate = false;
+                    mPendingShareIds.clear();
+                }
+                if (!fullUpdate) {
+                    for (int shareId : shareIds) {
+                        updateShareFromProvider(shareId);
+                    }
+                    mNotifier.updateNotification();
+                    continue;
                 }
                 Cursor cursor =
                         getContentResolver().query(BluetoothShare.CONTENT_URI, null, null, null,
@@ -753,6 +823,75 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
         }
     }
 
+    /**
+     * Reloads a single share from the provider, inserting, updating or removing its entry in
+     * {@link #mShares} without walking the rest of the table.
+     */
+    @VisibleForTesting
+    void updateShareFromProvider(int shareId) {
+        Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
+                getContentResolver(), Uri.parse(BluetoothShare.CONTENT_URI + "/" + shareId),
+                null, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int arrayPos = findShare(shareId);
+            if (cursor.moveToFirst()) {
+                if (arrayPos >= 0) {
+                    updateShare(cursor, arrayPos);
+                    scanFileIfNeeded(arrayPos);
+                } else {
+                    if (V) {
+                        Log.v(TAG, "Share update: inserting " + shareId + " @ " + ~arrayPos);
+                    }
+                    insertShare(cursor, ~arrayPos);
+                }
+            } else if (arrayPos >= 0) {
+                if (V) {
+                    Log.v(TAG, "Share update: removing " + shareId + " @ " + arrayPos);
+                }
+                deleteShare(arrayPos);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Looks up a share in {@link #mShares}, which is sorted by id. Returns its position, or the
+     * bitwise complement of the position it would be inserted at.
+     */
+    private int findShare(int shareId) {
+        int low = 0;
+        int high = mShares.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = mShares.get(mid).mId;
+            if (midId < shareId) {
+                low = mid + 1;
+            } else if (midId > shareId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~low;
+    }
+
+    /** Returns the id of the share row {@code uri} points to, or -1 for any other uri. */
+    private static int getShareId(Uri uri) {
+        if (uri == null || !BluetoothShare.CONTENT_URI.getAuthority().equals(uri.getAuthority())
+                || uri.getPathSegments().size() != 2) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(uri.getLastPathSegment());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private void insertShare(Cursor cursor, int arrayPos) {
         String uriString = cursor.getString(cursor.getColumnIndexOrThrow(BluetoothShare.URI));
         Uri uri;
@@ -826,59 +965,24 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
                     return;
                 }
             }
-            if (mBatches.size() == 0) {
-                BluetoothOppBatch newBatch = new BluetoothOppBatch(this, info);
-                newBatch.mId = mBatchId;
-                mBatchId++;
-                mBatches.add(newBatch);
-                if (info.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
-                    if (V) {
-                        Log.v(TAG,
-                                "Service create new Batch " + newBatch.mId + " for OUTBOUND info "
-                                        + info.mId);
-                    }
-                    mTransfer = new BluetoothOppTransfer(this, newBatch);
-                } else if (info.mDirection == BluetoothShare.DIRECTION_INBOUND) {
-                    if (V) {
-                        Log.v(TAG, "Service create new Batch " + newBatch.mId + " for INBOUND info "
-                                + info.mId);
-                    }
-                    mServerTransfer = new BluetoothOppTransfer(this, newBatch, mServerSession);
-                }
-
-                if (info.mDirection == BluetoothShare.DIRECTION_OUTBOUND && mTransfer != null) {
-                    if (V) {
-                        Log.v(TAG, "Service start transfer new Batch " + newBatch.mId + " for info "
-                                + info.mId);
-                    }
-                    mTransfer.start();
-                } else if (info.mDirection == BluetoothShare.DIRECTION_INBOUND
-                        && mServerTransfer != null) {
-                    if (V) {
-                        Log.v(TAG, "Service start server transfer new Batch " + newBatch.mId
-                                + " for info " + info.mId);
-                    }
-                    mServerTransfer.start();
-                }
-
-            } else {
+            synchronized (mBatchLock) {
                 int i = findBatchWithTimeStamp(info.mTimestamp);
                 if (i != -1) {
                     if (V) {
-                        Log.v(TAG, "Service add info " + info.mId + " to existing batch " + mBatches
-                                .get(i).mId);
+                        Log.v(TAG, "Service add info " + info.mId + " to existing batch "
+                                + mBatches.get(i).mId);
                     }
                     mBatches.get(i).addShare(info);
                 } else {
-                    // There is ongoing batch
                     BluetoothOppBatch newBatch = new BluetoothOppBatch(this, info);
                     newBatch.mId = mBatchId;
                     mBatchId++;
                     mBatches.add(newBatch);
                     if (V) {
-                        Log.v(TAG,
-                                "Service add new Batch " + newBatch.mId + " for info " + info.mId);
+                        Log.v(TAG, "Service add new Batch " + newBatch.mId + " for info "
+                                + info.mId);
                     }
+                    startPendingBatches();
                 }
             }
         }
@@ -931,56 +1035,55 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
 
         info.mStatus = newStatus;
         info.mTotalBytes = cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.TOTAL_BYTES));
-        info.mCurrentBytes =
-                cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.CURRENT_BYTES));
+        info.mCurrentBytes = BluetoothOppTransferProgress.getInstance().getCurrentBytes(info.mId,
+                cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.CURRENT_BYTES)));
         info.mTimestamp = cursor.getLong(cursor.getColumnIndexOrThrow(BluetoothShare.TIMESTAMP));
         info.mMediaScanned = (cursor.getInt(cursor.getColumnIndexOrThrow(Constants.MEDIA_SCANNED))
                 != Constants.MEDIA_SCANNED_NOT_SCANNED);
 
-        if (confirmUpdated) {
-            if (V) {
-                Log.v(TAG, "Service handle info " + info.mId + " confirmation updated");
+        synchronized (mBatchLock) {
+            if (confirmUpdated) {
+                if (V) {
+                    Log.v(TAG, "Service handle info " + info.mId + " confirmation updated");
+                }
+                /* Inbounds transfer user confirmation status changed, update the session server */
+                int i = findBatchWithTimeStamp(info.mTimestamp);
+                if (i != -1) {
+                    BluetoothOppBatch batch = mBatches.get(i);
+                    if (mServerTransfer != null && batch.mId == mServerTransfer.getBatchId()) {
+                        mServerTransfer.confirmStatusChanged();
+                    } //TODO need to think about else
+                }
             }
-            /* Inbounds transfer user confirmation status changed, update the session server */
             int i = findBatchWithTimeStamp(info.mTimestamp);
             if (i != -1) {
                 BluetoothOppBatch batch = mBatches.get(i);
-                if (mServerTransfer != null && batch.mId == mServerTransfer.getBatchId()) {
-                    mServerTransfer.confirmStatusChanged();
-                } //TODO need to think about else
-            }
-        }
-        int i = findBatchWithTimeStamp(info.mTimestamp);
-        if (i != -1) {
-            BluetoothOppBatch batch = mBatches.get(i);
-            if (batch.mStatus == Constants.BATCH_STATUS_FINISHED
-                    || batch.mStatus == Constants.BATCH_STATUS_FAILED) {
-                if (V) {
-                    Log.v(TAG, "Batch " + batch.mId + " is finished");
-                }
-                if (batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
-                    if (mTransfer == null) {
-                        Log.e(TAG, "Unexpected error! mTransfer is null");
-                    } else if (batch.mId == mTransfer.getBatchId()) {
-                        mTransfer.stop();
-                    } else {
-                        Log.e(TAG, "Unexpected error! batch id " + batch.mId
-                                + " doesn't match mTransfer id " + mTransfer.getBatchId());
+                if (batch.mStatus == Constants.BATCH_STATUS_FINISHED
+                        || batch.mStatus == Constants.BATCH_STATUS_FAILED) {
+                    if (V) {
+                        Log.v(TAG, "Batch " + batch.mId + " is finished");
                     }
-                    mTransfer = null;
-                } else {
-                    if (mServerTransfer == null) {
-                        Log.e(TAG, "Unexpected error! mServerTransfer is null");
-                    } else if (batch.mId == mServerTransfer.getBatchId()) {
-                        mServerTransfer.stop();
+                    if (batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
+                        BluetoothOppTransfer transfer = mTransfers.remove(batch.mId);
+                        if (transfer == null) {
+                            Log.e(TAG, "Unexpected error! no transfer for batch id " + batch.mId);
+                        } else {
+                            transfer.stop();
+                        }
                     } else {
-                        Log.e(TAG, "Unexpected error! batch id " + batch.mId
-                                + " doesn't match mServerTransfer id "
-                                + mServerTransfer.getBatchId());
+                        if (mServerTransfer == null) {
+                            Log.e(TAG, "Unexpected error! mServerTransfer is null");
+                        } else if (batch.mId == mServerTransfer.getBatchId()) {
+                            mServerTransfer.stop();
+                        } else {
+                            Log.e(TAG, "Unexpected error! batch id " + batch.mId
+                                    + " doesn't match mServerTransfer id "
+                                    + mServerTransfer.getBatchId());
+                        }
+                        mServerTransfer = null;
                     }
-                    mServerTransfer = null;
+                    removeBatch(batch);
                 }
-                removeBatch(batch);
             }
         }
     }
@@ -997,20 +1100,22 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
          * 2) cancel the batch
          * 3) If the batch become empty delete the batch
          */
-        int i = findBatchWithTimeStamp(info.mTimestamp);
-        if (i != -1) {
-            BluetoothOppBatch batch = mBatches.get(i);
-            if (batch.hasShare(info)) {
-                if (V) {
-                    Log.v(TAG, "Service cancel batch for share " + info.mId);
+        synchronized (mBatchLock) {
+            int i = findBatchWithTimeStamp(info.mTimestamp);
+            if (i != -1) {
+                BluetoothOppBatch batch = mBatches.get(i);
+                if (batch.hasShare(info)) {
+                    if (V) {
+                        Log.v(TAG, "Service cancel batch for share " + info.mId);
+                    }
+                    batch.cancelBatch();
                 }
-                batch.cancelBatch();
-            }
-            if (batch.isEmpty()) {
-                if (V) {
-                    Log.v(TAG, "Service remove batch  " + batch.mId);
+                if (batch.isEmpty()) {
+                    if (V) {
+                        Log.v(TAG, "Service remove batch  " + batch.mId);
+                    }
+                    removeBatch(batch);
                 }
-                removeBatch(batch);
             }
         }
         mShares.remove(arrayPos);
@@ -1057,39 +1162,68 @@ public class BluetoothOppService extends ProfileService implements IObexConnecti
             Log.v(TAG, "Remove batch " + batch.mId);
         }
         mBatches.remove(batch);
-        if (mBatches.size() > 0) {
-            for (BluetoothOppBatch nextBatch : mBatches) {
-                // we have a running batch
-                if (nextBatch.mStatus == Constants.BATCH_STATUS_RUNNING) {
-                    return;
-                } else {
-                    // just finish a transfer, start pending outbound transfer
-                    if (nextBatch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
-                        if (V) {
-                            Log.v(TAG, "Start pending outbound batch " + nextBatch.mId);
-                        }
-                        mTransfer = new BluetoothOppTransfer(this, nextBatch);
-                        mTransfer.start();
-                        return;
-                    } else if (nextBatch.mDirection == BluetoothShare.DIRECTION_INBOUND
-                            && mServerSession != null) {
-                        // have to support pending inbound transfer
-                        // if an outbound transfer and incoming socket happens together
-                        if (V) {
-                            Log.v(TAG, "Start pending inbound batch " + nextBatch.mId);
-                        }
-                        mServerTransfer = new BluetoothOppTransfer(this, nextBatch, mServerSession);
-                        mServerTransfer.start();
-                        if (nextBatch.getPendingShare() != null
-                                && nextBatch.getPendingShare().mConfirm
-                                == BluetoothShare.USER_CONFIRMATION_CONFIRMED) {
-                            mServerTransfer.confirmStatusChanged();
-                        }
-                        return;
-                    }
+        startPendingBatches();
+    }
+
+    private boolean isBatchStarted(BluetoothOppBatch batch) {
+        if (batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
+            return mTransfers.containsKey(batch.mId);
+        }
+        return mServerTransfer != null && mServerTransfer.getBatchId() == batch.mId;
+    }
+
+    private int getRunningTransferCount() {
+        return mTransfers.size() + (mServerTransfer != null ? 1 : 0);
+    }
+
+    /**
+     * Returns whether an incoming connection can be served now: there is a single server session,
+     * and its batch needs a free transfer slot, both overall and with the remote device.
+     */
+    private boolean canAcceptIncoming(ObexTransport transport) {
+        String address = null;
+        if (transport instanceof BluetoothObexTransport) {
+            address = ((BluetoothObexTransport) transport).getRemoteAddress();
+        }
+        synchronized (mBatchLock) {
+            for (BluetoothOppBatch batch : mBatches) {
+                if (batch.mDirection == BluetoothShare.DIRECTION_INBOUND) {
+                    return false;
+                }
+            }
+            return mServerTransfer == null
+                    && mScheduler.hasFreeSlot(mBatches, this::isBatchStarted, address);
+        }
+    }
+
+    /** Starts the pending batches picked by {@link #mScheduler}. Called with mBatchLock held. */
+    private void startPendingBatches() {
+        for (BluetoothOppBatch nextBatch :
+                mScheduler.selectBatchesToStart(mBatches, this::isBatchStarted)) {
+            if (nextBatch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
+                if (V) {
+                    Log.v(TAG, "Start pending outbound batch " + nextBatch.mId);
+                }
+                BluetoothOppTransfer transfer = new BluetoothOppTransfer(this, nextBatch);
+                mTransfers.put(nextBatch.mId, transfer);
+                transfer.start();
+            } else if (nextBatch.mDirection == BluetoothShare.DIRECTION_INBOUND
+                    && mServerSession != null && mServerTransfer == null) {
+                // have to support pending inbound transfer
+                // if an outbound transfer and incoming socket happens together
+                if (V) {
+                    Log.v(TAG, "Start pending inbound batch " + nextBatch.mId);
+                }
+                mServerTransfer = new BluetoothOppTransfer(this, nextBatch, mServerSession);
+                mServerTransfer.start();
+                if (nextBatch.getPendingShare() != null
+                        && nextBatch.getPendingShare().mConfirm
+                        == BluetoothShare.USER_CONFIRMATION_CONFIRMED) {
+                    mServerTransfer.confirmStatusChanged();
                 }
             }
         }
+        mScheduler.onRunningTransfersChanged(getRunningTransferCount());
     }
 
     private void scanFileIfNeeded(int arrayPos) {
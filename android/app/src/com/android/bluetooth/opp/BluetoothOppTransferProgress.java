@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseLongArray;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory progress of the running transfers.
+ *
+ * <p>The OBEX sessions publish the number of bytes transferred here, and persist it to {@link
+ * BluetoothShare#CURRENT_BYTES} only every {@link Constants#PROGRESS_PERSIST_INTERVAL_MS}. Every
+ * provider write makes {@link BluetoothOppService} rescan the whole share table, so the service
+ * and {@link BluetoothOppNotification} follow the progress through this channel instead.
+ */
+class BluetoothOppTransferProgress {
+    private static final String TAG = "BtOppTransferProgress";
+    private static final boolean V = Constants.VERBOSE;
+
+    private static final BluetoothOppTransferProgress sInstance =
+            new BluetoothOppTransferProgress();
+
+    /** Notified on the session thread, so implementations must not block. */
+    interface Listener {
+        void onProgress(int shareId, long currentBytes);
+    }
+
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final SparseLongArray mCurrentBytes = new SparseLongArray();
+
+    static BluetoothOppTransferProgress getInstance() {
+        return sInstance;
+    }
+
+    void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Records the progress of a running share and notifies the listeners. */
+    void publish(int shareId, long currentBytes) {
+        synchronized (this) {
+            mCurrentBytes.put(shareId, currentBytes);
+        }
+        for (Listener listener : mListeners) {
+            listener.onProgress(shareId, currentBytes);
+        }
+    }
+
+    /**
+     * Returns the latest published progress of a share, or {@code defaultBytes} if the share is
+     * not running.
+     */
+    synchronized long getCurrentBytes(int shareId, long defaultBytes) {
+        return mCurrentBytes.get(shareId, defaultBytes);
+    }
+
+    /** Forgets a share once its final progress has been persisted. */
+    synchronized void remove(int shareId) {
+        mCurrentBytes.delete(shareId);
+    }
+
+    /**
+     * Reports the progress of one share: every update is published, and persisted to the provider
+     * at a fixed cadence. {@link #finish} persists the final position.
+     */
+    static class Reporter {
+        private final Context mContext;
+        private final Uri mContentUri;
+        private final int mShareId;
+        private final long mPersistIntervalMs;
+        private final BluetoothOppTransferProgress mProgress;
+
+        private long mCurrentBytes;
+        private long mPersistedBytes;
+        private long mPersistedTimestamp;
+
+        Reporter(Context context, int shareId, long persistedBytes) {
+            this(context, shareId, persistedBytes, Constants.PROGRESS_PERSIST_INTERVAL_MS,
+                    BluetoothOppTransferProgress.getInstance());
+        }
+
+        @VisibleForTesting
+        Reporter(Context context, int shareId, long persistedBytes, long persistIntervalMs,
+                BluetoothOppTransferProgress progress) {
+            mContext = context;
+            mContentUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + shareId);
+            mShareId = shareId;
+            mPersistIntervalMs = persistIntervalMs;
+            mProgress = progress;
+            mCurrentBytes = persistedBytes;
+            mPersistedBytes = persistedBytes;
+            mPersistedTimestamp = SystemClock.elapsedRealtime();
+        }
+
+        void update(long currentBytes) {
+            mCurrentBytes = currentBytes;
+            mProgress.publish(mShareId, currentBytes);
+            long now = SystemClock.elapsedRealtime();
+            if (now - mPersistedTimestamp >= mPersistIntervalMs) {
+                persist(now);
+            }
+        }
+
+        void finish() {
+            if (mCurrentBytes != mPersistedBytes) {
+                persist(SystemClock.elapsedRealtime());
+            }
+            mProgress.remove(mShareId);
+        }
+
+        private void persist(long now) {
+            if (V) {
+                Log.v(TAG, "Persisting " + mCurrentBytes + " bytes of share " + mShareId);
+            }
+            ContentValues updateValues = new ContentValues();
+            updateValues.put(BluetoothShare.CURRENT_BYTES, mCurrentBytes);
+            BluetoothMethodProxy.getInstance().contentResolverUpdate(
+                    mContext.getContentResolver(), mContentUri, updateValues, null, null);
+            mPersistedBytes = mCurrentBytes;
+            mPersistedTimestamp = now;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.os.SystemClock;
+import android.util.SparseLongArray;
+
+import com.android.bluetooth.btservice.ProfileService;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * Decides which OPP batches run at the same time.
+ *
+ * <p>Up to {@code maxTransfers} batches run concurrently, at most {@code maxTransfersPerDevice}
+ * of them with the same remote device. Free slots go to inbound batches first, since their remote
+ * device is already connected and waiting, then to the device served least recently, so that a
+ * long queue for one device does not starve the others. Outbound batches sharing content do not
+ * run together, since the content is opened once and closed when the first of them completes.
+ *
+ * <p>The scheduler also follows the progress of the transfers to report their aggregate
+ * throughput.
+ */
+class BluetoothOppTransferScheduler implements BluetoothOppTransferProgress.Listener {
+    private final int mMaxTransfers;
+    private final int mMaxTransfersPerDevice;
+
+    // Sequence number of the last batch started with each device, for round-robin.
+    private final HashMap<String, Long> mLastServed = new HashMap<>();
+    private long mServedCount;
+
+    // Guarded by this
+    private final SparseLongArray mShareBytes = new SparseLongArray();
+    private long mTotalBytes;
+    private int mRunningTransfers;
+    private long mActiveSince;
+    private long mActiveMs;
+
+    BluetoothOppTransferScheduler(int maxTransfers, int maxTransfersPerDevice) {
+        mMaxTransfers = Math.max(1, maxTransfers);
+        mMaxTransfersPerDevice = Math.max(1, maxTransfersPerDevice);
+    }
+
+    /**
+     * Returns whether another batch with {@code address} may start now. A null address is only
+     * checked against the overall limit.
+     *
+     * @param batches all the batches known to the service
+     * @param isStarted whether a transfer has already been started for a batch
+     */
+    boolean hasFreeSlot(List<BluetoothOppBatch> batches, Predicate<BluetoothOppBatch> isStarted,
+            String address) {
+        String key = address != null ? address.toUpperCase(Locale.ROOT) : null;
+        int running = 0;
+        int runningWithDevice = 0;
+        for (BluetoothOppBatch batch : batches) {
+            if (isStarted.test(batch)) {
+                running++;
+                if (getAddress(batch).equals(key)) {
+                    runningWithDevice++;
+                }
+            }
+        }
+        return running < mMaxTransfers && runningWithDevice < mMaxTransfersPerDevice;
+    }
+
+    /**
+     * Returns the pending batches to start now, in order.
+     *
+     * @param batches all the batches known to the service, in arrival order
+     * @param isStarted whether a transfer has already been started for a batch
+     */
+    List<BluetoothOppBatch> selectBatchesToStart(List<BluetoothOppBatch> batches,
+            Predicate<BluetoothOppBatch> isStarted) {
+        HashMap<String, Integer> perDevice = new HashMap<>();
+        ArrayList<BluetoothOppBatch> candidates = new ArrayList<>();
+        ArrayList<BluetoothOppBatch> sending = new ArrayList<>();
+        int running = 0;
+        for (BluetoothOppBatch batch : batches) {
+            String address = getAddress(batch);
+            if (isStarted.test(batch)) {
+                perDevice.merge(address, 1, Integer::sum);
+                running++;
+                if (batch.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
+                    sending.add(batch);
+                }
+            } else if (batch.mStatus == Constants.BATCH_STATUS_PENDING) {
+                candidates.add(batch);
+            }
+        }
+        // Devices without any batch no longer need their turn remembered.
+        mLastServed.keySet().removeIf(address -> !hasBatchWithDevice(batches, address));
+
+        ArrayList<BluetoothOppBatch> selected = new ArrayList<>();
+        while (running < mMaxTransfers) {
+            BluetoothOppBatch next = null;
+            long nextServed = 0;
+            for (BluetoothOppBatch batch : candidates) {
+                String address = getAddress(batch);
+                if (perDevice.getOrDefault(address, 0) >= mMaxTransfersPerDevice
+                        || isSendingShareUriOf(sending, batch)) {
+                    continue;
+                }
+                long served = mLastServed.getOrDefault(address, 0L);
+                if (next == null || isBefore(batch, served, next, nextServed)) {
+                    next = batch;
+                    nextServed = served;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            String address = getAddress(next);
+            candidates.remove(next);
+            selected.add(next);
+            if (next.mDirection == BluetoothShare.DIRECTION_OUTBOUND) {
+                sending.add(next);
+            }
+            perDevice.merge(address, 1, Integer::sum);
+            mLastServed.put(address, ++mServedCount);
+            running++;
+        }
+        return selected;
+    }
+
+    private static boolean isBefore(BluetoothOppBatch batch, long served,
+            BluetoothOppBatch other, long otherServed) {
+        boolean inbound = batch.mDirection == BluetoothShare.DIRECTION_INBOUND;
+        boolean otherInbound = other.mDirection == BluetoothShare.DIRECTION_INBOUND;
+        if (inbound != otherInbound) {
+            return inbound;
+        }
+        // On ties the earlier candidate, which arrived first, is kept.
+        return served < otherServed;
+    }
+
+    private static boolean isSendingShareUriOf(List<BluetoothOppBatch> sending,
+            BluetoothOppBatch batch) {
+        if (batch.mDirection != BluetoothShare.DIRECTION_OUTBOUND) {
+            return false;
+        }
+        for (BluetoothOppBatch other : sending) {
+            if (other.hasShareUriOf(batch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasBatchWithDevice(List<BluetoothOppBatch> batches, String address) {
+        for (BluetoothOppBatch batch : batches) {
+            if (getAddress(batch).equals(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // All the per device bookkeeping uses the upper case address, whatever case it comes in.
+    private static String getAddress(BluetoothOppBatch batch) {
+        return batch.mDestination.getAddress().toUpperCase(Locale.ROOT);
+    }
+
+    /** Records how many transfers are running, to measure the time spent transferring. */
+    synchronized void onRunningTransfersChanged(int runningTransfers) {
+        long now = SystemClock.elapsedRealtime();
+        if (mRunningTransfers == 0 && runningTransfers > 0) {
+            mActiveSince = now;
+        } else if (mRunningTransfers > 0 && runningTransfers == 0) {
+            mActiveMs += now - mActiveSince;
+            // No share is running anymore, their last positions are not needed.
+            mShareBytes.clear();
+        }
+        mRunningTransfers = runningTransfers;
+    }
+
+    @Override
+    public synchronized void onProgress(int shareId, long currentBytes) {
+        long previousBytes = mShareBytes.get(shareId, 0);
+        if (currentBytes > previousBytes) {
+            mTotalBytes += currentBytes - previousBytes;
+        }
+        mShareBytes.put(shareId, currentBytes);
+    }
+
+    @VisibleForTesting
+    synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /** Returns the aggregate throughput of all the transfers, in bytes per second. */
+    @VisibleForTesting
+    synchronized long getThroughput() {
+        long activeMs = mActiveMs;
+        if (mRunningTransfers > 0) {
+            activeMs += SystemClock.elapsedRealtime() - mActiveSince;
+        }
+        return activeMs > 0 ? mTotalBytes * 1000 / activeMs : 0;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        ProfileService.println(sb, "Transfers: " + mRunningTransfers + " running (max "
+                + mMaxTransfers + ", " + mMaxTransfersPerDevice + " per device)");
+        ProfileService.println(sb, "  " + mTotalBytes + " bytes transferred, "
+                + getThroughput() / 1024 + " KB/s while active");
+    }
+}
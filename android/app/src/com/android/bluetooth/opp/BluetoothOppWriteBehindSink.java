@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the file being received behind the OBEX session.
+ *
+ * <p>The receiving thread fills chunks obtained from {@link #obtain} and queues them with {@link
+ * #submit}; a writer thread drains the bounded queue into the destination and reports the
+ * progress, so neither slow storage nor provider updates hold up the incoming link.
+ */
+class BluetoothOppWriteBehindSink {
+    private static final String TAG = "BtOppWriteBehindSink";
+    private static final boolean V = Constants.VERBOSE;
+
+    /** Number of pooled buffers, bounding how far the writer may fall behind. */
+    private static final int BUFFER_COUNT = 4;
+
+    // Queued by finish() after the last chunk.
+    private final BluetoothOppReadAheadPump.Chunk mEndOfStream =
+            new BluetoothOppReadAheadPump.Chunk(0);
+
+    private final OutputStream mOutputStream;
+    private final long mLength;
+    private final BluetoothOppTransferProgress.Reporter mProgress;
+    private final BlockingQueue<BluetoothOppReadAheadPump.Chunk> mFreeChunks;
+    private final BlockingQueue<BluetoothOppReadAheadPump.Chunk> mFilledChunks;
+    private final Thread mWriter;
+
+    private volatile IOException mError;
+
+    BluetoothOppWriteBehindSink(OutputStream outputStream, int chunkSize, long length,
+            BluetoothOppTransferProgress.Reporter progress) {
+        mOutputStream = outputStream;
+        mLength = length;
+        mProgress = progress;
+        mFreeChunks = new ArrayBlockingQueue<>(BUFFER_COUNT);
+        // One extra slot so that mEndOfStream can always be queued.
+        mFilledChunks = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeChunks.add(new BluetoothOppReadAheadPump.Chunk(chunkSize));
+        }
+        mWriter = new Thread(this::writeLoop, "BtOppWriteBehindSink");
+    }
+
+    /**
+     * Reserves the advertised length of the file up front, so the writes neither grow it
+     * piecemeal nor run out of space half way.
+     */
+    @VisibleForTesting
+    static void preallocate(OutputStream outputStream, long length) {
+        if (!(outputStream instanceof FileOutputStream) || length <= 0) {
+            return;
+        }
+        try {
+            Os.posix_fallocate(((FileOutputStream) outputStream).getFD(), 0, length);
+        } catch (ErrnoException | IOException e) {
+            // Not supported by every file system, the writes will allocate the space.
+            Log.w(TAG, "Unable to preallocate " + length + " bytes: " + e);
+        }
+    }
+
+    void start() {
+        preallocate(mOutputStream, mLength);
+        mWriter.start();
+    }
+
+    /** Returns an empty chunk, waiting for the writer to catch up if all of them are queued. */
+    BluetoothOppReadAheadPump.Chunk obtain() throws IOException {
+        checkError();
+        try {
+            return mFreeChunks.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        } finally {
+            checkError();
+        }
+    }
+
+    /** Queues {@code chunk.mLength} bytes of a chunk obtained from {@link #obtain}. */
+    void submit(BluetoothOppReadAheadPump.Chunk chunk) throws IOException {
+        try {
+            mFilledChunks.put(chunk);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while queuing data");
+        }
+    }
+
+    /** Returns a chunk obtained from {@link #obtain} without writing it. */
+    void recycle(BluetoothOppReadAheadPump.Chunk chunk) {
+        mFreeChunks.offer(chunk);
+    }
+
+    /** Waits until every queued chunk is written, and reports the first write error if any. */
+    void finish() throws IOException {
+        checkError();
+        mFilledChunks.offer(mEndOfStream);
+        try {
+            mWriter.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while flushing the file");
+        }
+        checkError();
+    }
+
+    /** Stops the writer, dropping the queued chunks. Safe to call after {@link #finish}. */
+    void close() {
+        mWriter.interrupt();
+        try {
+            mWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    private void writeLoop() {
+        long position = 0;
+        long percent;
+        long prevPercent = 0;
+        long currentTime;
+        long prevTimestamp = SystemClock.elapsedRealtime();
+        try {
+            while (true) {
+                BluetoothOppReadAheadPump.Chunk chunk = mFilledChunks.take();
+                if (chunk == mEndOfStream) {
+                    break;
+                }
+                mOutputStream.write(chunk.mData, 0, chunk.mLength);
+                position += chunk.mLength;
+                mFreeChunks.put(chunk);
+
+                // Update the Progress Bar only if there is change in percentage
+                // or once per a period to notify NFC of this transfer is still alive
+                percent = position * 100 / mLength;
+                currentTime = SystemClock.elapsedRealtime();
+                if (percent > prevPercent
+                        || currentTime - prevTimestamp > Constants.NFC_ALIVE_CHECK_MS) {
+                    mProgress.update(position);
+                    prevPercent = percent;
+                    prevTimestamp = currentTime;
+                }
+            }
+            if (V) {
+                Log.v(TAG, "Wrote " + position + " bytes behind");
+            }
+        } catch (InterruptedException e) {
+            // The transfer is over.
+        } catch (IOException e) {
+            Log.e(TAG, "Error when writing file: " + e);
+            mError = e;
+            // Unblock the receiving thread, which reports the error on its next call.
+            mFreeChunks.clear();
+            mFreeChunks.offer(new BluetoothOppReadAheadPump.Chunk(0));
+        }
+    }
+}
@@ -206,6 +206,9 @@ public class Constants {
     /** Notify NFC of the transfer progress periodically, or it will timeout after 20sec. */
     static final int NFC_ALIVE_CHECK_MS = 10000;
 
+    /** How often the progress of a running transfer is written to the share table. */
+    static final int PROGRESS_PERSIST_INTERVAL_MS = 1000;
+
     static final boolean DEBUG = true;
 
     static final boolean VERBOSE = false;
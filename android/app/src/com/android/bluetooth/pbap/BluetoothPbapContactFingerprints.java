@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+
+import java.util.Arrays;
+
+/**
+ * Fingerprints of the contacts, keyed by contact id, used to tell which contacts changed for the
+ * folder version counters.
+ *
+ * <p>The fingerprint of a contact covers the fields that change the secondary version counter:
+ * its name, phone numbers, emails and addresses, regardless of their order. The table also keeps
+ * how many data rows each contact has, so that the field totals can be adjusted when a contact is
+ * deleted without querying its data again.
+ *
+ * <p>Contact ids are kept sorted in a primitive array, next to the values of each contact.
+ */
+class BluetoothPbapContactFingerprints {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mContactIds = new long[INITIAL_CAPACITY];
+    private long[] mFingerprints = new long[INITIAL_CAPACITY];
+    private int[] mFieldCounts = new int[INITIAL_CAPACITY];
+    private int[] mSvcFieldCounts = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    /** Returns the index of {@code contactId}, or a negative value if it is not in the table. */
+    int indexOf(long contactId) {
+        return Arrays.binarySearch(mContactIds, 0, mSize, contactId);
+    }
+
+    boolean contains(long contactId) {
+        return indexOf(contactId) >= 0;
+    }
+
+    long getContactId(int index) {
+        return mContactIds[index];
+    }
+
+    long getFingerprint(int index) {
+        return mFingerprints[index];
+    }
+
+    int getFieldCount(int index) {
+        return mFieldCounts[index];
+    }
+
+    int getSvcFieldCount(int index) {
+        return mSvcFieldCounts[index];
+    }
+
+    /** Adds the contact read by {@code builder}, or replaces it if it is already in the table. */
+    void put(long contactId, Builder builder) {
+        put(contactId, builder.mFingerprint, builder.mFieldCount, builder.mSvcFieldCount);
+    }
+
+    void put(long contactId, long fingerprint, int fieldCount, int svcFieldCount) {
+        int index = indexOf(contactId);
+        if (index < 0) {
+            index = ~index;
+            if (mSize == mContactIds.length) {
+                int capacity = mSize * 2;
+                mContactIds = Arrays.copyOf(mContactIds, capacity);
+                mFingerprints = Arrays.copyOf(mFingerprints, capacity);
+                mFieldCounts = Arrays.copyOf(mFieldCounts, capacity);
+                mSvcFieldCounts = Arrays.copyOf(mSvcFieldCounts, capacity);
+            }
+            // Contacts are mostly added in increasing id order, when nothing has to move.
+            int moved = mSize - index;
+            System.arraycopy(mContactIds, index, mContactIds, index + 1, moved);
+            System.arraycopy(mFingerprints, index, mFingerprints, index + 1, moved);
+            System.arraycopy(mFieldCounts, index, mFieldCounts, index + 1, moved);
+            System.arraycopy(mSvcFieldCounts, index, mSvcFieldCounts, index + 1, moved);
+            mContactIds[index] = contactId;
+            mSize++;
+        }
+        mFingerprints[index] = fingerprint;
+        mFieldCounts[index] = fieldCount;
+        mSvcFieldCounts[index] = svcFieldCount;
+    }
+
+    void removeAt(int index) {
+        int moved = mSize - index - 1;
+        System.arraycopy(mContactIds, index + 1, mContactIds, index, moved);
+        System.arraycopy(mFingerprints, index + 1, mFingerprints, index, moved);
+        System.arraycopy(mFieldCounts, index + 1, mFieldCounts, index, moved);
+        System.arraycopy(mSvcFieldCounts, index + 1, mSvcFieldCounts, index, moved);
+        mSize--;
+    }
+
+    /** Accumulates the fingerprint of one contact from its data rows. */
+    static class Builder {
+        private long mFingerprint;
+        private int mFieldCount;
+        private int mSvcFieldCount;
+
+        void reset() {
+            mFingerprint = 0;
+            mFieldCount = 0;
+            mSvcFieldCount = 0;
+        }
+
+        /** Adds a data row of the contact. Returns whether it is a secondary version field. */
+        boolean add(String mimeType, String data) {
+            mFieldCount++;
+            int type;
+            switch (mimeType != null ? mimeType : "") {
+                case StructuredName.CONTENT_ITEM_TYPE:
+                    type = 1;
+                    break;
+                case Phone.CONTENT_ITEM_TYPE:
+                    type = 2;
+                    break;
+                case Email.CONTENT_ITEM_TYPE:
+                    type = 3;
+                    break;
+                case StructuredPostal.CONTENT_ITEM_TYPE:
+                    type = 4;
+                    break;
+                default:
+                    return false;
+            }
+            mSvcFieldCount++;
+            long hash = ((long) type << 32) | ((data != null ? data.hashCode() : 0) & 0xFFFFFFFFL);
+            // Summed, so that the order of the rows does not matter.
+            mFingerprint += mix(hash);
+            return true;
+        }
+
+        long getFingerprint() {
+            return mFingerprint;
+        }
+
+        int getFieldCount() {
+            return mFieldCount;
+        }
+
+        int getSvcFieldCount() {
+            return mSvcFieldCount;
+        }
+
+        // Finalizer of MurmurHash3, spreading the bits of each field over the whole sum.
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB9FE1A85EC53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
@@ -221,6 +221,9 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
 
     BluetoothPbapSimVcardManager mVcardSimManager;
 
+    // Index of the phonebook name list, kept until the contacts change
+    private BluetoothPbapPhonebookIndex mPhonebookIndex;
+
     private int mOrderBy = ORDER_BY_INDEXED;
 
     private static final int CALLLOG_NUM_LIMIT = 50;
@@ -871,11 +874,27 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
         return pushBytes(op, result.toString());
     }
 
+    /**
+     * Returns the index of the phonebook name list, reloading the list only if the contacts
+     * changed since it was built.
+     */
+    private BluetoothPbapPhonebookIndex getPhonebookIndex() {
+        String ownerName = mVcardManager.getOwnerName();
+        if (mPhonebookIndex == null || !mPhonebookIndex.isCurrent(mOrderBy, ownerName)) {
+            long generation = BluetoothPbapPhonebookIndex.getContactsGeneration();
+            mPhonebookIndex = new BluetoothPbapPhonebookIndex(
+                    mVcardManager.getPhonebookNameList(mOrderBy, ownerName), mOrderBy, ownerName,
+                    generation);
+        }
+        return mPhonebookIndex;
+    }
+
     private int createList(AppParamValue appParamValue, int needSendBody, int size,
             StringBuilder result, String type, ContactsType contactType) {
         int itemsFound = 0;
 
         ArrayList<String> nameList = null;
+        BluetoothPbapPhonebookIndex index = null;
         if (mVcardSelector) {
             if (contactType == ContactsType.TYPE_PHONEBOOK) {
                 nameList = mVcardManager.getSelectedPhonebookNameList(mOrderBy,
@@ -886,17 +905,21 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
             }
         } else {
             if (contactType == ContactsType.TYPE_PHONEBOOK) {
-                nameList = mVcardManager.getPhonebookNameList(mOrderBy);
+                index = getPhonebookIndex();
+                nameList = index.getNameList();
             } else if( contactType == ContactsType.TYPE_SIM) {
                 nameList = mVcardSimManager.getSIMPhonebookNameList(mOrderBy);
             }
         }
+        if (index == null) {
+            index = new BluetoothPbapPhonebookIndex(nameList, mOrderBy, null,
+                    BluetoothPbapPhonebookIndex.getContactsGeneration());
+        }
 
         final int requestSize =
                 nameList.size() >= appParamValue.maxListCount ? appParamValue.maxListCount
                         : nameList.size();
-        final int listSize = nameList.size();
-        String compareValue = "", currentValue;
+        String compareValue = "";
 
         if (D) {
             Log.d(TAG, "search by " + type + ", requestSize=" + requestSize + " offset="
@@ -917,18 +940,9 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
             for (int i = 0; i < names.size(); i++) {
                 compareValue = names.get(i).trim();
                 if (D) Log.d(TAG, "compareValue=" + compareValue);
-                for (int pos = 0; pos < listSize; pos++) {
-                    currentValue = nameList.get(pos);
-                    if (V) {
-                        Log.d(TAG, "currentValue=" + currentValue);
-                    }
-                    if (currentValue.equals(compareValue)) {
-                        if (currentValue.contains(",")) {
-                            currentValue = currentValue.substring(0, currentValue.lastIndexOf(','));
-                        }
-                        selectedNameList.add(currentValue);
-                        savedPosList.add(pos);
-                    }
+                for (int pos : index.findPositions(compareValue)) {
+                    selectedNameList.add(index.getName(pos));
+                    savedPosList.add(pos);
                 }
             }
 
@@ -943,22 +957,10 @@ public class BluetoothPbapObexServer extends ServerRequestHandler {
             ArrayList<String> selectedNameList = new ArrayList<String>();
             if (appParamValue.searchValue != null) {
                 compareValue = appParamValue.searchValue.trim().toLowerCase();
-            }
-
-            for (int pos = 0; pos < listSize; pos++) {
-                currentValue = nameList.get(pos);
-
-                if (currentValue.contains(",")) {
-                    currentValue = currentValue.substring(0, currentValue.lastIndexOf(','));
-                }
-
-                if (appParamValue.searchValue != null) {
-                    if (appParamValue.searchValue.isEmpty()
-                            || ((currentValue.toLowerCase())
-                                               .startsWith(compareValue.toLowerCase()))) {
-                        selectedNameList.add(currentValue);
-                        savedPosList.add(pos);
-                    }
+                // An empty search value matches every name
+                for (int pos : index.findPositionsByPrefix(compareValue)) {
+                    selectedNameList.add(index.getName(pos));
+                    savedPosList.add(pos);
                 }
             }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index over a phonebook name list, as returned by {@link
+ * BluetoothPbapVcardManager#getPhonebookNameList}, for vCard-listing searches.
+ *
+ * <p>Entries of the name list are "name,contactId" strings, whose position in the list is the
+ * vCard handle. The index holds the case-folded names sorted for prefix search, and the positions
+ * of every entry for resolving the contacts found by a number lookup.
+ *
+ * <p>Indexes of the main phonebook are cached across requests until {@link #onContactsChanged}
+ * reports a change to the contacts.
+ */
+class BluetoothPbapPhonebookIndex {
+    private static final AtomicLong sContactsGeneration = new AtomicLong();
+
+    private final ArrayList<String> mNameList;
+    private final int mOrderBy;
+    private final String mOwnerName;
+    private final long mGeneration;
+
+    // Names stripped of their contact id, by position.
+    private final String[] mNames;
+    // Case-folded names sorted alphabetically, and the position of each of them.
+    private final String[] mFoldedNames;
+    private final int[] mFoldedPositions;
+    private final HashMap<String, int[]> mPositionsByEntry;
+
+    /** Called when the contacts change, so that cached indexes get rebuilt. */
+    static void onContactsChanged() {
+        sContactsGeneration.incrementAndGet();
+    }
+
+    static long getContactsGeneration() {
+        return sContactsGeneration.get();
+    }
+
+    /**
+     * Builds the index of {@code nameList}.
+     *
+     * @param generation value of {@link #getContactsGeneration} before the list was loaded
+     */
+    BluetoothPbapPhonebookIndex(ArrayList<String> nameList, int orderBy, String ownerName,
+            long generation) {
+        mNameList = nameList;
+        mOrderBy = orderBy;
+        mOwnerName = ownerName;
+        mGeneration = generation;
+
+        final int size = nameList.size();
+        mNames = new String[size];
+        mPositionsByEntry = new HashMap<>(size * 2);
+        Integer[] order = new Integer[size];
+        String[] folded = new String[size];
+        for (int pos = 0; pos < size; pos++) {
+            String entry = nameList.get(pos);
+            String name = entry;
+            if (name.contains(",")) {
+                name = name.substring(0, name.lastIndexOf(','));
+            }
+            mNames[pos] = name;
+            folded[pos] = name.toLowerCase();
+            order[pos] = pos;
+            int[] positions = mPositionsByEntry.get(entry);
+            if (positions == null) {
+                positions = new int[] {pos};
+            } else {
+                positions = Arrays.copyOf(positions, positions.length + 1);
+                positions[positions.length - 1] = pos;
+            }
+            mPositionsByEntry.put(entry, positions);
+        }
+        // Stable, so equal names keep their list order.
+        Arrays.sort(order, Comparator.comparing(pos -> folded[pos]));
+        mFoldedNames = new String[size];
+        mFoldedPositions = new int[size];
+        for (int i = 0; i < size; i++) {
+            mFoldedNames[i] = folded[order[i]];
+            mFoldedPositions[i] = order[i];
+        }
+    }
+
+    /** Returns whether this index can still serve a request in {@code orderBy} order. */
+    boolean isCurrent(int orderBy, String ownerName) {
+        return mGeneration == sContactsGeneration.get() && mOrderBy == orderBy
+                && Objects.equals(mOwnerName, ownerName);
+    }
+
+    ArrayList<String> getNameList() {
+        return mNameList;
+    }
+
+    /** Returns the name at {@code pos}, without its contact id. */
+    String getName(int pos) {
+        return mNames[pos];
+    }
+
+    /** Returns the positions of the exact {@code entry}, in list order. */
+    int[] findPositions(String entry) {
+        int[] positions = mPositionsByEntry.get(entry);
+        return positions != null ? positions : new int[0];
+    }
+
+    /** Returns the positions of the names starting with {@code prefix}, ignoring case. */
+    int[] findPositionsByPrefix(String prefix) {
+        String foldedPrefix = prefix.toLowerCase();
+        int low = 0;
+        int high = mFoldedNames.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mFoldedNames[mid].compareTo(foldedPrefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < mFoldedNames.length && mFoldedNames[end].startsWith(foldedPrefix)) {
+            end++;
+        }
+        int[] positions = Arrays.copyOfRange(mFoldedPositions, low, end);
+        // Results are listed in phonebook order.
+        Arrays.sort(positions);
+        return positions;
+    }
+}
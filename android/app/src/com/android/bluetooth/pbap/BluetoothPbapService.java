@@ -209,6 +209,7 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
         @Override
         public void onChange(boolean selfChange) {
             Log.d(TAG, " onChange on contact uri ");
+            BluetoothPbapPhonebookIndex.onContactsChanged();
             sendUpdateRequest();
         }
     }
@@ -24,10 +24,6 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.preference.PreferenceManager;
-import android.provider.ContactsContract.CommonDataKinds.Email;
-import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.provider.ContactsContract.CommonDataKinds.StructuredName;
-import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.Profile;
@@ -42,9 +38,7 @@ import com.android.vcard.VCardConfig;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 class BluetoothPbapUtils {
@@ -66,6 +60,9 @@ class BluetoothPbapUtils {
 
     private static final long QUERY_CONTACT_RETRY_INTERVAL = 4000;
 
+    // Contacts per data query, below the limit of SQLite on bound arguments.
+    private static final int QUERY_CONTACT_CHUNK_SIZE = 500;
+
     static AtomicLong sDbIdentifier = new AtomicLong();
 
     static long sPrimaryVersionCounter = 0;
@@ -82,41 +79,9 @@ class BluetoothPbapUtils {
     @VisibleForTesting
     static long sContactsLastUpdated = 0;
 
-    private static class ContactData {
-        private String mName;
-        private ArrayList<String> mEmail;
-        private ArrayList<String> mPhone;
-        private ArrayList<String> mAddress;
-
-        ContactData() {
-            mPhone = new ArrayList<>();
-            mEmail = new ArrayList<>();
-            mAddress = new ArrayList<>();
-        }
-
-        ContactData(String name, ArrayList<String> phone, ArrayList<String> email,
-                ArrayList<String> address) {
-            this.mName = name;
-            this.mPhone = phone;
-            this.mEmail = email;
-            this.mAddress = address;
-        }
-    }
-
-    @VisibleForTesting
-    static HashMap<String, ContactData> sContactDataset = new HashMap<>();
-
     @VisibleForTesting
-    static HashSet<String> sContactSet = new HashSet<>();
-
-    @VisibleForTesting
-    static final String TYPE_NAME = "name";
-    @VisibleForTesting
-    static final String TYPE_PHONE = "phone";
-    @VisibleForTesting
-    static final String TYPE_EMAIL = "email";
-    @VisibleForTesting
-    static final String TYPE_ADDRESS = "address";
+    static BluetoothPbapContactFingerprints sContactFingerprints =
+            new BluetoothPbapContactFingerprints();
 
     private static boolean hasFilter(byte[] filter) {
         return filter != null && filter.length > 0;
@@ -263,7 +228,7 @@ class BluetoothPbapUtils {
         }
 
         String[] projection = {Data.CONTACT_ID, Data.DATA1, Data.MIMETYPE};
-        sTotalContacts = fetchAndSetContacts(context, handler, projection, null, null, true);
+        sTotalContacts = fetchAndSetContacts(context, handler, projection, null, null);
         if (sTotalContacts < 0) {
             sTotalContacts = 0;
             return;
@@ -277,150 +242,66 @@ class BluetoothPbapUtils {
              * indicates the time when contact/contacts were last updated and
              * corresponding changes were reflected in Folder Version Counters).*/
         ArrayList<String> updatedList = new ArrayList<>();
-        HashSet<String> currentContactSet = new HashSet<>();
 
         String[] projection = {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP};
         Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                context.getContentResolver(), Contacts.CONTENT_URI, projection, null, null, null);
+                context.getContentResolver(), Contacts.CONTENT_URI, projection, null, null,
+                Contacts._ID);
 
         if (c == null) {
             Log.d(TAG, "Failed to fetch data from contact database");
             return;
         }
-        while (c.moveToNext()) {
-            String contactId = c.getString(0);
+        int currentContactCount = c.getCount();
+        long[] currentContactIds = new long[currentContactCount];
+        int index = 0;
+        long contactsLastUpdated = sContactsLastUpdated;
+        while (c.moveToNext() && index < currentContactCount) {
+            currentContactIds[index++] = c.getLong(0);
             long lastUpdatedTime = c.getLong(1);
             if (lastUpdatedTime > sContactsLastUpdated) {
-                updatedList.add(contactId);
+                updatedList.add(c.getString(0));
+                contactsLastUpdated = Math.max(contactsLastUpdated, lastUpdatedTime);
             }
-            currentContactSet.add(contactId);
         }
-        int currentContactCount = c.getCount();
         c.close();
+        Arrays.sort(currentContactIds, 0, index);
 
         if (V) {
             Log.v(TAG, "updated list =" + updatedList);
         }
-        String[] dataProjection = {Data.CONTACT_ID, Data.DATA1, Data.MIMETYPE};
 
-        String whereClause = Data.CONTACT_ID + "=?";
-
-            /* code to check if new contact/contacts are added */
-        if (currentContactCount > sTotalContacts) {
-            for (String contact : updatedList) {
-                String[] selectionArgs = {contact};
-                fetchAndSetContacts(context, handler, dataProjection, whereClause, selectionArgs,
-                        false);
-                sSecondaryVersionCounter++;
-                sPrimaryVersionCounter++;
-                sTotalContacts = currentContactCount;
+            /* code to check if contact/contacts are deleted. Their fields are
+             * known from the fingerprints, so their data is not queried again. */
+        for (int i = sContactFingerprints.size() - 1; i >= 0; i--) {
+            long contactId = sContactFingerprints.getContactId(i);
+            if (Arrays.binarySearch(currentContactIds, 0, index, contactId) >= 0) {
+                continue;
             }
-                /* When contact/contacts are deleted */
-        } else if (currentContactCount < sTotalContacts) {
-            sTotalContacts = currentContactCount;
-            ArrayList<String> svcFields = new ArrayList<>(
-                    Arrays.asList(StructuredName.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE,
-                            Email.CONTENT_ITEM_TYPE, StructuredPostal.CONTENT_ITEM_TYPE));
-            HashSet<String> deletedContacts = new HashSet<>(sContactSet);
-            deletedContacts.removeAll(currentContactSet);
-            sPrimaryVersionCounter += deletedContacts.size();
-            sSecondaryVersionCounter += deletedContacts.size();
             if (V) {
-                Log.v(TAG, "Deleted Contacts : " + deletedContacts);
+                Log.v(TAG, "Deleted Contact : " + contactId);
             }
+            sPrimaryVersionCounter++;
+            sSecondaryVersionCounter++;
+            sTotalFields -= sContactFingerprints.getFieldCount(i);
+            sTotalSvcFields -= sContactFingerprints.getSvcFieldCount(i);
+            sContactFingerprints.removeAt(i);
+        }
 
-            // to decrement totalFields and totalSvcFields count
-            for (String deletedContact : deletedContacts) {
-                sContactSet.remove(deletedContact);
-                String[] selectionArgs = {deletedContact};
-                Cursor dataCursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                        context.getContentResolver(), Data.CONTENT_URI, dataProjection, whereClause,
-                        selectionArgs, null);
-
-                if (dataCursor == null) {
-                    Log.d(TAG, "Failed to fetch data from contact database");
-                    return;
-                }
-
-                while (dataCursor.moveToNext()) {
-                    if (svcFields.contains(
-                            dataCursor.getString(dataCursor.getColumnIndex(Data.MIMETYPE)))) {
-                        sTotalSvcFields--;
-                    }
-                    sTotalFields--;
-                }
-                dataCursor.close();
-            }
-
-                /* When contacts are updated. i.e. Fields of existing contacts are
-                 * added/updated/deleted */
-        } else {
-            for (String contact : updatedList) {
-                sPrimaryVersionCounter++;
-                ArrayList<String> phoneTmp = new ArrayList<>();
-                ArrayList<String> emailTmp = new ArrayList<>();
-                ArrayList<String> addressTmp = new ArrayList<>();
-                String nameTmp = null;
-                boolean updated = false;
-
-                String[] selectionArgs = {contact};
-                Cursor dataCursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
-                        context.getContentResolver(), Data.CONTENT_URI, dataProjection, whereClause,
-                        selectionArgs, null);
-
-                if (dataCursor == null) {
-                    Log.d(TAG, "Failed to fetch data from contact database");
-                    return;
-                }
-                // fetch all updated contacts and compare with cached copy of contacts
-                int indexData = dataCursor.getColumnIndex(Data.DATA1);
-                int indexMimeType = dataCursor.getColumnIndex(Data.MIMETYPE);
-                String data;
-                String mimeType;
-                while (dataCursor.moveToNext()) {
-                    data = dataCursor.getString(indexData);
-                    mimeType = dataCursor.getString(indexMimeType);
-                    switch (mimeType) {
-                        case Email.CONTENT_ITEM_TYPE:
-                            emailTmp.add(data);
-                            break;
-                        case Phone.CONTENT_ITEM_TYPE:
-                            phoneTmp.add(data);
-                            break;
-                        case StructuredPostal.CONTENT_ITEM_TYPE:
-                            addressTmp.add(data);
-                            break;
-                        case StructuredName.CONTENT_ITEM_TYPE:
-                            nameTmp = data;
-                            break;
-                    }
-                }
-                ContactData cData = new ContactData(nameTmp, phoneTmp, emailTmp, addressTmp);
-                dataCursor.close();
-
-                ContactData currentContactData = sContactDataset.get(contact);
-                if (currentContactData == null) {
-                    Log.e(TAG, "Null contact in the updateList: " + contact);
-                    continue;
-                }
-
-                if (!Objects.equals(nameTmp, currentContactData.mName)) {
-                    updated = true;
-                } else if (checkFieldUpdates(currentContactData.mPhone, phoneTmp)) {
-                    updated = true;
-                } else if (checkFieldUpdates(currentContactData.mEmail, emailTmp)) {
-                    updated = true;
-                } else if (checkFieldUpdates(currentContactData.mAddress, addressTmp)) {
-                    updated = true;
-                }
-
-                if (updated) {
-                    sSecondaryVersionCounter++;
-                    sContactDataset.put(contact, cData);
-                }
+            /* code to check if contact/contacts are added or updated. The data of
+             * the updated contacts is read in chunks, rather than per contact. */
+        String[] dataProjection = {Data.CONTACT_ID, Data.DATA1, Data.MIMETYPE};
+        for (int start = 0; start < updatedList.size(); start += QUERY_CONTACT_CHUNK_SIZE) {
+            List<String> chunk = updatedList.subList(start,
+                    Math.min(start + QUERY_CONTACT_CHUNK_SIZE, updatedList.size()));
+            if (!updateContactFingerprints(context, dataProjection, chunk)) {
+                return;
             }
         }
 
+        sTotalContacts = currentContactCount;
+        sContactsLastUpdated = contactsLastUpdated;
+
         Log.d(TAG,
                 "primaryVersionCounter = " + sPrimaryVersionCounter + ", secondaryVersionCounter="
                         + sSecondaryVersionCounter);
@@ -431,108 +312,159 @@ class BluetoothPbapUtils {
         }
     }
 
-    /* checkFieldUpdates checks update contact fields of a particular contact.
-     * Field update can be a field updated/added/deleted in an existing contact.
-     * Returns true if any contact field is updated else return false. */
-    @VisibleForTesting
-    static boolean checkFieldUpdates(ArrayList<String> oldFields,
-            ArrayList<String> newFields) {
-        if (newFields != null && oldFields != null) {
-            if (newFields.size() != oldFields.size()) {
-                sTotalSvcFields += Math.abs(newFields.size() - oldFields.size());
-                sTotalFields += Math.abs(newFields.size() - oldFields.size());
-                return true;
+    /* updateContactFingerprints reads the data of the given updated contacts
+     * with one query, and compares it with their cached fingerprints.
+     * Returns false if the contacts could not be read. */
+    private static boolean updateContactFingerprints(Context context, String[] dataProjection,
+            List<String> contactIds) {
+        StringBuilder whereClause = new StringBuilder(Data.CONTACT_ID).append(" IN (");
+        for (int i = 0; i < contactIds.size(); i++) {
+            whereClause.append(i == 0 ? "?" : ",?");
+        }
+        whereClause.append(')');
+        Cursor dataCursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
+                context.getContentResolver(), Data.CONTENT_URI, dataProjection,
+                whereClause.toString(), contactIds.toArray(new String[0]), Data.CONTACT_ID);
+
+        if (dataCursor == null) {
+            Log.d(TAG, "Failed to fetch data from contact database");
+            return false;
+        }
+
+        long[] pendingIds = new long[contactIds.size()];
+        for (int i = 0; i < pendingIds.length; i++) {
+            pendingIds[i] = Long.parseLong(contactIds.get(i));
+        }
+        Arrays.sort(pendingIds);
+        boolean[] found = new boolean[pendingIds.length];
+
+        int indexCId = dataCursor.getColumnIndex(Data.CONTACT_ID);
+        int indexData = dataCursor.getColumnIndex(Data.DATA1);
+        int indexMimeType = dataCursor.getColumnIndex(Data.MIMETYPE);
+        BluetoothPbapContactFingerprints.Builder builder =
+                new BluetoothPbapContactFingerprints.Builder();
+        long contactId = 0;
+        boolean hasContact = false;
+        // Rows are ordered by contact, so each contact is complete when the next one starts.
+        while (dataCursor.moveToNext()) {
+            if (dataCursor.isNull(indexCId)) {
+                continue;
             }
-            for (String newField : newFields) {
-                if (!oldFields.contains(newField)) {
-                    return true;
-                }
+            long rowContactId = dataCursor.getLong(indexCId);
+            if (hasContact && rowContactId != contactId) {
+                onContactUpdated(contactId, builder, pendingIds, found);
+                builder.reset();
             }
-            /* when all fields of type(phone/email/address) are deleted in a given contact*/
-        } else if (newFields == null && oldFields != null && oldFields.size() > 0) {
-            sTotalSvcFields += oldFields.size();
-            sTotalFields += oldFields.size();
-            return true;
-
-            /* when new fields are added for a type(phone/email/address) in a contact
-             * for which there were no fields of this type earliar.*/
-        } else if (oldFields == null && newFields != null && newFields.size() > 0) {
-            sTotalSvcFields += newFields.size();
-            sTotalFields += newFields.size();
-            return true;
+            contactId = rowContactId;
+            hasContact = true;
+            builder.add(dataCursor.getString(indexMimeType), dataCursor.getString(indexData));
         }
-        return false;
+        dataCursor.close();
+        if (hasContact) {
+            onContactUpdated(contactId, builder, pendingIds, found);
+        }
+
+        // Updated contacts left without any data.
+        builder.reset();
+        for (int i = 0; i < pendingIds.length; i++) {
+            if (!found[i]) {
+                onContactUpdated(pendingIds[i], builder, pendingIds, found);
+            }
+        }
+        return true;
     }
 
-    /* fetchAndSetContacts reads contacts and caches them
-     * isLoad = true indicates its loading all contacts
-     * isLoad = false indiacates its caching recently added contact in database*/
+    private static void onContactUpdated(long contactId,
+            BluetoothPbapContactFingerprints.Builder builder, long[] pendingIds,
+            boolean[] found) {
+        int pending = Arrays.binarySearch(pendingIds, contactId);
+        if (pending < 0 || found[pending]) {
+            return;
+        }
+        found[pending] = true;
+
+        sPrimaryVersionCounter++;
+        int index = sContactFingerprints.indexOf(contactId);
+        if (index < 0) {
+            /* new contact */
+            sSecondaryVersionCounter++;
+            sTotalFields += builder.getFieldCount();
+            sTotalSvcFields += builder.getSvcFieldCount();
+        } else {
+            /* Fields of existing contact are added/updated/deleted */
+            if (sContactFingerprints.getFingerprint(index) != builder.getFingerprint()) {
+                sSecondaryVersionCounter++;
+            }
+            sTotalFields += builder.getFieldCount() - sContactFingerprints.getFieldCount(index);
+            sTotalSvcFields +=
+                    builder.getSvcFieldCount() - sContactFingerprints.getSvcFieldCount(index);
+        }
+        sContactFingerprints.put(contactId, builder);
+    }
+
+    /* fetchAndSetContacts loads all contacts and caches their fingerprints. Later changes are
+     * tracked by updateContactFingerprints. */
     @VisibleForTesting
     static int fetchAndSetContacts(Context context, Handler handler, String[] projection,
-            String whereClause, String[] selectionArgs, boolean isLoad) {
+            String whereClause, String[] selectionArgs) {
         long currentTotalFields = 0, currentSvcFieldCount = 0;
         Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(
                 context.getContentResolver(), Data.CONTENT_URI, projection, whereClause,
-                selectionArgs, null);
+                selectionArgs, Data.CONTACT_ID);
 
         /* send delayed message to loadContact when ContentResolver is unable
          * to fetch data from contact database using the specified URI at that
          * moment (Case: immediate Pbap connect on system boot with BT ON)*/
         if (c == null) {
             Log.d(TAG, "Failed to fetch contacts data from database..");
-            if (isLoad) {
-                handler.sendMessageDelayed(
-                        handler.obtainMessage(BluetoothPbapService.LOAD_CONTACTS),
-                        QUERY_CONTACT_RETRY_INTERVAL);
-            }
+            handler.sendMessageDelayed(
+                    handler.obtainMessage(BluetoothPbapService.LOAD_CONTACTS),
+                    QUERY_CONTACT_RETRY_INTERVAL);
             return -1;
         }
 
+        sContactFingerprints.clear();
         int indexCId = c.getColumnIndex(Data.CONTACT_ID);
         int indexData = c.getColumnIndex(Data.DATA1);
         int indexMimeType = c.getColumnIndex(Data.MIMETYPE);
-        String contactId, data, mimeType;
+        BluetoothPbapContactFingerprints.Builder builder =
+                new BluetoothPbapContactFingerprints.Builder();
+        long contactId = 0;
+        boolean hasContact = false;
 
+        // Rows are ordered by contact, so each contact is complete when the next one starts.
         while (c.moveToNext()) {
             if (c.isNull(indexCId)) {
                 Log.w(TAG, "_id column is null. Row was deleted during iteration, skipping");
                 continue;
             }
-            contactId = c.getString(indexCId);
-            data = c.getString(indexData);
-            mimeType = c.getString(indexMimeType);
+            long rowContactId = c.getLong(indexCId);
+            if (hasContact && rowContactId != contactId) {
+                sContactFingerprints.put(contactId, builder);
+                builder.reset();
+            }
+            contactId = rowContactId;
+            hasContact = true;
             /* fetch phone/email/address/name information of the contact */
-            switch (mimeType) {
-                case Phone.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_PHONE, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
-                case Email.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_EMAIL, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
-                case StructuredPostal.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_ADDRESS, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
-                case StructuredName.CONTENT_ITEM_TYPE:
-                    setContactFields(TYPE_NAME, contactId, data);
-                    currentSvcFieldCount++;
-                    break;
+            if (builder.add(c.getString(indexMimeType), c.getString(indexData))) {
+                currentSvcFieldCount++;
             }
-            sContactSet.add(contactId);
             currentTotalFields++;
         }
         c.close();
+        if (hasContact) {
+            sContactFingerprints.put(contactId, builder);
+        }
 
         /* This code checks if there is any update in contacts after last pbap
          * disconnect has happenned (even if BT is turned OFF during this time)*/
-        if (isLoad && currentTotalFields != sTotalFields) {
-            sPrimaryVersionCounter += Math.abs(sTotalContacts - sContactSet.size());
+        if (currentTotalFields != sTotalFields) {
+            sPrimaryVersionCounter += Math.abs(sTotalContacts - sContactFingerprints.size());
 
             if (currentSvcFieldCount != sTotalSvcFields) {
-                if (sTotalContacts != sContactSet.size()) {
-                    sSecondaryVersionCounter += Math.abs(sTotalContacts - sContactSet.size());
+                if (sTotalContacts != sContactFingerprints.size()) {
+                    sSecondaryVersionCounter +=
+                            Math.abs(sTotalContacts - sContactFingerprints.size());
                 } else {
                     sSecondaryVersionCounter++;
                 }
@@ -547,41 +479,8 @@ class BluetoothPbapUtils {
             Log.d(TAG, "Contacts updated between last BT OFF and current"
                     + "Pbap Connect, primaryVersionCounter=" + sPrimaryVersionCounter
                     + ", secondaryVersionCounter=" + sSecondaryVersionCounter);
-        } else if (!isLoad) {
-            sTotalFields++;
-            sTotalSvcFields++;
-        }
-        return sContactSet.size();
-    }
-
-    /* setContactFields() is used to store contacts data in local cache (phone,
-     * email or address which is required for updating Secondary Version counter).
-     * contactsFieldData - List of field data for phone/email/address.
-     * contactId - Contact ID, data1 - field value from data table for phone/email/address*/
-    @VisibleForTesting
-    static void setContactFields(String fieldType, String contactId, String data) {
-        ContactData cData;
-        if (sContactDataset.containsKey(contactId)) {
-            cData = sContactDataset.get(contactId);
-        } else {
-            cData = new ContactData();
-        }
-
-        switch (fieldType) {
-            case TYPE_NAME:
-                cData.mName = data;
-                break;
-            case TYPE_PHONE:
-                cData.mPhone.add(data);
-                break;
-            case TYPE_EMAIL:
-                cData.mEmail.add(data);
-                break;
-            case TYPE_ADDRESS:
-                cData.mAddress.add(data);
-                break;
         }
-        sContactDataset.put(contactId, cData);
+        return sContactFingerprints.size();
     }
 
     /* As per Pbap 1.2 specification, Database Identifies shall be
@@ -62,8 +62,10 @@ import com.android.vcard.VCardComposer;
 import com.android.vcard.VCardConfig;
 import com.android.vcard.VCardPhoneNumberTranslationCallback;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 public class BluetoothPbapVcardManager {
@@ -271,8 +273,8 @@ public class BluetoothPbapVcardManager {
         return list;
     }
 
-    public final ArrayList<String> getPhonebookNameList(final int orderByWhat) {
-        ArrayList<String> nameList = new ArrayList<String>();
+    /** Returns the name listed for the owner vCard, the first entry of the phonebook. */
+    String getOwnerName() {
         //Owner vCard enhancement. Use "ME" profile if configured
         String ownerName = null;
         if (BluetoothPbapConfig.useProfileForOwnerVcard()) {
@@ -281,6 +283,15 @@ public class BluetoothPbapVcardManager {
         if (ownerName == null || ownerName.length() == 0) {
             ownerName = BluetoothPbapService.getLocalPhoneName();
         }
+        return ownerName;
+    }
+
+    public final ArrayList<String> getPhonebookNameList(final int orderByWhat) {
+        return getPhonebookNameList(orderByWhat, getOwnerName());
+    }
+
+    final ArrayList<String> getPhonebookNameList(final int orderByWhat, String ownerName) {
+        ArrayList<String> nameList = new ArrayList<String>();
         if (ownerName != null) {
             nameList.add(ownerName);
         }
@@ -711,6 +722,8 @@ public class BluetoothPbapVcardManager {
 
         VCardComposer composer = null;
         VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
+        FilteredVCard filteredVCard = new FilteredVCard(vcardfilter, vcardType21,
+                /*stripTelephoneNumber=*/ true);
 
         HandlerForStringBuffer buffer = null;
         try {
@@ -780,14 +793,13 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "vCard from composer: " + vcard);
                 }
 
-                vcard = vcardfilter.apply(vcard, vcardType21);
-                vcard = stripTelephoneNumber(vcard);
+                filteredVCard.parse(vcard);
 
                 if (V) {
-                    Log.v(TAG, "vCard after cleanup: " + vcard);
+                    Log.v(TAG, "vCard after cleanup: " + filteredVCard);
                 }
 
-                if (!buffer.writeVCard(vcard)) {
+                if (!buffer.writeVCard(filteredVCard)) {
                     // onEntryCreate() already emits error.
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 }
@@ -820,6 +832,8 @@ public class BluetoothPbapVcardManager {
         VCardComposer composer = null;
         VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
         PropertySelector vcardselector = new PropertySelector(selector);
+        FilteredVCard filteredVCard = new FilteredVCard(vcardfilter, vcardType21,
+                /*stripTelephoneNumber=*/ true);
 
         HandlerForStringBuffer buffer = null;
 
@@ -885,7 +899,9 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "Checking selected bits in the vcard composer" + vcard);
                 }
 
-                if (!vcardselector.checkVCardSelector(vcard, vcardselectorop)) {
+                filteredVCard.parse(vcard);
+                if (!vcardselector.checkVCardSelector(filteredVCard.getPropertyBits(),
+                        vcardselectorop)) {
                     Log.e(TAG, "vcard selector check fail");
                     vcard = null;
                     pbSize--;
@@ -895,14 +911,11 @@ public class BluetoothPbapVcardManager {
                 Log.e(TAG, "vcard selector check pass");
 
                 if (needSendBody == NEED_SEND_BODY) {
-                    vcard = vcardfilter.apply(vcard, vcardType21);
-                    vcard = stripTelephoneNumber(vcard);
-
                     if (V) {
-                        Log.v(TAG, "vCard after cleanup: " + vcard);
+                        Log.v(TAG, "vCard after cleanup: " + filteredVCard);
                     }
 
-                    if (!buffer.writeVCard(vcard)) {
+                    if (!buffer.writeVCard(filteredVCard)) {
                         // onEntryCreate() already emits error.
                         return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                     }
@@ -944,6 +957,8 @@ public class BluetoothPbapVcardManager {
         try {
             VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
             PropertySelector vcardselector = new PropertySelector(selector);
+            FilteredVCard filteredVCard = new FilteredVCard(vcardfilter, vcardType21,
+                    /*stripTelephoneNumber=*/ false);
             composer = new BluetoothPbapCallLogComposer(mContext);
             buffer = new HandlerForStringBuffer(op, ownerVCard);
             if (!composer.init(CallLog.Calls.CONTENT_URI, selection, null, CALLLOG_SORT_ORDER)
@@ -959,28 +974,30 @@ public class BluetoothPbapVcardManager {
                 }
                 String vcard = composer.createOneEntry(vcardType21);
                 if (vCardSelct) {
-                    if (!vcardselector.checkVCardSelector(vcard, vcardselectorop)) {
+                    if (vcard == null) {
+                        Log.e(TAG, "Failed to read a contact. Error reason: "
+                                + composer.getErrorReason());
+                        return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+                    }
+                    filteredVCard.parse(vcard);
+                    if (!vcardselector.checkVCardSelector(filteredVCard.getPropertyBits(),
+                            vcardselectorop)) {
                         Log.e(TAG, "Checking vcard selector for call log");
                         vcard = null;
                         pbSize--;
                         continue;
                     }
                     if (needSendBody == NEED_SEND_BODY) {
-                        if (vcard == null) {
-                            Log.e(TAG, "Failed to read a contact. Error reason: "
-                                    + composer.getErrorReason());
-                            return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
-                        } else if (vcard.isEmpty()) {
+                        if (vcard.isEmpty()) {
                             Log.i(TAG, "Call Log may have been deleted during operation");
                             continue;
                         }
-                        vcard = vcardfilter.apply(vcard, vcardType21);
 
                         if (V) {
                             Log.v(TAG, "Vcard Entry:");
-                            Log.v(TAG, vcard);
+                            Log.v(TAG, filteredVCard.toString());
                         }
-                        buffer.writeVCard(vcard);
+                        buffer.writeVCard(filteredVCard);
                     }
                 } else {
                     if (vcard == null) {
@@ -1116,25 +1133,8 @@ public class BluetoothPbapVcardManager {
                 // Check whether the current property is changing (ignoring multi-line properties)
                 // and determine if the current property is filtered in.
                 if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                    String currentProp = line.split("[;:]")[0];
-                    filteredIn = true;
-
-                    for (FilterBit bit : FilterBit.values()) {
-                        if (bit.prop.equals(currentProp)) {
-                            filteredIn = isFilteredIn(bit, vCardType21);
-                            break;
-                        }
-                    }
-
-                    // Since PBAP does not have filter bits for IM and SIP,
-                    // exclude them by default. Easiest way is to exclude all
-                    // X- fields, except date time....
-                    if (currentProp.startsWith("X-")) {
-                        filteredIn = false;
-                        if (currentProp.equals("X-IRMC-CALL-DATETIME")) {
-                            filteredIn = true;
-                        }
-                    }
+                    filteredIn = isPropertyFilteredIn(line, 0, getPropertyNameEnd(line, 0,
+                            line.length()), vCardType21);
                 }
 
                 // Build filtered vCard
@@ -1145,6 +1145,30 @@ public class BluetoothPbapVcardManager {
 
             return filteredVCard.toString();
         }
+
+        /**
+         * Returns whether the property named by {@code vCard} from {@code start} to {@code end}
+         * is filtered in.
+         */
+        boolean isPropertyFilteredIn(String vCard, int start, int end, boolean vCardType21) {
+            if (mFilter == null) {
+                return true;
+            }
+            final int length = end - start;
+            // Since PBAP does not have filter bits for IM and SIP,
+            // exclude them by default. Easiest way is to exclude all
+            // X- fields, except date time....
+            if (vCard.startsWith("X-", start)) {
+                return length == FilterBit.DATETIME.prop.length()
+                        && vCard.startsWith(FilterBit.DATETIME.prop, start);
+            }
+            for (FilterBit bit : FilterBit.values()) {
+                if (bit.prop.length() == length && vCard.startsWith(bit.prop, start)) {
+                    return isFilteredIn(bit, vCardType21);
+                }
+            }
+            return true;
+        }
     }
 
     @VisibleForTesting
@@ -1178,48 +1202,66 @@ public class BluetoothPbapVcardManager {
 
         private static final String SEPARATOR = System.getProperty("line.separator");
         private final byte[] mSelector;
+        // Bits of the selected properties, in the layout of getPropertyBit().
+        private final long mSelectedBits;
 
         PropertySelector(byte[] selector) {
             this.mSelector = selector;
+            long selectedBits = 0;
+            for (PropertyMask mask : PropertyMask.values()) {
+                if (checkBit(mask.mBitPosition, selector)) {
+                    selectedBits |= 1L << mask.mBitPosition;
+                }
+            }
+            this.mSelectedBits = selectedBits;
         }
 
         boolean checkVCardSelector(String vCard, String vCardSelectorOperator) {
+            return checkVCardSelector(getPropertyBits(vCard), vCardSelectorOperator);
+        }
+
+        /**
+         * Checks the selector against the properties of a vCard.
+         *
+         * @param propertyBits properties of the vCard, as returned by {@link #getPropertyBit}
+         */
+        boolean checkVCardSelector(long propertyBits, String vCardSelectorOperator) {
             Log.d(TAG, "vCardSelectorOperator=" + vCardSelectorOperator);
 
             final boolean checkAtLeastOnePropertyExists = vCardSelectorOperator.equals("0");
             final boolean checkAllPropertiesExist = vCardSelectorOperator.equals("1");
 
-            boolean result = true;
-
             if (checkAtLeastOnePropertyExists) {
-                for (PropertyMask mask : PropertyMask.values()) {
-                    if (!checkBit(mask.mBitPosition, mSelector)) {
-                        continue;
-                    }
-                    Log.d(TAG, "checking for prop :" + mask.mProperty);
-
-                    if (doesVCardHaveProperty(vCard, mask.mProperty)) {
-                        Log.d(TAG, "mask.prop.equals current prop :" + mask.mProperty);
-                        return true;
-                    } else {
-                        result = false;
-                    }
-                }
+                return mSelectedBits == 0 || (propertyBits & mSelectedBits) != 0;
             } else if (checkAllPropertiesExist) {
-                for (PropertyMask mask : PropertyMask.values()) {
-                    if (!checkBit(mask.mBitPosition, mSelector)) {
-                        continue;
-                    }
-                    Log.d(TAG, "checking for prop :" + mask.mProperty);
+                return (propertyBits & mSelectedBits) == mSelectedBits;
+            }
+            return true;
+        }
 
-                    if (!doesVCardHaveProperty(vCard, mask.mProperty)) {
-                        Log.d(TAG, "mask.prop.notequals current prop" + mask.mProperty);
-                        return false;
-                    }
+        /**
+         * Returns the bit of the property named by {@code vCard} from {@code start} to {@code
+         * end}, or 0 if the selector has no bit for it.
+         */
+        static long getPropertyBit(String vCard, int start, int end) {
+            final int length = end - start;
+            for (PropertyMask mask : PropertyMask.values()) {
+                if (mask.mProperty.length() == length && vCard.startsWith(mask.mProperty, start)) {
+                    return 1L << mask.mBitPosition;
                 }
             }
+            return 0;
+        }
 
-            return result;
+        private static long getPropertyBits(String vCard) {
+            long propertyBits = 0;
+            for (String line : vCard.split(SEPARATOR)) {
+                if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
+                    propertyBits |= getPropertyBit(line, 0, getPropertyNameEnd(line, 0,
+                            line.length()));
+                }
+            }
+            return propertyBits;
         }
 
         private boolean checkBit(int attrBit, byte[] selector) {
@@ -1231,6 +1273,123 @@ public class BluetoothPbapVcardManager {
         }
     }
 
+    /**
+     * A vCard built by the composer, parsed once for both the property selector and the filter.
+     *
+     * <p>The kept lines are written straight from the composed string by {@link
+     * HandlerForStringBuffer}, with telephone numbers stripped on the way, instead of being
+     * re-split and copied by each of {@link VCardFilter#apply}, {@link #stripTelephoneNumber}
+     * and {@link PropertySelector#checkVCardSelector(String, String)}. One instance is reused
+     * for all the vCards of a pull.
+     */
+    @VisibleForTesting
+    static class FilteredVCard {
+        private static final String SEPARATOR = System.getProperty("line.separator");
+
+        private final VCardFilter mFilter;
+        private final boolean mVCardType21;
+        private final boolean mStripTelephoneNumber;
+
+        private String mVCard;
+        private long mPropertyBits;
+        // Bounds of the lines filtered in.
+        private int[] mLineStarts = new int[32];
+        private int[] mLineEnds = new int[32];
+        private int mLineCount;
+
+        FilteredVCard(VCardFilter filter, boolean vCardType21, boolean stripTelephoneNumber) {
+            mFilter = filter;
+            mVCardType21 = vCardType21;
+            mStripTelephoneNumber = stripTelephoneNumber;
+        }
+
+        void parse(String vCard) {
+            mVCard = vCard;
+            mPropertyBits = 0;
+            mLineCount = 0;
+            boolean filteredIn = false;
+            final int length = vCard.length();
+            int start = 0;
+            while (start < length) {
+                int end = vCard.indexOf(SEPARATOR, start);
+                if (end < 0) {
+                    end = length;
+                }
+                if (end > start) {
+                    // Continuation lines of multi-line properties follow their property.
+                    char first = vCard.charAt(start);
+                    if (!Character.isWhitespace(first) && first != '=') {
+                        int nameEnd = getPropertyNameEnd(vCard, start, end);
+                        mPropertyBits |= PropertySelector.getPropertyBit(vCard, start, nameEnd);
+                        filteredIn = mFilter.isPropertyFilteredIn(vCard, start, nameEnd,
+                                mVCardType21);
+                    }
+                    if (filteredIn) {
+                        addLine(start, end);
+                    }
+                }
+                start = end + SEPARATOR.length();
+            }
+        }
+
+        private void addLine(int start, int end) {
+            if (mLineCount == mLineStarts.length) {
+                mLineStarts = Arrays.copyOf(mLineStarts, mLineCount * 2);
+                mLineEnds = Arrays.copyOf(mLineEnds, mLineCount * 2);
+            }
+            mLineStarts[mLineCount] = start;
+            mLineEnds[mLineCount] = end;
+            mLineCount++;
+        }
+
+        /** Returns the properties of the vCard known to the {@link PropertySelector}. */
+        long getPropertyBits() {
+            return mPropertyBits;
+        }
+
+        void writeTo(HandlerForStringBuffer buffer) throws IOException {
+            for (int i = 0; i < mLineCount; i++) {
+                int start = mLineStarts[i];
+                final int end = mLineEnds[i];
+                if (mStripTelephoneNumber && mVCard.startsWith("TEL", start)) {
+                    int colon = mVCard.indexOf(':', start);
+                    if (colon >= 0 && colon < end) {
+                        // Remove '-', '(', ')' or ' ' from TEL number
+                        buffer.append(mVCard, start, colon + 1);
+                        start = colon + 1;
+                        for (int pos = start; pos < end; pos++) {
+                            char c = mVCard.charAt(pos);
+                            if (c == '-' || c == '(' || c == ')' || c == ' ') {
+                                buffer.append(mVCard, start, pos);
+                                start = pos + 1;
+                            }
+                        }
+                    }
+                }
+                buffer.append(mVCard, start, end);
+                buffer.append(SEPARATOR, 0, SEPARATOR.length());
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < mLineCount; i++) {
+                sb.append(mVCard, mLineStarts[i], mLineEnds[i]).append(SEPARATOR);
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Returns the end of the property name of the line from {@code start} to {@code end}. */
+    private static int getPropertyNameEnd(String vCard, int start, int end) {
+        int pos = start;
+        while (pos < end && vCard.charAt(pos) != ';' && vCard.charAt(pos) != ':') {
+            pos++;
+        }
+        return pos;
+    }
+
     private static Uri getPhoneLookupFilterUri() {
         return PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI;
     }
@@ -1303,17 +1462,4 @@ public class BluetoothPbapVcardManager {
         Log.d(TAG, "returning name: " + name);
         return name;
     }
-
-    private static boolean doesVCardHaveProperty(String vCard, String property) {
-        String[] lines = vCard.split(PropertySelector.SEPARATOR);
-        for (String line : lines) {
-            if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                String currentProperty = line.split("[;:]")[0];
-                if (property.equals(currentProperty)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
 }
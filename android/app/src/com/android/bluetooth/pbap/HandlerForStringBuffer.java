@@ -25,15 +25,23 @@ import java.io.OutputStream;
 
 /**
  * Handler to emit vCards to PCE.
+ *
+ * <p>vCards are encoded to UTF-8 into a buffer reused across entries, rather than into a new
+ * byte array for each of them.
  */
 public class HandlerForStringBuffer {
     private static final String TAG = "HandlerForStringBuffer";
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final Operation mOperation;
     private final String mOwnerVCard;
 
     private OutputStream mOutputStream;
 
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mCount;
+
     public HandlerForStringBuffer(Operation op, String ownerVCard) {
         mOperation = op;
         mOwnerVCard = ownerVCard;
@@ -58,7 +66,8 @@ public class HandlerForStringBuffer {
     public boolean writeVCard(String vCard) {
         try {
             if (vCard != null) {
-                mOutputStream.write(vCard.getBytes());
+                append(vCard, 0, vCard.length());
+                flush();
                 return true;
             }
         } catch (IOException e) {
@@ -67,6 +76,57 @@ public class HandlerForStringBuffer {
         return false;
     }
 
+    /** Writes the lines of {@code vCard} kept by its filter. */
+    boolean writeVCard(BluetoothPbapVcardManager.FilteredVCard vCard) {
+        try {
+            vCard.writeTo(this);
+            flush();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "write failed", e);
+        }
+        return false;
+    }
+
+    /** Encodes the characters of {@code s} from {@code start} to {@code end} as UTF-8. */
+    void append(String s, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (mCount > BUFFER_SIZE - 4) {
+                flush();
+            }
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                mBuffer[mCount++] = (byte) c;
+            } else if (c < 0x800) {
+                mBuffer[mCount++] = (byte) (0xC0 | (c >> 6));
+                mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                mBuffer[mCount++] = (byte) (0xF0 | (codePoint >> 18));
+                mBuffer[mCount++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                mBuffer[mCount++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                mBuffer[mCount++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced like String#getBytes does.
+                mBuffer[mCount++] = (byte) '?';
+            } else {
+                mBuffer[mCount++] = (byte) (0xE0 | (c >> 12));
+                mBuffer[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                mBuffer[mCount++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (mCount > 0) {
+            int count = mCount;
+            // Dropped even if the write fails, the entry is not resent.
+            mCount = 0;
+            mOutputStream.write(mBuffer, 0, count);
+        }
+    }
+
     public void terminate() {
         boolean result = BluetoothPbapObexServer.closeStream(mOutputStream, mOperation);
         if (BluetoothPbapService.VERBOSE) {
@@ -31,6 +31,10 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
 
     private int mSize;
 
+    // PBAP v1.2 folder version counters, sent by servers that support them.
+    private String mDatabaseIdentifier;
+    private String mPrimaryVersionCounter;
+
     BluetoothPbapRequestPullPhoneBookSize(String pbName, long filter) {
         mHeaderSet.setHeader(HeaderSet.NAME, pbName);
 
@@ -59,9 +63,35 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
         if (oap.exists(OAP_TAGID_PHONEBOOK_SIZE)) {
             mSize = oap.getShort(OAP_TAGID_PHONEBOOK_SIZE);
         }
+        if (oap.exists(OAP_TAGID_DATABASE_IDENTIFIER)) {
+            mDatabaseIdentifier = toHexString(oap.getByteArray(OAP_TAGID_DATABASE_IDENTIFIER));
+        }
+        if (oap.exists(OAP_TAGID_PRIMARY_VERSION_COUNTER)) {
+            mPrimaryVersionCounter =
+                    toHexString(oap.getByteArray(OAP_TAGID_PRIMARY_VERSION_COUNTER));
+        }
+    }
+
+    private static String toHexString(byte[] value) {
+        StringBuilder sb = new StringBuilder(value.length * 2);
+        for (byte b : value) {
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
     }
 
     public int getSize() {
         return mSize;
     }
+
+    /**
+     * Returns the version of the phonebook, made of its database identifier and primary version
+     * counter, or null if the server does not report them.
+     */
+    public String getVersion() {
+        if (mDatabaseIdentifier == null || mPrimaryVersionCounter == null) {
+            return null;
+        }
+        return mDatabaseIdentifier + ":" + mPrimaryVersionCounter;
+    }
 }
@@ -32,6 +32,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.ObexAppParameters;
 import com.android.bluetooth.R;
+import com.android.bluetooth.btservice.AdapterService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
@@ -86,6 +87,8 @@ class PbapClientConnectionHandler extends Handler {
     };
 
     private static final int PBAP_FEATURE_DEFAULT_IMAGE_FORMAT = 0x00000200;
+    private static final int PBAP_FEATURE_FOLDER_VERSION_COUNTERS = 0x00000008;
+    private static final int PBAP_FEATURE_DATABASE_IDENTIFIER = 0x00000004;
     private static final int PBAP_FEATURE_BROWSING = 0x00000002;
     private static final int PBAP_FEATURE_DOWNLOADING = 0x00000001;
 
@@ -137,6 +140,9 @@ class PbapClientConnectionHandler extends Handler {
     private BluetoothPbapObexAuthenticator mAuth = null;
     private final PbapClientStateMachine mPbapClientStateMachine;
     private boolean mAccountCreated;
+    // Keeps the contacts of the account across connections, and only downloads the phonebooks
+    // whose version counters changed.
+    private final boolean mIncrementalSync;
 
     /**
      * Constructs PCEConnectionHandler object
@@ -152,6 +158,8 @@ class PbapClientConnectionHandler extends Handler {
         mAccountManager = AccountManager.get(mPbapClientStateMachine.getContext());
         mAccount =
                 new Account(mDevice.getAddress(), mContext.getString(R.string.pbap_account_type));
+        mIncrementalSync = mContext.getResources()
+                .getBoolean(R.bool.config_pbap_client_incremental_sync);
     }
 
     public static class Builder {
@@ -240,14 +248,17 @@ class PbapClientConnectionHandler extends Handler {
                 if (DBG) {
                     Log.d(TAG, "Completing Disconnect");
                 }
-                removeAccount();
+                // Contacts are kept for the next connection of a device still bonded.
+                if (!mIncrementalSync || !isBonded()) {
+                    removeAccount();
+                }
                 removeCallLog();
 
                 mPbapClientStateMachine.sendMessage(PbapClientStateMachine.MSG_CONNECTION_CLOSED);
                 break;
 
             case MSG_DOWNLOAD:
-                mAccountCreated = addAccount();
+                mAccountCreated = addAccount() || (mIncrementalSync && hasAccount());
                 if (!mAccountCreated) {
                     Log.e(TAG, "Account creation failed.");
                     return;
@@ -340,8 +351,13 @@ class PbapClientConnectionHandler extends Handler {
                 ObexAppParameters oap = new ObexAppParameters();
 
                 if (mPseRec.getProfileVersion() >= PBAP_V1_2) {
+                    int supportedFeatures = PBAP_SUPPORTED_FEATURE;
+                    if (mIncrementalSync) {
+                        supportedFeatures |= PBAP_FEATURE_DATABASE_IDENTIFIER
+                                | PBAP_FEATURE_FOLDER_VERSION_COUNTERS;
+                    }
                     oap.add(BluetoothPbapRequest.OAP_TAGID_PBAP_SUPPORTED_FEATURES,
-                            PBAP_SUPPORTED_FEATURE);
+                            supportedFeatures);
                 }
 
                 oap.addToHeaderSet(connectionRequest);
@@ -388,17 +404,43 @@ class PbapClientConnectionHandler extends Handler {
     @VisibleForTesting
     void downloadContacts(String path) {
         try {
-            PhonebookPullRequest processor =
-                    new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
-                            mAccount);
-
             // Download contacts in batches of size DEFAULT_BATCH_SIZE
             BluetoothPbapRequestPullPhoneBookSize requestPbSize =
                     new BluetoothPbapRequestPullPhoneBookSize(path,
                             PBAP_REQUESTED_FIELDS);
             requestPbSize.execute(mObexSession);
+            downloadContacts(path, requestPbSize.getSize(), requestPbSize.getVersion(),
+                    new PhonebookPullRequest(mPbapClientStateMachine.getContext(), mAccount));
+        } catch (IOException e) {
+            Log.w(TAG, "Download contacts failure" + e.toString());
+        }
+    }
 
-            int numberOfContactsRemaining = requestPbSize.getSize();
+    /**
+     * Downloads the {@code size} contacts of the phonebook {@code path}, and stores them with
+     * {@code processor}. {@code version} is the version the server reports for the phonebook, or
+     * null.
+     */
+    @VisibleForTesting
+    void downloadContacts(String path, int size, String version,
+            PhonebookPullRequest processor) {
+        if (mIncrementalSync) {
+            if (version != null && version.equals(getStoredVersion(path))) {
+                if (DBG) {
+                    Log.d(TAG, "Contacts of " + path + " unchanged, version " + version);
+                }
+                return;
+            }
+            // Forgotten until the download completes, so that an aborted one is redone.
+            setStoredVersion(path, null);
+            processor.path = path;
+            processor.loadStoredContacts();
+        }
+
+        PhonebookInsertQueue insertQueue = null;
+        boolean downloaded = false;
+        try {
+            int numberOfContactsRemaining = size;
             int startOffset = 0;
             if (PB_PATH.equals(path)) {
                 // PBAP v1.2.3, Sec 3.1.5. The first contact in pb is owner card 0.vcf, which we
@@ -409,6 +451,9 @@ class PbapClientConnectionHandler extends Handler {
                 numberOfContactsRemaining -= 1;
             }
 
+            // Each batch is inserted while the next one downloads.
+            insertQueue = new PhonebookInsertQueue(processor);
+            insertQueue.start();
             while ((numberOfContactsRemaining > 0) && (startOffset <= UPPER_LIMIT)) {
                 int numberOfContactsToDownload =
                         Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
@@ -425,8 +470,7 @@ class PbapClientConnectionHandler extends Handler {
                         v.setStarred(true);
                     }
                 }
-                processor.setResults(vcards);
-                processor.onPullComplete();
+                insertQueue.add(vcards);
 
                 startOffset += numberOfContactsToDownload;
                 numberOfContactsRemaining -= numberOfContactsToDownload;
@@ -434,11 +478,35 @@ class PbapClientConnectionHandler extends Handler {
             if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
                 Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
             }
+            downloaded = true;
         } catch (IOException e) {
             Log.w(TAG, "Download contacts failure" + e.toString());
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Download contacts interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            // The batches downloaded before a failure are still inserted, unless aborted.
+            if (insertQueue != null) {
+                insertQueue.finish();
+            }
+        }
+        if (mIncrementalSync && downloaded && !Thread.currentThread().isInterrupted()
+                && processor.removeStaleContacts() && version != null) {
+            setStoredVersion(path, version);
         }
     }
 
+    /** Returns the version of the phonebook {@code path} stored by the last complete download. */
+    @VisibleForTesting
+    String getStoredVersion(String path) {
+        return mAccountManager.getUserData(mAccount, path);
+    }
+
+    @VisibleForTesting
+    void setStoredVersion(String path, String version) {
+        mAccountManager.setUserData(mAccount, path, version);
+    }
+
     @VisibleForTesting
     void downloadCallLog(String path, HashMap<String, Integer> callCounter) {
         try {
@@ -466,6 +534,21 @@ class PbapClientConnectionHandler extends Handler {
         return false;
     }
 
+    private boolean isBonded() {
+        AdapterService adapterService = AdapterService.getAdapterService();
+        return adapterService != null
+                && adapterService.getBondState(mDevice) == BluetoothDevice.BOND_BONDED;
+    }
+
+    private boolean hasAccount() {
+        for (Account account : mAccountManager.getAccountsByType(mAccount.type)) {
+            if (mAccount.equals(account)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @VisibleForTesting
     void removeAccount() {
         if (mAccountManager.removeAccountExplicitly(mAccount)) {
@@ -143,6 +143,8 @@ public class PbapClientService extends ProfileService {
         // To remove call logs when PBAP was never connected while calls were made,
         // we also listen for HFP to become disconnected.
         filter.addAction(BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED);
+        // Contacts kept between the connections of a device are removed when it is unpaired.
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         try {
             registerReceiver(mPbapBroadcastReceiver, filter);
         } catch (Exception e) {
@@ -240,6 +242,19 @@ public class PbapClientService extends ProfileService {
         }
     }
 
+    // Removes the account of a device no longer bonded, whose contacts may have been kept for its
+    // next connection.
+    private void removeDeviceAccount(BluetoothDevice device) {
+        if (!isAuthenticationServiceReady()) {
+            Log.w(TAG, "Can't remove account. AccountManager hasn't registered our service yet.");
+            return;
+        }
+        Account account = new Account(device.getAddress(), getString(R.string.pbap_account_type));
+        if (AccountManager.get(this).removeAccountExplicitly(account)) {
+            Log.i(TAG, "Removed account of unbonded device " + account);
+        }
+    }
+
     private void removeHfpCallLog(String accountName, Context context) {
         if (DBG) Log.d(TAG, "Removing call logs from " + accountName);
         // Delete call logs belonging to accountName==BD_ADDR that also match
@@ -325,6 +340,13 @@ public class PbapClientService extends ProfileService {
                     // HFP client stores entries in calllog.db by BD_ADDR and component name
                     removeHfpCallLog(device.getAddress(), context);
                 }
+            } else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
+                        BluetoothDevice.ERROR);
+                if (bondState == BluetoothDevice.BOND_NONE) {
+                    removeDeviceAccount(device);
+                }
             }
         }
     }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.vcard.VCardEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Stores the batches of a phonebook download on a worker thread, so that the next batch is pulled
+ * from the remote device while the previous one is inserted into the contacts provider.
+ *
+ * <p>At most {@link #MAX_PENDING_BATCHES} downloaded batches wait for insertion; the download
+ * blocks in {@link #add} when the provider falls further behind.
+ */
+class PhonebookInsertQueue {
+    private static final String TAG = "PbapInsertQueue";
+    private static final boolean VDBG = Utils.VDBG;
+
+    @VisibleForTesting
+    static final int MAX_PENDING_BATCHES = 2;
+
+    // Queued by finish() after the last batch.
+    private final List<VCardEntry> mEndOfDownload = new ArrayList<>();
+
+    private final PullRequest mProcessor;
+    private final BlockingQueue<List<VCardEntry>> mBatches =
+            new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+    private final Thread mInserter;
+
+    PhonebookInsertQueue(PullRequest processor) {
+        mProcessor = processor;
+        mInserter = new Thread(this::insertLoop, "PbapClientInsert");
+    }
+
+    void start() {
+        mInserter.start();
+    }
+
+    /** Queues a downloaded batch, waiting while too many batches are not inserted yet. */
+    void add(List<VCardEntry> batch) throws InterruptedException {
+        mBatches.put(batch);
+    }
+
+    /**
+     * Waits until every queued batch is inserted. If the calling thread is interrupted, the
+     * batches not inserted yet are dropped instead.
+     */
+    void finish() {
+        try {
+            if (!Thread.currentThread().isInterrupted()) {
+                mBatches.put(mEndOfDownload);
+                mInserter.join();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.w(TAG, "Interrupted, dropping " + mBatches.size() + " batches");
+        mBatches.clear();
+        mInserter.interrupt();
+        // Wait for the batch being applied, so that no insertion outlives the download.
+        boolean joined = false;
+        while (!joined) {
+            try {
+                mInserter.join();
+                joined = true;
+            } catch (InterruptedException e) {
+                // Cleared by join(), restored below.
+            }
+        }
+        Thread.currentThread().interrupt();
+    }
+
+    private void insertLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<VCardEntry> batch = mBatches.take();
+                if (batch == mEndOfDownload) {
+                    break;
+                }
+                mProcessor.setResults(batch);
+                mProcessor.onPullComplete();
+                if (VDBG) {
+                    Log.d(TAG, "Inserted batch of " + batch.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            // The download was aborted.
+        }
+    }
+}
@@ -17,27 +17,58 @@ package com.android.bluetooth.pbapclient;
 
 import android.accounts.Account;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardEntry;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
 
 public class PhonebookPullRequest extends PullRequest {
+    // Contacts needing this many operations or more are dropped.
     @VisibleForTesting
     static final int MAX_OPS = 250;
+    // Bounds of the number of operations applied in one batch. The batch size adapts to how long
+    // the contacts provider takes to apply a batch: large batches save inter process calls, but
+    // hold the contacts database for longer.
+    @VisibleForTesting
+    static final int MIN_OPS_PER_BATCH = 50;
+    @VisibleForTesting
+    static final int MAX_OPS_PER_BATCH = 500;
+    @VisibleForTesting
+    static final long TARGET_BATCH_DURATION_MS = 200;
+    private static final boolean DBG = Utils.DBG;
     private static final boolean VDBG = Utils.VDBG;
     private static final String TAG = "PbapPbPullRequest";
 
     private final Account mAccount;
     private final Context mContext;
     public boolean complete = false;
+    // Kept across the pulls of a phonebook, which reuse this request.
+    private int mOpsPerBatch = MAX_OPS;
+    // Raw contacts of the account already stored for this path, by content hash, when syncing
+    // incrementally. Contacts downloaded again unchanged are kept, the ones left are stale.
+    private HashMap<Long, ArrayDeque<Long>> mStoredContacts;
+    private boolean mFailed = false;
 
     public PhonebookPullRequest(Context context, Account account) {
         mContext = context;
@@ -69,22 +100,32 @@ public class PhonebookPullRequest extends PullRequest {
                 }
                 int numberOfOperations = insertOperations.size();
                 // Append current vcard to list of insert operations.
-                e.constructInsertOperations(contactsProvider, insertOperations);
-                if (insertOperations.size() >= MAX_OPS) {
-                    // If we have exceded the limit to the insert operation remove the latest vcard
-                    // and submit.
+                appendInsertOperations(contactsProvider, e, insertOperations);
+                if (insertOperations.size() - numberOfOperations >= MAX_OPS) {
+                    // Current VCard has more than MAX_OPS attributes, drop the card.
                     insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
-                    contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                    insertOperations = e.constructInsertOperations(contactsProvider, null);
-                    if (insertOperations.size() >= MAX_OPS) {
-                        // Current VCard has more than 500 attributes, drop the card.
+                    continue;
+                }
+                if (insertOperations.size() >= mOpsPerBatch) {
+                    if (numberOfOperations > 0) {
+                        // If we have exceded the limit to the insert operation remove the latest
+                        // vcard and submit.
+                        insertOperations.subList(numberOfOperations, insertOperations.size())
+                                .clear();
+                        applyBatch(contactsProvider, insertOperations);
+                        insertOperations.clear();
+                        appendInsertOperations(contactsProvider, e, insertOperations);
+                    }
+                    if (insertOperations.size() >= mOpsPerBatch) {
+                        // The latest vcard alone fills a batch.
+                        applyBatch(contactsProvider, insertOperations);
                         insertOperations.clear();
                     }
                 }
             }
             if (insertOperations.size() > 0) {
                 // Apply any unsubmitted vcards.
-                contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
+                applyBatch(contactsProvider, insertOperations);
                 insertOperations.clear();
             }
             if (VDBG) {
@@ -92,8 +133,186 @@ public class PhonebookPullRequest extends PullRequest {
             }
         } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
             Log.e(TAG, "Got exception: ", e);
+            mFailed = true;
         } finally {
             complete = true;
         }
     }
+
+    /**
+     * Syncs the next pulls of {@link #path} incrementally: contacts already stored unchanged are
+     * kept instead of inserted again, and {@link #removeStaleContacts} removes the others.
+     */
+    void loadStoredContacts() {
+        mStoredContacts = new HashMap<>();
+        String selection = RawContacts.ACCOUNT_TYPE + "=? AND " + RawContacts.ACCOUNT_NAME
+                + "=? AND " + RawContacts.SYNC2 + "=? AND " + RawContacts.DELETED + "=0";
+        String[] selectionArgs = new String[] {mAccount.type, mAccount.name, path};
+        try (Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
+                mContext.getContentResolver(), RawContacts.CONTENT_URI,
+                new String[] {RawContacts._ID, RawContacts.SYNC1}, selection, selectionArgs,
+                null)) {
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                String hash = cursor.getString(1);
+                if (hash == null) {
+                    continue;
+                }
+                mStoredContacts.computeIfAbsent(Long.parseLong(hash), k -> new ArrayDeque<>())
+                        .add(cursor.getLong(0));
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid stored contact hash", e);
+        }
+        if (VDBG) {
+            Log.d(TAG, "Loaded " + mStoredContacts.size() + " stored contacts for " + path);
+        }
+    }
+
+    /**
+     * Removes the stored contacts that were not downloaded again. Returns whether every pull of
+     * the path has been stored.
+     */
+    boolean removeStaleContacts() {
+        if (mStoredContacts == null || mFailed) {
+            return false;
+        }
+        Uri uri = RawContacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true")
+                .build();
+        ContentResolver contactsProvider = mContext.getContentResolver();
+        ArrayList<ContentProviderOperation> deleteOperations = new ArrayList<>();
+        int removed = 0;
+        try {
+            for (ArrayDeque<Long> rawContactIds : mStoredContacts.values()) {
+                for (long rawContactId : rawContactIds) {
+                    deleteOperations.add(ContentProviderOperation.newDelete(uri)
+                            .withSelection(RawContacts._ID + "=?",
+                                    new String[] {Long.toString(rawContactId)})
+                            .build());
+                    if (deleteOperations.size() >= mOpsPerBatch) {
+                        applyBatch(contactsProvider, deleteOperations);
+                        removed += deleteOperations.size();
+                        deleteOperations.clear();
+                    }
+                }
+            }
+            if (deleteOperations.size() > 0) {
+                applyBatch(contactsProvider, deleteOperations);
+                removed += deleteOperations.size();
+            }
+        } catch (OperationApplicationException | RemoteException e) {
+            Log.e(TAG, "Got exception: ", e);
+            return false;
+        }
+        mStoredContacts.clear();
+        if (DBG) {
+            Log.d(TAG, "Removed " + removed + " stale contacts of " + path);
+        }
+        return true;
+    }
+
+    // Marks one stored contact with this hash as downloaded again. Returns false if there is none.
+    private boolean keepStoredContact(long hash) {
+        ArrayDeque<Long> rawContactIds = mStoredContacts.get(hash);
+        if (rawContactIds == null) {
+            return false;
+        }
+        rawContactIds.poll();
+        if (rawContactIds.isEmpty()) {
+            mStoredContacts.remove(hash);
+        }
+        return true;
+    }
+
+    // Appends the operations inserting entry, unless it is a stored contact downloaded unchanged.
+    private void appendInsertOperations(ContentResolver contactsProvider, VCardEntry entry,
+            ArrayList<ContentProviderOperation> operations) {
+        int rawContactIndex = operations.size();
+        entry.constructInsertOperations(contactsProvider, operations);
+        if (mStoredContacts == null || operations.size() == rawContactIndex) {
+            return;
+        }
+        long hash = getContentHash(operations, rawContactIndex);
+        if (keepStoredContact(hash)) {
+            operations.subList(rawContactIndex, operations.size()).clear();
+            return;
+        }
+        // Tags the raw contact, the first operation of the entry, for the next incremental sync.
+        operations.add(ContentProviderOperation.newUpdate(RawContacts.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true")
+                        .build())
+                .withValue(RawContacts.SYNC1, Long.toString(hash))
+                .withValue(RawContacts.SYNC2, path)
+                .withSelection(RawContacts._ID + "=?", new String[1])
+                .withSelectionBackReference(0, rawContactIndex)
+                .build());
+    }
+
+    /**
+     * Returns a hash of the rows inserted by the operations of {@code operations} from
+     * {@code fromIndex} on, the insert operations of one contact, which changes when the contact
+     * changes.
+     */
+    @VisibleForTesting
+    static long getContentHash(List<ContentProviderOperation> operations, int fromIndex) {
+        // The rows of the contact refer to its raw contact, whose id is not known yet. The back
+        // references are indexes into the whole batch, not into the operations of the contact.
+        ContentProviderResult[] backReferences = new ContentProviderResult[operations.size()];
+        Arrays.fill(backReferences, new ContentProviderResult(
+                ContentUris.withAppendedId(RawContacts.CONTENT_URI, 0)));
+        long hash = 0;
+        for (ContentProviderOperation operation : operations.subList(fromIndex,
+                operations.size())) {
+            ContentValues values =
+                    operation.resolveValueBackReferences(backReferences, backReferences.length);
+            if (values == null) {
+                continue;
+            }
+            // Sorted, so that the hash does not depend on the order of the values.
+            for (String key : new TreeSet<>(values.keySet())) {
+                Object value = values.get(key);
+                hash = hash * 31 + key.hashCode();
+                hash = hash * 1000003 + (value instanceof byte[]
+                        ? Arrays.hashCode((byte[]) value) : Objects.hashCode(value));
+            }
+            hash = hash * 31 + 1;
+        }
+        return hash;
+    }
+
+    private void applyBatch(ContentResolver contactsProvider,
+            ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException, RemoteException {
+        long start = SystemClock.elapsedRealtime();
+        contactsProvider.applyBatch(ContactsContract.AUTHORITY, operations);
+        long duration = SystemClock.elapsedRealtime() - start;
+        // Batches cut short at the end of a pull say little about how the provider keeps up.
+        if (operations.size() >= mOpsPerBatch / 2) {
+            long projectedDuration = duration * mOpsPerBatch / operations.size();
+            mOpsPerBatch = nextOpsPerBatch(mOpsPerBatch, projectedDuration);
+        }
+        if (VDBG) {
+            Log.d(TAG, "Applied " + operations.size() + " operations in " + duration
+                    + " ms, next batch " + mOpsPerBatch);
+        }
+    }
+
+    /** Returns the size of the next batch, when a full batch takes {@code durationMs}. */
+    @VisibleForTesting
+    static int nextOpsPerBatch(int opsPerBatch, long durationMs) {
+        if (durationMs > TARGET_BATCH_DURATION_MS) {
+            return Math.max(MIN_OPS_PER_BATCH, opsPerBatch / 2);
+        } else if (durationMs < TARGET_BATCH_DURATION_MS / 2) {
+            return Math.min(MAX_OPS_PER_BATCH, opsPerBatch * 2);
+        }
+        return opsPerBatch;
+    }
+
+    @VisibleForTesting
+    int getOpsPerBatch() {
+        return mOpsPerBatch;
+    }
 }
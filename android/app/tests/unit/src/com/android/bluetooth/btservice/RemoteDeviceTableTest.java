@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test cases for {@link RemoteDeviceTable}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RemoteDeviceTableTest {
+
+    @Test
+    public void toKey_stringAndBytesAgree() {
+        byte[] address = new byte[] {0x00, 0x1A, (byte) 0xFF, 0x03, 0x04, 0x05};
+
+        assertThat(RemoteDeviceTable.toKey(address)).isEqualTo(0x001AFF030405L);
+        assertThat(RemoteDeviceTable.toKey("00:1A:FF:03:04:05")).isEqualTo(0x001AFF030405L);
+        assertThat(RemoteDeviceTable.toKey("00:1a:ff:03:04:05")).isEqualTo(0x001AFF030405L);
+    }
+
+    @Test
+    public void putGetRemove_behaveLikeMap() {
+        RemoteDeviceTable<Integer> table = new RemoteDeviceTable<>(Integer.MAX_VALUE, v -> true);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 10_000; i++) {
+            long key = random.nextInt(500) * 0x10001L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertThat(table.put(key, i)).isEqualTo(expected.put(key, i));
+                    break;
+                case 1:
+                    assertThat(table.remove(key)).isEqualTo(expected.remove(key));
+                    break;
+                default:
+                    assertThat(table.get(key)).isEqualTo(expected.get(key));
+            }
+            assertThat(table.size()).isEqualTo(expected.size());
+        }
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        RemoteDeviceTable<Integer> table = new RemoteDeviceTable<>(3, v -> true);
+        table.put(1, 1);
+        table.put(2, 2);
+        table.put(3, 3);
+
+        table.put(4, 4);
+        // Touch 2, so that 3 is the least recently used entry.
+        table.get(2);
+        table.put(5, 5);
+
+        assertThat(table.size()).isEqualTo(3);
+        assertThat(table.get(1)).isNull();
+        assertThat(table.get(3)).isNull();
+        assertThat(table.get(2)).isEqualTo(2);
+    }
+
+    @Test
+    public void put_neverEvictsPinnedEntries() {
+        // Odd values are pinned.
+        RemoteDeviceTable<Integer> table = new RemoteDeviceTable<>(2, v -> v % 2 == 0);
+        for (int i = 0; i < 10; i++) {
+            table.put(i, i);
+        }
+
+        List<Integer> values = new ArrayList<>();
+        table.forEachValue(values::add);
+        assertThat(values).containsAtLeast(1, 3, 5, 7, 9);
+        assertThat(table.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void counters_trackHitsMissesAndEvictions() {
+        RemoteDeviceTable<Integer> table = new RemoteDeviceTable<>(1, v -> true);
+        table.put(1, 1);
+        table.get(1);
+        table.get(2);
+        table.put(2, 2);
+
+        assertThat(table.getHitCount()).isEqualTo(1);
+        assertThat(table.getMissCount()).isEqualTo(1);
+        assertThat(table.getEvictionCount()).isEqualTo(1);
+    }
+}
@@ -107,6 +107,8 @@ public final class DatabaseManagerTest {
         when(mAdapterService.getPackageManager()).thenReturn(
                 InstrumentationRegistry.getTargetContext().getPackageManager());
         mDatabaseManager = new DatabaseManager(mAdapterService);
+        // Commit updates as soon as the handler runs, so tests only need to wait for the looper.
+        mDatabaseManager.setWriteCoalescingWindowForTesting(0);
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
@@ -150,6 +152,36 @@ public final class DatabaseManagerTest {
         TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
     }
 
+    @Test
+    public void testUpdatesCoalescedUntilFlush() {
+        mDatabaseManager.setWriteCoalescingWindowForTesting(60_000);
+
+        mDatabaseManager.setProfileConnectionPolicy(mTestDevice, BluetoothProfile.HEADSET,
+                BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        mDatabaseManager.setProfileConnectionPolicy(mTestDevice, BluetoothProfile.A2DP,
+                BluetoothProfile.CONNECTION_POLICY_FORBIDDEN);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Nothing is written within the coalescing window
+        for (Metadata metadata : mDatabase.load()) {
+            Assert.assertNotEquals(TEST_BT_ADDR, metadata.getAddress());
+        }
+
+        // Pending updates are committed on cleanup
+        restartDatabaseManagerHelper();
+        Metadata stored = null;
+        for (Metadata metadata : mDatabase.load()) {
+            if (TEST_BT_ADDR.equals(metadata.getAddress())) {
+                stored = metadata;
+            }
+        }
+        Assert.assertNotNull(stored);
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_ALLOWED,
+                stored.getProfileConnectionPolicy(BluetoothProfile.HEADSET));
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_FORBIDDEN,
+                stored.getProfileConnectionPolicy(BluetoothProfile.A2DP));
+    }
+
     @Test
     public void testSetGetProfileConnectionPolicy() {
         int badConnectionPolicy = -100;
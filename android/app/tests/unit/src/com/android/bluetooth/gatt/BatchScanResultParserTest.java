@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for {@link BatchScanResultParser}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BatchScanResultParserTest {
+
+    private static final long NOW_NANOS = 1_000_000_000_000L;
+
+    // Address 00:01:02:03:04:05 in little endian, address type, tx power, rssi -60 and a
+    // timestamp of 2 units.
+    private static final byte[] TRUNCATED_RECORD = new byte[] {
+            0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, 0x00, (byte) -60, 0x02, 0x00};
+
+    @Test
+    public void parseTruncatedResults() {
+        BatchScanResultParser parser = new BatchScanResultParser();
+        byte[] batchRecord = concat(TRUNCATED_RECORD, TRUNCATED_RECORD);
+        List<ScanResult> results = new ArrayList<>();
+
+        parser.parseTruncatedResults(2, batchRecord, NOW_NANOS, results);
+
+        assertThat(results).hasSize(2);
+        ScanResult result = results.get(0);
+        assertThat(result.getDevice().getAddress()).isEqualTo("00:01:02:03:04:05");
+        assertThat(result.getRssi()).isEqualTo(-60);
+        assertThat(result.getTimestampNanos()).isEqualTo(NOW_NANOS - 100_000_000L);
+        assertThat(results.get(1).getDevice()).isSameInstanceAs(result.getDevice());
+        assertThat(parser.getCachedDeviceCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void parseFullResults_combinesAdvertisementAndScanResponse() {
+        BatchScanResultParser parser = new BatchScanResultParser();
+        byte[] header = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, (byte) -70, 0x01, 0x00};
+        // Flags in the advertisement, a short local name in the scan response.
+        byte[] advertisement = new byte[] {0x03, 0x02, 0x01, 0x06};
+        byte[] scanResponse = new byte[] {0x04, 0x03, 0x09, 'a', 'b'};
+        byte[] batchRecord = concat(header, advertisement, scanResponse);
+        List<ScanResult> results = new ArrayList<>();
+
+        parser.parseFullResults(batchRecord, NOW_NANOS, results);
+
+        assertThat(results).hasSize(1);
+        ScanResult result = results.get(0);
+        assertThat(result.getDevice().getAddress()).isEqualTo("01:02:03:04:05:06");
+        assertThat(result.getRssi()).isEqualTo(-70);
+        assertThat(result.getTimestampNanos()).isEqualTo(NOW_NANOS - 50_000_000L);
+        assertThat(result.getScanRecord().getAdvertiseFlags()).isEqualTo(0x06);
+        assertThat(result.getScanRecord().getDeviceName()).isEqualTo("ab");
+    }
+
+    @Test
+    public void parseTimestampNanos() {
+        byte[] data = new byte[] {0x00, -54, 7};
+
+        assertThat(BatchScanResultParser.parseTimestampNanos(data, 1)).isEqualTo(99700000000L);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, position, array.length);
+            position += array.length;
+        }
+        return result;
+    }
+}
@@ -67,6 +67,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -306,6 +307,39 @@ public class GattServiceTest {
         verify(callback).onBatchScanResults(any());
     }
 
+    @Test
+    public void onScanResultInternal_sharesParsedResultAcrossClients() throws RemoteException {
+        int eventType = 0x1b;
+        byte[] advData = new byte[62];
+        advData[0] = 0x02;
+        advData[1] = 0x01;
+        advData[2] = 0x06;
+
+        Set<ScanClient> scanClientSet = new HashSet<>();
+        List<IScannerCallback> callbacks = new ArrayList<>();
+        for (int scannerId = 1; scannerId <= 2; scannerId++) {
+            ScanClient scanClient = new ScanClient(scannerId);
+            scanClient.hasNetworkSettingsPermission = true;
+            scanClientSet.add(scanClient);
+
+            GattService.ScannerMap.App app = mock(GattService.ScannerMap.App.class);
+            app.appScanStats = mock(AppScanStats.class);
+            app.callback = mock(IScannerCallback.class);
+            callbacks.add(app.callback);
+            doReturn(app).when(mScannerMap).getById(scannerId);
+        }
+        doReturn(scanClientSet).when(mScanManager).getRegularScanQueue();
+
+        mService.onScanResultInternal(eventType, BluetoothDevice.ADDRESS_TYPE_PUBLIC,
+                REMOTE_DEVICE_ADDRESS, 1, 0, 0xff, 127, -60, 0x0, advData, null);
+
+        ArgumentCaptor<ScanResult> first = ArgumentCaptor.forClass(ScanResult.class);
+        ArgumentCaptor<ScanResult> second = ArgumentCaptor.forClass(ScanResult.class);
+        verify(callbacks.get(0)).onScanResult(first.capture());
+        verify(callbacks.get(1)).onScanResult(second.capture());
+        assertThat(second.getValue()).isSameInstanceAs(first.getValue());
+    }
+
     @Test
     public void clientConnect() throws Exception {
         int clientIf = 1;
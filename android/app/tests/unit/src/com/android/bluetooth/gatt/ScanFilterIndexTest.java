@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+    private static final int MANUFACTURER_ID = 0x00E0;
+
+    // Flags, then manufacturer specific data for MANUFACTURER_ID with payload {0x01, 0x02}.
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06,
+            0x05, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01, 0x02};
+
+    @Test
+    public void getCandidates_returnsOnlyPlausibleFilters() {
+        ScanFilter manufacturerFilter = new ScanFilter.Builder()
+                .setManufacturerData(MANUFACTURER_ID, new byte[] {0x01}).build();
+        ScanFilter otherManufacturerFilter = new ScanFilter.Builder()
+                .setManufacturerData(MANUFACTURER_ID + 1, new byte[] {0x01}).build();
+        ScanFilter serviceUuidFilter = new ScanFilter.Builder()
+                .setServiceUuid(ParcelUuid.fromString("0000FEF3-0000-1000-8000-00805F9B34FB"))
+                .build();
+        ScanClient first = createClient(1, manufacturerFilter, serviceUuidFilter);
+        ScanClient second = createClient(2, otherManufacturerFilter);
+        List<ScanClient> clients = List.of(first, second);
+
+        ScanFilterIndex index = new ScanFilterIndex(clients);
+        Map<ScanClient, List<ScanFilter>> candidates =
+                index.getCandidates(createResult(ADDRESS), null);
+
+        assertThat(index.getFilterCount()).isEqualTo(3);
+        assertThat(candidates.keySet()).containsExactly(first);
+        assertThat(candidates.get(first)).containsExactly(manufacturerFilter);
+    }
+
+    @Test
+    public void getCandidates_matchesDeviceAndOriginalAddress() {
+        ScanFilter addressFilter = new ScanFilter.Builder().setDeviceAddress(ADDRESS).build();
+        ScanClient client = createClient(1, addressFilter);
+        ScanFilterIndex index = new ScanFilterIndex(List.of(client));
+
+        assertThat(index.getCandidates(createResult(ADDRESS), null).get(client))
+                .containsExactly(addressFilter);
+        assertThat(index.getCandidates(createResult(OTHER_ADDRESS), null)).isEmpty();
+        assertThat(index.getCandidates(createResult(OTHER_ADDRESS), ADDRESS.toLowerCase())
+                .get(client)).containsExactly(addressFilter);
+    }
+
+    @Test
+    public void getCandidates_unindexedFilterIsAlwaysCandidate() {
+        ScanFilter rssiOnlyFilter = new ScanFilter.Builder().build();
+        ScanClient client = createClient(1, rssiOnlyFilter);
+        ScanFilterIndex index = new ScanFilterIndex(List.of(client));
+
+        assertThat(index.getCandidates(createResult(OTHER_ADDRESS), null).get(client))
+                .containsExactly(rssiOnlyFilter);
+    }
+
+    @Test
+    public void isBuiltFrom_detectsClientAndFilterChanges() {
+        ScanClient client = createClient(1, new ScanFilter.Builder().build());
+        List<ScanClient> clients = new ArrayList<>(List.of(client));
+        ScanFilterIndex index = new ScanFilterIndex(clients);
+
+        assertThat(index.isBuiltFrom(clients)).isTrue();
+
+        client.filters = new ArrayList<>(client.filters);
+        assertThat(index.isBuiltFrom(clients)).isFalse();
+
+        index = new ScanFilterIndex(clients);
+        clients.add(createClient(2));
+        assertThat(index.isBuiltFrom(clients)).isFalse();
+    }
+
+    private static ScanClient createClient(int scannerId, ScanFilter... filters) {
+        ScanClient client = new ScanClient(scannerId);
+        client.filters = new ArrayList<>(List.of(filters));
+        return client;
+    }
+
+    private static ScanResult createResult(String address) {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        return new ScanResult(device, ScanRecord.parseFromBytes(ADV_DATA), -60, 0);
+    }
+}
@@ -29,6 +29,7 @@ import static android.bluetooth.le.ScanSettings.SCAN_MODE_SCREEN_OFF_BALANCED;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.anyString;
@@ -82,6 +83,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -148,6 +150,7 @@ public class ScanManagerTest {
         doReturn(mScanNativeInterface).when(mFactory).getScanNativeInterface();
         // Mock JNI callback in ScanNativeInterface
         doReturn(true).when(mScanNativeInterface).waitForCallback(anyInt());
+        doReturn(true).when(mScanNativeInterface).waitForAsyncCommands(anyInt());
 
         MetricsLogger.setInstanceForTesting(mMetricsLogger);
 
@@ -213,6 +216,16 @@ public class ScanManagerTest {
         return createScanClient(id, isFiltered, scanMode, false, false);
     }
 
+    private ScanClient createScanClient(int id, ScanFilter filter) {
+        List<ScanFilter> scanFilterList = List.of(filter);
+        ScanSettings scanSettings = createScanSettings(SCAN_MODE_LOW_LATENCY, false, false);
+
+        ScanClient client = new ScanClient(id, scanSettings, scanFilterList);
+        client.stats = new AppScanStats("Test", null, null, mService);
+        client.stats.recordScanStart(scanSettings, scanFilterList, true, false, id);
+        return client;
+    }
+
     private List<ScanFilter> createScanFilterList(boolean isFiltered) {
         List<ScanFilter> scanFilterList = null;
         if (isFiltered) {
@@ -1216,6 +1229,89 @@ public class ScanManagerTest {
         }
     }
 
+    @Test
+    public void testStartFilteredScan_pipelinesFilterCommands() {
+        // Turn on screen
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        // Create filtered scan client with a single filter
+        ScanClient client = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+        // Start scan
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client));
+        // Filter enable, filter add and filter parameter add are issued without waiting
+        verify(mScanNativeInterface, times(3)).beginAsyncCommand(anyInt());
+        verify(mScanNativeInterface, never()).waitForCallback(anyInt());
+    }
+
+    @Test
+    public void testStartFilteredScan_waitsForFilterCommandsBeforeScan() {
+        // Turn on screen
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        // Create filtered scan client
+        ScanClient client = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+        // Start scan
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client));
+        InOrder order = Mockito.inOrder(mScanNativeInterface);
+        order.verify(mScanNativeInterface).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+        order.verify(mScanNativeInterface).waitForAsyncCommands(anyInt());
+        order.verify(mScanNativeInterface).gattClientScan(true);
+    }
+
+    @Test
+    public void testStartFilteredScan_filterSetupFailure_doesNotStartScan() {
+        // Turn on screen
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        // Filter commands fail
+        doReturn(false).when(mScanNativeInterface).waitForAsyncCommands(anyInt());
+        // Create filtered scan client
+        ScanClient client = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+        // Start scan
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client));
+        verify(mScanNativeInterface, never()).gattClientScan(true);
+        assertThat(mScanManager.getRegularScanQueue().contains(client)).isFalse();
+        // The filter index taken by the client is released
+        verify(mScanNativeInterface).gattClientScanFilterParamDelete(anyInt(), anyInt());
+    }
+
+    @Test
+    public void testIdenticalFiltersShareFilterIndex() {
+        // Turn on screen
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        // Create two clients with identical filters
+        ScanClient client1 = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+        ScanClient client2 = createScanClient(1, true, SCAN_MODE_LOW_LATENCY);
+        // Start scans
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client1));
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client2));
+        verify(mScanNativeInterface, times(1)).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+        // The shared filter index is only deleted once the last client stops
+        sendMessageWaitForProcessed(createStartStopScanMessage(false, client1));
+        verify(mScanNativeInterface, never()).gattClientScanFilterParamDelete(anyInt(), anyInt());
+        sendMessageWaitForProcessed(createStartStopScanMessage(false, client2));
+        verify(mScanNativeInterface, times(1))
+                .gattClientScanFilterParamDelete(anyInt(), anyInt());
+    }
+
+    @Test
+    public void testFiltersWithDifferentIrkDoNotShareFilterIndex() {
+        // Turn on screen
+        sendMessageWaitForProcessed(createScreenOnOffMessage(true));
+        // Create two clients filtering on the same address with different IRKs
+        byte[] irk = new byte[16];
+        ScanClient client1 = createScanClient(0, new ScanFilter.Builder()
+                .setDeviceAddress("01:02:03:AB:CD:EF", BluetoothDevice.ADDRESS_TYPE_PUBLIC, irk)
+                .build());
+        irk = new byte[16];
+        irk[0] = 1;
+        ScanClient client2 = createScanClient(1, new ScanFilter.Builder()
+                .setDeviceAddress("01:02:03:AB:CD:EF", BluetoothDevice.ADDRESS_TYPE_PUBLIC, irk)
+                .build());
+        // Start scans
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client1));
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client2));
+        // Each IRK is programmed in its own filter index
+        verify(mScanNativeInterface, times(2)).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+    }
+
     @Test
     public void testMetricsScreenOnOff() {
         // Turn off screen initially
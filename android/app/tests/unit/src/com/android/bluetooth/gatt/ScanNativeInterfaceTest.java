@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for the scan command completion bookkeeping of {@link ScanNativeInterface}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanNativeInterfaceTest {
+
+    private static final int SCANNER_ID = 3;
+    private static final int OTHER_SCANNER_ID = 4;
+    private static final int TIMEOUT_MS = 50;
+
+    private ScanNativeInterface mNativeInterface;
+
+    @Before
+    public void setUp() {
+        mNativeInterface = new ScanNativeInterface();
+    }
+
+    @Test
+    public void callbackDone_completesAsyncCommandsBeforeSyncCommand() {
+        mNativeInterface.beginAsyncCommand(SCANNER_ID);
+        mNativeInterface.beginAsyncCommand(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        assertThat(mNativeInterface.waitForAsyncCommands(TIMEOUT_MS)).isTrue();
+
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isTrue();
+    }
+
+    @Test
+    public void callbackDone_afterSyncTimeout_isNotCreditedToNextCommand() {
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isFalse();
+
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        // Late completion of the timed out command
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isFalse();
+    }
+
+    @Test
+    public void callbackDone_afterSyncTimeout_nextCommandTakesItsOwnCompletion() {
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isFalse();
+
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isTrue();
+    }
+
+    @Test
+    public void callbackDone_afterAsyncTimeout_isNotCreditedToSyncCommand() {
+        mNativeInterface.beginAsyncCommand(SCANNER_ID);
+        assertThat(mNativeInterface.waitForAsyncCommands(TIMEOUT_MS)).isFalse();
+
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        // Late completion of the timed out async command
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isFalse();
+    }
+
+    @Test
+    public void callbackDone_skipsTimedOutCommandOfOtherScanner() {
+        mNativeInterface.resetCountDownLatch(OTHER_SCANNER_ID);
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isFalse();
+
+        // The timed out command is never completed
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isTrue();
+    }
+
+    @Test
+    public void callbackDone_asyncFailure_isReportedByNextWaitOnly() {
+        mNativeInterface.beginAsyncCommand(SCANNER_ID);
+        mNativeInterface.beginAsyncCommand(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 1);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        assertThat(mNativeInterface.waitForAsyncCommands(TIMEOUT_MS)).isFalse();
+
+        mNativeInterface.beginAsyncCommand(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+        assertThat(mNativeInterface.waitForAsyncCommands(TIMEOUT_MS)).isTrue();
+    }
+
+    @Test
+    public void callbackDone_withFailure_doesNotCompleteSyncCommand() {
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        mNativeInterface.callbackDone(SCANNER_ID, 1);
+
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isFalse();
+    }
+
+    @Test
+    public void callbackDone_unexpectedCompletion_isIgnored() {
+        mNativeInterface.resetCountDownLatch(SCANNER_ID);
+        mNativeInterface.callbackDone(OTHER_SCANNER_ID, 0);
+        mNativeInterface.callbackDone(SCANNER_ID, 0);
+
+        assertThat(mNativeInterface.waitForCallback(TIMEOUT_MS)).isTrue();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.HandlerThread;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+
+/**
+ * Test cases for {@link ScanResultCoalescer}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanResultCoalescerTest {
+    private static final int SCANNER_ID = 3;
+    private static final long LONG_LATENCY_MS = 60_000;
+    private static final long SHORT_LATENCY_MS = 10;
+    private static final int TIMEOUT_MS = 1_000;
+
+    @Mock private ScanResultCoalescer.Delivery mDelivery;
+
+    private HandlerThread mThread;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mThread = new HandlerThread("ScanResultCoalescerTest");
+        mThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void add_flushesWhenBatchIsFull() {
+        ScanResultCoalescer coalescer = new ScanResultCoalescer(mThread.getLooper(), mDelivery,
+                LONG_LATENCY_MS, 2, 4);
+        ScanResult first = createResult();
+        ScanResult second = createResult();
+
+        coalescer.add(SCANNER_ID, first);
+        coalescer.add(SCANNER_ID, second);
+
+        ArgumentCaptor<ArrayList<ScanResult>> captor = ArgumentCaptor.forClass(ArrayList.class);
+        verify(mDelivery, timeout(TIMEOUT_MS)).deliver(eq(SCANNER_ID), captor.capture());
+        assertThat(captor.getValue()).containsExactly(first, second).inOrder();
+    }
+
+    @Test
+    public void add_flushesAfterLatency() {
+        ScanResultCoalescer coalescer = new ScanResultCoalescer(mThread.getLooper(), mDelivery,
+                SHORT_LATENCY_MS, 32, 64);
+        ScanResult result = createResult();
+
+        coalescer.add(SCANNER_ID, result);
+
+        ArgumentCaptor<ArrayList<ScanResult>> captor = ArgumentCaptor.forClass(ArrayList.class);
+        verify(mDelivery, timeout(TIMEOUT_MS)).deliver(eq(SCANNER_ID), captor.capture());
+        assertThat(captor.getValue()).containsExactly(result);
+    }
+
+    @Test
+    public void add_dropsOldestResultsWhenQueueIsFull() {
+        ScanResultCoalescer coalescer = new ScanResultCoalescer(mThread.getLooper(), mDelivery,
+                LONG_LATENCY_MS, 2, 3);
+        // Simulate a consumer that never catches up.
+        mThread.quitSafely();
+
+        for (int i = 0; i < 5; i++) {
+            coalescer.add(SCANNER_ID, createResult());
+        }
+
+        assertThat(coalescer.getPendingCount(SCANNER_ID)).isEqualTo(3);
+        assertThat(coalescer.getDroppedCount(SCANNER_ID)).isEqualTo(2);
+    }
+
+    @Test
+    public void remove_dropsPendingResults() throws Exception {
+        ScanResultCoalescer coalescer = new ScanResultCoalescer(mThread.getLooper(), mDelivery,
+                SHORT_LATENCY_MS, 32, 64);
+
+        coalescer.add(SCANNER_ID, createResult());
+        coalescer.remove(SCANNER_ID);
+        Thread.sleep(SHORT_LATENCY_MS * 5);
+
+        assertThat(coalescer.getPendingCount(SCANNER_ID)).isEqualTo(0);
+        verify(mDelivery, never()).deliver(anyInt(), any());
+    }
+
+    private static ScanResult createResult() {
+        return new ScanResult(
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05"),
+                ScanRecord.parseFromBytes(new byte[0]), -60, 0);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AddressFilterTest {
+
+    @Test
+    public void compile_withEmptyFilter_returnsNull() {
+        assertThat(AddressFilter.compile(null)).isNull();
+        assertThat(AddressFilter.compile("")).isNull();
+    }
+
+    @Test
+    public void matches_withLiteralFilter() {
+        AddressFilter filter = AddressFilter.compile("+1555");
+
+        assertThat(filter.matches("+15551234")).isTrue();
+        assertThat(filter.matches("0015551234")).isFalse();
+        assertThat(filter.matches(null)).isFalse();
+        assertThat(filter.isPhoneNumber()).isTrue();
+    }
+
+    @Test
+    public void matches_withWildcardFilter() {
+        AddressFilter filter = AddressFilter.compile("Jo*n.");
+
+        assertThat(filter.matches("Big John.")).isTrue();
+        assertThat(filter.matches("Joan.")).isTrue();
+        assertThat(filter.matches("Johnny")).isFalse();
+        assertThat(filter.isPhoneNumber()).isFalse();
+    }
+
+    @Test
+    public void matches_withOnlyWildcard_matchesEverything() {
+        AddressFilter filter = AddressFilter.compile("*");
+
+        assertThat(filter.matches("")).isTrue();
+        assertThat(filter.matches("anything")).isTrue();
+    }
+}
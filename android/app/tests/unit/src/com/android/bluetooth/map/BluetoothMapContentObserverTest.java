@@ -1518,6 +1518,109 @@ public class BluetoothMapContentObserverTest {
                 TEST_READ_FLAG_ONE);
     }
 
+    @Test
+    public void handleMsgListChangesSms_incremental_keepsMessagesBelowHighestId() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        cursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+        mObserver.setMsgListSms(new HashMap<>(), true);
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+        mObserver.handleMsgListChangesSms();
+
+        // Only the newest known message and the new one are returned by the incremental query
+        MatrixCursor newCursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE,
+                Sms.THREAD_ID, Sms.READ});
+        newCursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        newCursor.addRow(new Object[] {TEST_HANDLE_TWO, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(newCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(),
+                eq(Sms._ID + " >= " + TEST_HANDLE_ONE), any(), any());
+
+        Assert.assertTrue(mObserver.handleMsgListChangesSms(true));
+
+        Assert.assertEquals(mObserver.getMsgListSms().size(), 2);
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_ONE).type,
+                TEST_SMS_TYPE_ALL);
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_TWO).type,
+                TEST_SMS_TYPE_INBOX);
+    }
+
+    @Test
+    public void handleMsgListChangesSms_incremental_newestMessageGone_rescansAll() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        cursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        cursor.addRow(new Object[] {TEST_HANDLE_TWO, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+        mObserver.setMsgListSms(new HashMap<>(), true);
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+        mObserver.handleMsgListChangesSms();
+
+        // Message two is deleted, the incremental query no longer finds it
+        doReturn(new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID, Sms.READ}))
+                .when(mMapMethodProxy).contentResolverQuery(any(), any(), any(),
+                        eq(Sms._ID + " >= " + TEST_HANDLE_TWO), any(), any());
+        MatrixCursor fullCursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE,
+                Sms.THREAD_ID, Sms.READ});
+        fullCursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(fullCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(),
+                isNull(), any(), any());
+
+        Assert.assertTrue(mObserver.handleMsgListChangesSms(true));
+        Assert.assertEquals(mObserver.getMsgListSms().size(), 1);
+        Assert.assertNull(mObserver.getMsgListSms().get(TEST_HANDLE_TWO));
+
+        // A new message reusing the _id of message two is picked up as new
+        MatrixCursor reusedCursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE,
+                Sms.THREAD_ID, Sms.READ});
+        reusedCursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_ALL, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        reusedCursor.addRow(new Object[] {TEST_HANDLE_TWO, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                TEST_READ_FLAG_ZERO});
+        doReturn(reusedCursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(),
+                eq(Sms._ID + " >= " + TEST_HANDLE_ONE), any(), any());
+
+        Assert.assertTrue(mObserver.handleMsgListChangesSms(true));
+        Assert.assertEquals(mObserver.getMsgListSms().size(), 2);
+        Assert.assertEquals(mObserver.getMsgListSms().get(TEST_HANDLE_TWO).type,
+                TEST_SMS_TYPE_INBOX);
+    }
+
+    @Test
+    public void scheduleReconcile_explainedChange_onlySchedulesPeriodicRescan() {
+        mObserver.mHandler.removeCallbacksAndMessages(null);
+
+        mObserver.scheduleReconcile(true);
+
+        Assert.assertTrue(mObserver.mHandler.hasMessages(
+                BluetoothMapContentObserver.MSG_RECONCILE_PERIODIC));
+        Assert.assertFalse(mObserver.mHandler.hasMessages(
+                BluetoothMapContentObserver.MSG_RECONCILE));
+        mObserver.mHandler.removeCallbacksAndMessages(null);
+    }
+
+    @Test
+    public void scheduleReconcile_unexplainedChange_replacesPeriodicRescan() {
+        mObserver.mHandler.removeCallbacksAndMessages(null);
+        mObserver.scheduleReconcile(true);
+
+        mObserver.scheduleReconcile(false);
+
+        Assert.assertTrue(mObserver.mHandler.hasMessages(
+                BluetoothMapContentObserver.MSG_RECONCILE));
+        Assert.assertFalse(mObserver.mHandler.hasMessages(
+                BluetoothMapContentObserver.MSG_RECONCILE_PERIODIC));
+        mObserver.mHandler.removeCallbacksAndMessages(null);
+    }
+
     @Test
     public void handleMsgListChangesSms_withExistingMessage_withNonEqualType() {
         MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
@@ -1629,4 +1629,23 @@ public class BluetoothMapContentTest {
         assertThat(part.mCharsetName).isEqualTo("utf-8");
         assertThat(part.mFileName).isEqualTo(filename);
     }
+
+    @Test
+    public void setWhereFilterAddressSms_withPhoneNumberFilter() {
+        mInfo.mPhoneNum = "5550000";
+        mInfo.mOriginatorFilter = AddressFilter.compile("+1555");
+        mInfo.mRecipientFilter = AddressFilter.compile("555");
+
+        assertThat(mContent.setWhereFilterAddressSms(mInfo)).isEqualTo(
+                " AND " + Telephony.Sms.TYPE + " = 1 AND " + Telephony.Sms.ADDRESS
+                        + " LIKE '%+1555%' AND (" + Telephony.Sms.TYPE + " = 1 OR "
+                        + Telephony.Sms.ADDRESS + " LIKE '%555%')");
+    }
+
+    @Test
+    public void setWhereFilterAddressSms_withNameFilter() {
+        mInfo.mOriginatorFilter = AddressFilter.compile("John*");
+
+        assertThat(mContent.setWhereFilterAddressSms(mInfo)).isEmpty();
+    }
 }
\ No newline at end of file
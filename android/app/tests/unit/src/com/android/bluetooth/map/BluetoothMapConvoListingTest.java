@@ -18,6 +18,11 @@ package com.android.bluetooth.map;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.SignedLongLong;
@@ -27,6 +32,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 @RunWith(AndroidJUnit4.class)
@@ -146,6 +153,25 @@ public class BluetoothMapConvoListingTest {
         assertThat(listing.equals(listingEqual)).isEqualTo(true);
     }
 
+    @Test
+    public void encodeToStream_matchesEncodeToBytes() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        mListing.encode(out);
+
+        assertThat(out.toByteArray()).isEqualTo(mListing.encode());
+    }
+
+    @Test
+    public void encodeToStream_whenElementFailsToEncode_throwsIOException() throws Exception {
+        final BluetoothMapConvoListingElement failingElement =
+                spy(new BluetoothMapConvoListingElement());
+        doThrow(new IllegalStateException()).when(failingElement).encode(any());
+        mListing.add(failingElement);
+
+        assertThrows(IOException.class, () -> mListing.encode(new ByteArrayOutputStream()));
+    }
+
     @Test
     public void encodeToXml_thenAppendFromXml() throws Exception {
         final BluetoothMapConvoListing listingToAppend = new BluetoothMapConvoListing();
@@ -18,6 +18,12 @@ package com.android.bluetooth.map;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
 import android.util.Xml;
 
 import androidx.test.runner.AndroidJUnit4;
@@ -31,6 +37,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
@@ -110,6 +117,46 @@ public class BluetoothMapMessageListingTest {
         assertThat(mListing.getList().get(2).getDateTime()).isEqualTo(TEST_DATE_TIME_EARLIEST);
     }
 
+    @Test
+    public void boundedListing_keepsNewestElementsInOrder() {
+        final BluetoothMapMessageListing listing = new BluetoothMapMessageListing(2);
+        final BluetoothMapMessageListingElement sameAsMiddle =
+                new BluetoothMapMessageListingElement();
+        sameAsMiddle.setDateTime(TEST_DATE_TIME_MIDDLE);
+        sameAsMiddle.setRead(TEST_READ, TEST_REPORT_READ);
+
+        listing.add(mListingElementMiddleWithReadFalse);
+        listing.add(mListingElementEarliestWithReadFalse);
+        listing.add(mListingElementLatestWithReadTrue);
+        listing.add(sameAsMiddle);
+        listing.sort();
+
+        assertThat(listing.getList()).containsExactly(mListingElementLatestWithReadTrue,
+                mListingElementMiddleWithReadFalse).inOrder();
+        // Unread state covers every added element, not only the ones kept
+        assertThat(listing.hasUnread()).isTrue();
+    }
+
+    @Test
+    public void encodeToStream_matchesEncodeToBytes() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        mListing.encode(out, false, TEST_VERSION);
+
+        assertThat(out.toByteArray()).isEqualTo(mListing.encode(false, TEST_VERSION));
+    }
+
+    @Test
+    public void encodeToStream_whenElementFailsToEncode_throwsIOException() throws Exception {
+        final BluetoothMapMessageListingElement failingElement =
+                spy(new BluetoothMapMessageListingElement());
+        doThrow(new IllegalArgumentException()).when(failingElement).encode(any(), anyBoolean());
+        mListing.add(failingElement);
+
+        assertThrows(IOException.class,
+                () -> mListing.encode(new ByteArrayOutputStream(), false, TEST_VERSION));
+    }
+
     @Test
     public void encodeToXml_thenAppendFromXml() throws Exception {
         final BluetoothMapMessageListing listingToAppend = new BluetoothMapMessageListing();
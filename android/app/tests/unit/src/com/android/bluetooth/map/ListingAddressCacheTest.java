@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.Telephony;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ListingAddressCacheTest {
+    private static final long TEST_ID = 1;
+    private static final String TEST_PHONE = "test_phone";
+    private static final String TEST_NAME = "test_name";
+
+    @Mock
+    private ContentResolver mResolver;
+    @Spy
+    private BluetoothMethodProxy mMapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private ListingAddressCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMapMethodProxy);
+        mCache = new ListingAddressCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void getAddressMms_queriesOncePerMessageAndType() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Telephony.Mms.Addr.ADDRESS});
+        cursor.addRow(new Object[] {TEST_PHONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(mCache.getAddressMms(mResolver, TEST_ID, BluetoothMapContent.MMS_FROM))
+                    .isEqualTo(TEST_PHONE);
+        }
+
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+        assertThat(mCache.getQueryCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getContactNameFromPhone_cachesMisses() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        assertThat(mCache.getContactNameFromPhone(TEST_PHONE, mResolver)).isNull();
+        assertThat(mCache.getContactNameFromPhone(TEST_PHONE, mResolver)).isNull();
+
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContactNameFromPhone_withKnownPhone() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME});
+        cursor.addRow(new Object[] {TEST_ID, TEST_NAME});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+
+        assertThat(mCache.getContactNameFromPhone(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+        assertThat(mCache.getContactNameFromPhone(TEST_PHONE, mResolver)).isEqualTo(TEST_NAME);
+        assertThat(mCache.getContactNameFromPhone("", mResolver)).isNull();
+        assertThat(mCache.getQueryCount()).isEqualTo(1);
+    }
+}
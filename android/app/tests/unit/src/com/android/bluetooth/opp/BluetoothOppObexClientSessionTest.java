@@ -21,8 +21,6 @@ import static com.android.bluetooth.opp.BluetoothOppObexSession.MSG_SHARE_INTERR
 
 import static com.google.common.truth.Truth.assertThat;
 
-import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -193,14 +191,4 @@ public class BluetoothOppObexClientSessionTest {
         thread.interrupt();
         assertThat(sessionInterruptLatch.await(3_000, TimeUnit.MILLISECONDS)).isTrue();
     }
-
-    @Test
-    public void readFully() throws IOException {
-        InputStream is = mock(InputStream.class);
-        byte[] buffer = new byte[2];
-        int size = 10000;
-        doReturn(500, 500, -1).when(is).read(eq(buffer), anyInt(),
-                anyInt());
-        assertThat(BluetoothOppObexClientSession.readFully(is, buffer, size)).isEqualTo(1000);
-    }
 }
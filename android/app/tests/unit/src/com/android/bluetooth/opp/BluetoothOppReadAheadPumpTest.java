@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppReadAheadPumpTest {
+
+    @Test
+    public void take_returnsWholeFileInPacketSizedChunks() throws IOException {
+        byte[] content = BluetoothOppTestUtils.createContent(1000);
+        ByteArrayInputStream is = new ByteArrayInputStream(content);
+        BluetoothOppReadAheadPump pump =
+                new BluetoothOppReadAheadPump(is::read, 300, content.length);
+        pump.start();
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int chunks = 0;
+        while (os.size() < content.length) {
+            BluetoothOppReadAheadPump.Chunk chunk = pump.take();
+            os.write(chunk.mData, 0, chunk.mLength);
+            pump.recycle(chunk);
+            chunks++;
+        }
+        pump.close();
+
+        assertThat(chunks).isEqualTo(4);
+        assertThat(os.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    public void take_fileShorterThanLength_throwsAfterLastChunk() throws IOException {
+        byte[] content = BluetoothOppTestUtils.createContent(100);
+        ByteArrayInputStream is = new ByteArrayInputStream(content);
+        BluetoothOppReadAheadPump pump = new BluetoothOppReadAheadPump(is::read, 300, 1000);
+        pump.start();
+
+        BluetoothOppReadAheadPump.Chunk chunk = pump.take();
+        assertThat(chunk.mLength).isEqualTo(100);
+        pump.recycle(chunk);
+
+        assertThrows(EOFException.class, pump::take);
+        pump.close();
+    }
+}
@@ -15,16 +15,25 @@
  */
 package com.android.bluetooth.opp;
 
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 
 import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
+import android.database.MatrixCursor;
+import android.net.Uri;
 
 import androidx.test.filters.MediumTest;
 import androidx.test.rule.ServiceTestRule;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
@@ -42,8 +51,19 @@ import org.mockito.MockitoAnnotations;
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class BluetoothOppServiceTest {
+    private static final int SHARE_ID = 1000;
+    private static final long TIMESTAMP = 123456789L;
+    private static final String[] SHARE_COLUMNS = new String[] {
+            BluetoothShare._ID, BluetoothShare.URI, BluetoothShare.FILENAME_HINT,
+            BluetoothShare._DATA, BluetoothShare.MIMETYPE, BluetoothShare.DIRECTION,
+            BluetoothShare.DESTINATION, BluetoothShare.VISIBILITY,
+            BluetoothShare.USER_CONFIRMATION, BluetoothShare.STATUS, BluetoothShare.TOTAL_BYTES,
+            BluetoothShare.CURRENT_BYTES, BluetoothShare.TIMESTAMP, Constants.MEDIA_SCANNED
+    };
+
     private BluetoothOppService mService = null;
     private BluetoothAdapter mAdapter = null;
+    private BluetoothMethodProxy mMethodProxy;
 
     @Rule
     public final ServiceTestRule mServiceRule = new ServiceTestRule();
@@ -62,10 +82,13 @@ public class BluetoothOppServiceTest {
         // Try getting the Bluetooth adapter
         mAdapter = BluetoothAdapter.getDefaultAdapter();
         Assert.assertNotNull(mAdapter);
+        mMethodProxy = spy(BluetoothMethodProxy.getInstance());
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
     }
 
     @After
     public void tearDown() throws Exception {
+        BluetoothMethodProxy.setInstanceForTesting(null);
         TestUtils.stopService(mServiceRule, BluetoothOppService.class);
         TestUtils.clearAdapterService(mAdapterService);
     }
@@ -74,5 +97,91 @@ public class BluetoothOppServiceTest {
     public void testInitialize() {
         Assert.assertNotNull(BluetoothOppService.getBluetoothOppService());
     }
+
+    @Test
+    public void updateShareFromProvider_newRow_insertsShare() {
+        mockShareRow(createShareCursor(BluetoothShare.STATUS_SUCCESS, 100));
+
+        mService.updateShareFromProvider(SHARE_ID);
+
+        BluetoothOppShareInfo info = findShare(SHARE_ID);
+        assertThat(info).isNotNull();
+        assertThat(info.mStatus).isEqualTo(BluetoothShare.STATUS_SUCCESS);
+        assertThat(info.mCurrentBytes).isEqualTo(100);
+    }
+
+    @Test
+    public void updateShareFromProvider_existingRow_updatesShare() {
+        mockShareRow(createShareCursor(BluetoothShare.STATUS_SUCCESS, 100));
+        mService.updateShareFromProvider(SHARE_ID);
+        int shareCount = mService.mShares.size();
+
+        mockShareRow(createShareCursor(BluetoothShare.STATUS_FORBIDDEN, 50));
+        mService.updateShareFromProvider(SHARE_ID);
+
+        assertThat(mService.mShares).hasSize(shareCount);
+        BluetoothOppShareInfo info = findShare(SHARE_ID);
+        assertThat(info.mStatus).isEqualTo(BluetoothShare.STATUS_FORBIDDEN);
+        assertThat(info.mCurrentBytes).isEqualTo(50);
+    }
+
+    @Test
+    public void updateShareFromProvider_deletedRow_removesShare() {
+        mockShareRow(createShareCursor(BluetoothShare.STATUS_SUCCESS, 100));
+        mService.updateShareFromProvider(SHARE_ID);
+
+        mockShareRow(new MatrixCursor(SHARE_COLUMNS));
+        mService.updateShareFromProvider(SHARE_ID);
+
+        assertThat(findShare(SHARE_ID)).isNull();
+    }
+
+    @Test
+    public void updateShareFromProvider_unknownRow_leavesSharesUntouched() {
+        int shareCount = mService.mShares.size();
+
+        mockShareRow(new MatrixCursor(SHARE_COLUMNS));
+        mService.updateShareFromProvider(SHARE_ID);
+
+        assertThat(mService.mShares).hasSize(shareCount);
+        assertThat(findShare(SHARE_ID)).isNull();
+    }
+
+    @Test
+    public void updateShareFromProvider_queryFails_leavesSharesUntouched() {
+        mockShareRow(createShareCursor(BluetoothShare.STATUS_SUCCESS, 100));
+        mService.updateShareFromProvider(SHARE_ID);
+
+        mockShareRow(null);
+        mService.updateShareFromProvider(SHARE_ID);
+
+        assertThat(findShare(SHARE_ID)).isNotNull();
+    }
+
+    private void mockShareRow(MatrixCursor cursor) {
+        doReturn(cursor).when(mMethodProxy).contentResolverQuery(any(),
+                eq(Uri.parse(BluetoothShare.CONTENT_URI + "/" + SHARE_ID)), isNull(), isNull(),
+                isNull(), isNull());
+    }
+
+    private static MatrixCursor createShareCursor(int status, long currentBytes) {
+        MatrixCursor cursor = new MatrixCursor(SHARE_COLUMNS);
+        cursor.addRow(new Object[] {
+                SHARE_ID, "content://test/file", "hint", "/data/file", "text/plain",
+                BluetoothShare.DIRECTION_INBOUND, "00:11:22:33:44:55",
+                BluetoothShare.VISIBILITY_HIDDEN, BluetoothShare.USER_CONFIRMATION_CONFIRMED,
+                status, 100L, currentBytes, TIMESTAMP, Constants.MEDIA_SCANNED_SCANNED_OK
+        });
+        return cursor;
+    }
+
+    private BluetoothOppShareInfo findShare(int shareId) {
+        for (BluetoothOppShareInfo info : mService.mShares) {
+            if (info.mId == shareId) {
+                return info;
+            }
+        }
+        return null;
+    }
 }
 
@@ -62,6 +62,21 @@ public class BluetoothOppTestUtils {
         }
     }
 
+    /**
+     * Create content of the given length whose bytes differ from their neighbours, so that
+     * reordered, dropped or repeated chunks are noticed.
+     *
+     * @param length the length of the content
+     * @return the content
+     */
+    public static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
     /**
      * Set up a mock single-row Cursor that work for common use cases in the OPP package.
      * It mocks the database column index and value of the cell in that column of the current row
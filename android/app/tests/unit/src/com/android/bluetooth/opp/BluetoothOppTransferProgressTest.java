@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppTransferProgressTest {
+    private static final int SHARE_ID = 42;
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    BluetoothMethodProxy mMethodProxy;
+
+    private Context mContext;
+    private Uri mContentUri;
+    private BluetoothOppTransferProgress mProgress;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContentUri = Uri.parse(BluetoothShare.CONTENT_URI + "/" + SHARE_ID);
+        mProgress = new BluetoothOppTransferProgress();
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
+    }
+
+    @After
+    public void tearDown() {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void update_publishesWithoutPersistingUntilIntervalElapses() {
+        List<Long> published = new ArrayList<>();
+        mProgress.addListener((shareId, currentBytes) -> published.add(currentBytes));
+        BluetoothOppTransferProgress.Reporter reporter = new BluetoothOppTransferProgress.Reporter(
+                mContext, SHARE_ID, 0, Long.MAX_VALUE, mProgress);
+
+        reporter.update(10);
+        reporter.update(20);
+
+        assertThat(published).containsExactly(10L, 20L).inOrder();
+        assertThat(mProgress.getCurrentBytes(SHARE_ID, -1)).isEqualTo(20);
+        verify(mMethodProxy, never()).contentResolverUpdate(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void update_persistsOnEveryCallWithZeroInterval() {
+        BluetoothOppTransferProgress.Reporter reporter = new BluetoothOppTransferProgress.Reporter(
+                mContext, SHARE_ID, 0, 0, mProgress);
+
+        reporter.update(10);
+        reporter.update(20);
+
+        verify(mMethodProxy, times(2)).contentResolverUpdate(any(), eq(mContentUri), any(),
+                any(), any());
+    }
+
+    @Test
+    public void finish_persistsFinalPositionAndForgetsShare() {
+        BluetoothOppTransferProgress.Reporter reporter = new BluetoothOppTransferProgress.Reporter(
+                mContext, SHARE_ID, 0, Long.MAX_VALUE, mProgress);
+
+        reporter.update(30);
+        reporter.finish();
+
+        verify(mMethodProxy).contentResolverUpdate(any(), eq(mContentUri), argThat(values ->
+                Long.valueOf(30).equals(values.getAsLong(BluetoothShare.CURRENT_BYTES))),
+                any(), any());
+        assertThat(mProgress.getCurrentBytes(SHARE_ID, -1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void finish_withoutProgress_doesNotPersist() {
+        BluetoothOppTransferProgress.Reporter reporter = new BluetoothOppTransferProgress.Reporter(
+                mContext, SHARE_ID, 0, Long.MAX_VALUE, mProgress);
+
+        reporter.finish();
+
+        verify(mMethodProxy, never()).contentResolverUpdate(any(), any(), any(), any(), any());
+    }
+}
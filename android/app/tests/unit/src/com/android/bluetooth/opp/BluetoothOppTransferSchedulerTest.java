@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppTransferSchedulerTest {
+    private static final String DEVICE_A = "00:11:22:33:44:55";
+    private static final String DEVICE_B = "00:11:22:33:44:66";
+    private static final String DEVICE_C = "00:11:22:33:44:77";
+    private static final String DEVICE_D = "AA:BB:CC:DD:EE:FF";
+    private static final Uri CONTENT_URI = Uri.parse("content://media/external/images/1");
+
+    private Context mContext;
+    private ArrayList<BluetoothOppBatch> mBatches;
+    private HashSet<BluetoothOppBatch> mStarted;
+    private int mNextId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getContext();
+        mBatches = new ArrayList<>();
+        mStarted = new HashSet<>();
+        mNextId = 1;
+    }
+
+    private BluetoothOppBatch addBatch(String address, int direction) {
+        return addBatch(address, direction, null);
+    }
+
+    private BluetoothOppBatch addBatch(String address, int direction, Uri uri) {
+        int id = mNextId++;
+        BluetoothOppShareInfo info = new BluetoothOppShareInfo(id, uri, null, null, null,
+                direction, address, 0, 0, BluetoothShare.STATUS_PENDING, 0, 0, id, false);
+        BluetoothOppBatch batch = new BluetoothOppBatch(mContext, info);
+        batch.mId = id;
+        mBatches.add(batch);
+        return batch;
+    }
+
+    private List<BluetoothOppBatch> selectAndStart(BluetoothOppTransferScheduler scheduler) {
+        List<BluetoothOppBatch> selected =
+                scheduler.selectBatchesToStart(mBatches, mStarted::contains);
+        mStarted.addAll(selected);
+        return selected;
+    }
+
+    private void finish(BluetoothOppBatch batch) {
+        mStarted.remove(batch);
+        mBatches.remove(batch);
+    }
+
+    @Test
+    public void selectBatchesToStart_respectsGlobalAndPerDeviceLimits() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(2, 1);
+        BluetoothOppBatch a1 = addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND);
+        addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND);
+        BluetoothOppBatch b1 = addBatch(DEVICE_B, BluetoothShare.DIRECTION_OUTBOUND);
+        addBatch(DEVICE_C, BluetoothShare.DIRECTION_OUTBOUND);
+
+        assertThat(selectAndStart(scheduler)).containsExactly(a1, b1).inOrder();
+        assertThat(selectAndStart(scheduler)).isEmpty();
+    }
+
+    @Test
+    public void selectBatchesToStart_interleavesDevices() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(1, 1);
+        BluetoothOppBatch a1 = addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND);
+        BluetoothOppBatch a2 = addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND);
+        BluetoothOppBatch b1 = addBatch(DEVICE_B, BluetoothShare.DIRECTION_OUTBOUND);
+
+        assertThat(selectAndStart(scheduler)).containsExactly(a1);
+        finish(a1);
+        // Device B has not been served yet, so it goes before the second batch of device A.
+        assertThat(selectAndStart(scheduler)).containsExactly(b1);
+        finish(b1);
+        assertThat(selectAndStart(scheduler)).containsExactly(a2);
+    }
+
+    @Test
+    public void selectBatchesToStart_prefersInboundBatches() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(1, 1);
+        addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND);
+        BluetoothOppBatch inbound = addBatch(DEVICE_B, BluetoothShare.DIRECTION_INBOUND);
+
+        assertThat(selectAndStart(scheduler)).containsExactly(inbound);
+    }
+
+    @Test
+    public void selectBatchesToStart_defersOutboundBatchOfContentBeingSent() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(3, 1);
+        BluetoothOppBatch a1 = addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND, CONTENT_URI);
+        BluetoothOppBatch b1 = addBatch(DEVICE_B, BluetoothShare.DIRECTION_OUTBOUND, CONTENT_URI);
+        BluetoothOppBatch c1 = addBatch(DEVICE_C, BluetoothShare.DIRECTION_INBOUND, CONTENT_URI);
+
+        assertThat(selectAndStart(scheduler)).containsExactly(c1, a1).inOrder();
+        assertThat(selectAndStart(scheduler)).isEmpty();
+        finish(a1);
+        assertThat(selectAndStart(scheduler)).containsExactly(b1);
+    }
+
+    @Test
+    public void hasFreeSlot_ignoresAddressCase() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(2, 1);
+        addBatch(DEVICE_D, BluetoothShare.DIRECTION_OUTBOUND);
+        selectAndStart(scheduler);
+
+        assertThat(scheduler.hasFreeSlot(mBatches, mStarted::contains, DEVICE_D.toLowerCase()))
+                .isFalse();
+    }
+
+    @Test
+    public void hasFreeSlot_checksPerDeviceLimit() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(2, 1);
+        addBatch(DEVICE_A, BluetoothShare.DIRECTION_OUTBOUND);
+        selectAndStart(scheduler);
+
+        assertThat(scheduler.hasFreeSlot(mBatches, mStarted::contains, DEVICE_A)).isFalse();
+        assertThat(scheduler.hasFreeSlot(mBatches, mStarted::contains, DEVICE_B)).isTrue();
+        assertThat(scheduler.hasFreeSlot(mBatches, mStarted::contains, null)).isTrue();
+
+        addBatch(DEVICE_B, BluetoothShare.DIRECTION_OUTBOUND);
+        selectAndStart(scheduler);
+
+        assertThat(scheduler.hasFreeSlot(mBatches, mStarted::contains, DEVICE_C)).isFalse();
+    }
+
+    @Test
+    public void onProgress_accumulatesTransferredBytes() {
+        BluetoothOppTransferScheduler scheduler = new BluetoothOppTransferScheduler(2, 1);
+        scheduler.onRunningTransfersChanged(2);
+
+        scheduler.onProgress(1, 100);
+        scheduler.onProgress(2, 50);
+        scheduler.onProgress(1, 300);
+
+        assertThat(scheduler.getTotalBytes()).isEqualTo(350);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppWriteBehindSinkTest {
+    private static final int CHUNK_SIZE = 300;
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    BluetoothOppTransferProgress.Reporter mProgress;
+
+    private static void submitAll(BluetoothOppWriteBehindSink sink, byte[] content)
+            throws IOException {
+        int position = 0;
+        while (position < content.length) {
+            BluetoothOppReadAheadPump.Chunk chunk = sink.obtain();
+            chunk.mLength = Math.min(chunk.mData.length, content.length - position);
+            System.arraycopy(content, position, chunk.mData, 0, chunk.mLength);
+            sink.submit(chunk);
+            position += chunk.mLength;
+        }
+    }
+
+    @Test
+    public void finish_writesChunksInSubmitOrder() throws IOException {
+        byte[] content = BluetoothOppTestUtils.createContent(2000);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BluetoothOppWriteBehindSink sink =
+                new BluetoothOppWriteBehindSink(os, CHUNK_SIZE, content.length, mProgress);
+        sink.start();
+
+        submitAll(sink, content);
+        sink.finish();
+        sink.close();
+
+        assertThat(os.toByteArray()).isEqualTo(content);
+        verify(mProgress).update(content.length);
+    }
+
+    @Test
+    public void recycle_chunkIsNotWritten() throws IOException {
+        byte[] content = BluetoothOppTestUtils.createContent(100);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BluetoothOppWriteBehindSink sink =
+                new BluetoothOppWriteBehindSink(os, CHUNK_SIZE, content.length, mProgress);
+        sink.start();
+
+        BluetoothOppReadAheadPump.Chunk unused = sink.obtain();
+        unused.mLength = 10;
+        sink.recycle(unused);
+        submitAll(sink, content);
+        sink.finish();
+        sink.close();
+
+        assertThat(os.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    public void writeError_isReportedToReceivingThread() throws IOException {
+        IOException error = new IOException("No space left on device");
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw error;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw error;
+            }
+        };
+        BluetoothOppWriteBehindSink sink =
+                new BluetoothOppWriteBehindSink(failing, CHUNK_SIZE, 10 * CHUNK_SIZE, mProgress);
+        sink.start();
+
+        // Take every pooled chunk before queuing them, so the next obtain() waits on the writer
+        BluetoothOppReadAheadPump.Chunk[] chunks = new BluetoothOppReadAheadPump.Chunk[4];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = sink.obtain();
+            chunks[i].mLength = CHUNK_SIZE;
+        }
+        for (BluetoothOppReadAheadPump.Chunk chunk : chunks) {
+            sink.submit(chunk);
+        }
+
+        IOException thrown = assertThrows(IOException.class, sink::obtain);
+        assertThat(thrown).isSameInstanceAs(error);
+        assertThrows(IOException.class, sink::finish);
+        sink.close();
+    }
+
+    @Test
+    public void close_withoutFinish_stopsWriter() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BluetoothOppWriteBehindSink sink =
+                new BluetoothOppWriteBehindSink(os, CHUNK_SIZE, 1000, mProgress);
+        sink.start();
+
+        sink.close();
+        // Closing an already stopped writer must not block
+        sink.close();
+
+        assertThat(os.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void close_afterFinish_keepsFlushedData() throws IOException {
+        byte[] content = BluetoothOppTestUtils.createContent(500);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BluetoothOppWriteBehindSink sink =
+                new BluetoothOppWriteBehindSink(os, CHUNK_SIZE, content.length, mProgress);
+        sink.start();
+        submitAll(sink, content);
+
+        sink.finish();
+        sink.close();
+
+        assertThat(os.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    public void preallocate_fileStream_reservesLength() throws IOException {
+        File file = File.createTempFile("opp", null,
+                InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir());
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            BluetoothOppWriteBehindSink.preallocate(os, 4096);
+            assertThat(file.length()).isEqualTo(4096);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void preallocate_zeroLength_leavesFileEmpty() throws IOException {
+        File file = File.createTempFile("opp", null,
+                InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir());
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            BluetoothOppWriteBehindSink.preallocate(os, 0);
+            assertThat(file.length()).isEqualTo(0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void preallocate_otherStream_isIgnored() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        BluetoothOppWriteBehindSink.preallocate(os, 4096);
+
+        assertThat(os.size()).isEqualTo(0);
+    }
+}
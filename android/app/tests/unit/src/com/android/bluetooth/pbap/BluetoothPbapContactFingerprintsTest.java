@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothPbapContactFingerprintsTest {
+
+    @Test
+    public void builder_ignoresOrderOfFields() {
+        BluetoothPbapContactFingerprints.Builder first =
+                new BluetoothPbapContactFingerprints.Builder();
+        first.add(StructuredName.CONTENT_ITEM_TYPE, "And Roid");
+        first.add(Phone.CONTENT_ITEM_TYPE, "01234567");
+        first.add(Email.CONTENT_ITEM_TYPE, "android@android.com");
+
+        BluetoothPbapContactFingerprints.Builder second =
+                new BluetoothPbapContactFingerprints.Builder();
+        second.add(Email.CONTENT_ITEM_TYPE, "android@android.com");
+        second.add(Phone.CONTENT_ITEM_TYPE, "01234567");
+        second.add(StructuredName.CONTENT_ITEM_TYPE, "And Roid");
+
+        assertThat(second.getFingerprint()).isEqualTo(first.getFingerprint());
+    }
+
+    @Test
+    public void builder_fingerprintChangesWithFieldsOnly() {
+        BluetoothPbapContactFingerprints.Builder builder =
+                new BluetoothPbapContactFingerprints.Builder();
+        builder.add(Phone.CONTENT_ITEM_TYPE, "01234567");
+        long fingerprint = builder.getFingerprint();
+
+        // Other data rows are counted, but do not change the secondary version fields.
+        assertThat(builder.add(Photo.CONTENT_ITEM_TYPE, null)).isFalse();
+        assertThat(builder.getFingerprint()).isEqualTo(fingerprint);
+        assertThat(builder.getFieldCount()).isEqualTo(2);
+        assertThat(builder.getSvcFieldCount()).isEqualTo(1);
+
+        // The same value as another field type is a different field.
+        builder.reset();
+        builder.add(Email.CONTENT_ITEM_TYPE, "01234567");
+        assertThat(builder.getFingerprint()).isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void put_keepsContactIdsSorted() {
+        BluetoothPbapContactFingerprints table = new BluetoothPbapContactFingerprints();
+        for (long contactId = 200; contactId > 0; contactId -= 2) {
+            table.put(contactId, contactId, 1, 1);
+        }
+        table.put(101, 7, 3, 2);
+        table.put(100, 8, 4, 3);
+
+        assertThat(table.size()).isEqualTo(101);
+        for (int i = 1; i < table.size(); i++) {
+            assertThat(table.getContactId(i)).isGreaterThan(table.getContactId(i - 1));
+        }
+        int index = table.indexOf(100);
+        assertThat(table.getFingerprint(index)).isEqualTo(8);
+        assertThat(table.getFieldCount(index)).isEqualTo(4);
+        assertThat(table.getSvcFieldCount(index)).isEqualTo(3);
+
+        table.removeAt(table.indexOf(101));
+
+        assertThat(table.contains(101)).isFalse();
+        assertThat(table.contains(102)).isTrue();
+        assertThat(table.size()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothPbapPhonebookIndexTest {
+    private static final String OWNER_NAME = "Owner";
+
+    private BluetoothPbapPhonebookIndex mIndex;
+
+    @Before
+    public void setUp() {
+        ArrayList<String> nameList = new ArrayList<>(Arrays.asList(
+                OWNER_NAME, "bob,3", "Alice,1", "alan,7", "Bobby,2"));
+        mIndex = new BluetoothPbapPhonebookIndex(nameList,
+                BluetoothPbapObexServer.ORDER_BY_INDEXED, OWNER_NAME,
+                BluetoothPbapPhonebookIndex.getContactsGeneration());
+    }
+
+    @Test
+    public void findPositionsByPrefix_ignoresCaseAndKeepsListOrder() {
+        assertThat(mIndex.findPositionsByPrefix("BO")).asList().containsExactly(1, 4).inOrder();
+        assertThat(mIndex.findPositionsByPrefix("al")).asList().containsExactly(2, 3).inOrder();
+        assertThat(mIndex.findPositionsByPrefix("carol")).isEmpty();
+    }
+
+    @Test
+    public void findPositionsByPrefix_emptyPrefix_returnsEveryPosition() {
+        assertThat(mIndex.findPositionsByPrefix("")).asList()
+                .containsExactly(0, 1, 2, 3, 4).inOrder();
+    }
+
+    @Test
+    public void findPositions_matchesWholeEntry() {
+        assertThat(mIndex.findPositions("Bobby,2")).asList().containsExactly(4);
+        assertThat(mIndex.findPositions("Bobby")).isEmpty();
+        assertThat(mIndex.getName(4)).isEqualTo("Bobby");
+        assertThat(mIndex.getName(0)).isEqualTo(OWNER_NAME);
+    }
+
+    @Test
+    public void isCurrent_falseAfterContactsChanged() {
+        assertThat(mIndex.isCurrent(BluetoothPbapObexServer.ORDER_BY_INDEXED, OWNER_NAME))
+                .isTrue();
+        assertThat(mIndex.isCurrent(BluetoothPbapObexServer.ORDER_BY_ALPHABETICAL, OWNER_NAME))
+                .isFalse();
+
+        BluetoothPbapPhonebookIndex.onContactsChanged();
+
+        assertThat(mIndex.isCurrent(BluetoothPbapObexServer.ORDER_BY_INDEXED, OWNER_NAME))
+                .isFalse();
+    }
+}
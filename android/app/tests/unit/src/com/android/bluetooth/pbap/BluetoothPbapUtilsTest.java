@@ -26,6 +26,8 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
@@ -54,9 +56,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -86,46 +86,6 @@ public class BluetoothPbapUtilsTest {
         clearStaticFields();
     }
 
-    @Test
-    public void checkFieldUpdates_whenSizeAreDifferent_returnsTrue() {
-        ArrayList<String> oldFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-        ArrayList<String> newFields = new ArrayList<>(List.of("0", "1", "2", "3", "4"));
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
-    }
-
-    @Test
-    public void checkFieldUpdates_newFieldsHasItsOwnFields_returnsTrue() {
-        ArrayList<String> oldFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-        ArrayList<String> newFields = new ArrayList<>(List.of("0", "1", "2", "5"));
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
-    }
-
-    @Test
-    public void checkFieldUpdates_onlyNewFieldsIsNull_returnsTrue() {
-        ArrayList<String> oldFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-        ArrayList<String> newFields = null;
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
-    }
-
-    @Test
-    public void checkFieldUpdates_onlyOldFieldsIsNull_returnsTrue() {
-        ArrayList<String> oldFields = null;
-        ArrayList<String> newFields = new ArrayList<>(List.of("0", "1", "2", "3"));
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isTrue();
-    }
-
-    @Test
-    public void checkFieldUpdates_whenBothAreNull_returnsTrue() {
-        ArrayList<String> oldFields = null;
-        ArrayList<String> newFields = null;
-
-        assertThat(BluetoothPbapUtils.checkFieldUpdates(oldFields, newFields)).isFalse();
-    }
-
     @Test
     public void createFilteredVCardComposer_returnsNewVCardComposer() {
         byte[] filter = new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
@@ -147,22 +107,6 @@ public class BluetoothPbapUtilsTest {
         assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(0);
     }
 
-    @Test
-    public void setContactFields() {
-        String contactId = "1358923";
-
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_NAME, contactId,
-                "test_name");
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_PHONE, contactId,
-                "0123456789");
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_EMAIL, contactId,
-                "android@android.com");
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_ADDRESS, contactId,
-                "SomeAddress");
-
-        assertThat(BluetoothPbapUtils.sContactDataset.get(contactId)).isNotNull();
-    }
-
     @Test
     public void fetchAndSetContacts_whenCursorIsNull_returnsMinusOne() {
         doReturn(null).when(mProxy).contentResolverQuery(
@@ -173,7 +117,7 @@ public class BluetoothPbapUtilsTest {
 
         try {
             assertThat(BluetoothPbapUtils.fetchAndSetContacts(
-                    mContext, handler, null, null, null, true))
+                    mContext, handler, null, null, null))
                     .isEqualTo(-1);
         } finally {
             handlerThread.quit();
@@ -181,12 +125,12 @@ public class BluetoothPbapUtilsTest {
     }
 
     @Test
-    public void fetchAndSetContacts_whenIsLoadTrue_returnsContactsSetSize() {
+    public void fetchAndSetContacts_returnsContactsSetSize() {
         MatrixCursor cursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
-        cursor.addRow(new Object[] {"id1", Phone.CONTENT_ITEM_TYPE, "01234567"});
-        cursor.addRow(new Object[] {"id1", Email.CONTENT_ITEM_TYPE, "android@android.com"});
-        cursor.addRow(new Object[] {"id1", StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
-        cursor.addRow(new Object[] {"id2", StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
+        cursor.addRow(new Object[] {1L, Phone.CONTENT_ITEM_TYPE, "01234567"});
+        cursor.addRow(new Object[] {1L, Email.CONTENT_ITEM_TYPE, "android@android.com"});
+        cursor.addRow(new Object[] {1L, StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
+        cursor.addRow(new Object[] {2L, StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
         cursor.addRow(new Object[] {null, null, null});
 
         doReturn(cursor).when(mProxy).contentResolverQuery(
@@ -196,37 +140,9 @@ public class BluetoothPbapUtilsTest {
         Handler handler = new Handler(handlerThread.getLooper());
 
         try {
-            boolean isLoad = true;
             assertThat(BluetoothPbapUtils.fetchAndSetContacts(
-                    mContext, handler, null, null, null, isLoad))
-                    .isEqualTo(2); // Two IDs exist in sContactSet.
-        } finally {
-            handlerThread.quit();
-        }
-    }
-
-    @Test
-    public void fetchAndSetContacts_whenIsLoadFalse_returnsContactsSetSize() {
-        MatrixCursor cursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
-        cursor.addRow(new Object[] {"id1", Phone.CONTENT_ITEM_TYPE, "01234567"});
-        cursor.addRow(new Object[] {"id1", Email.CONTENT_ITEM_TYPE, "android@android.com"});
-        cursor.addRow(new Object[] {"id1", StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
-        cursor.addRow(new Object[] {"id2", StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
-        cursor.addRow(new Object[] {null, null, null});
-
-        doReturn(cursor).when(mProxy).contentResolverQuery(
-                any(), any(), any(), any(), any(), any());
-        HandlerThread handlerThread = new HandlerThread("BluetoothPbapUtilsTest");
-        handlerThread.start();
-        Handler handler = new Handler(handlerThread.getLooper());
-
-        try {
-            boolean isLoad = false;
-            assertThat(BluetoothPbapUtils.fetchAndSetContacts(
-                    mContext, handler, null, null, null, isLoad))
-                    .isEqualTo(2); // Two IDs exist in sContactSet.
-            assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(1);
-            assertThat(BluetoothPbapUtils.sTotalSvcFields).isEqualTo(1);
+                    mContext, handler, null, null, null))
+                    .isEqualTo(2); // Two IDs exist in sContactFingerprints.
         } finally {
             handlerThread.quit();
         }
@@ -253,18 +169,18 @@ public class BluetoothPbapUtilsTest {
     public void updateSecondaryVersionCounter_whenContactsAreAdded() {
         MatrixCursor contactCursor = new MatrixCursor(
                 new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
-        contactCursor.addRow(new Object[] {"id1", Calendar.getInstance().getTimeInMillis()});
-        contactCursor.addRow(new Object[] {"id2", Calendar.getInstance().getTimeInMillis()});
-        contactCursor.addRow(new Object[] {"id3", Calendar.getInstance().getTimeInMillis()});
-        contactCursor.addRow(new Object[] {"id4", Calendar.getInstance().getTimeInMillis()});
+        contactCursor.addRow(new Object[] {1L, Calendar.getInstance().getTimeInMillis()});
+        contactCursor.addRow(new Object[] {2L, Calendar.getInstance().getTimeInMillis()});
+        contactCursor.addRow(new Object[] {3L, Calendar.getInstance().getTimeInMillis()});
+        contactCursor.addRow(new Object[] {4L, Calendar.getInstance().getTimeInMillis()});
         doReturn(contactCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
 
         MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
-        dataCursor.addRow(new Object[] {"id1", Phone.CONTENT_ITEM_TYPE, "01234567"});
-        dataCursor.addRow(new Object[] {"id1", Email.CONTENT_ITEM_TYPE, "android@android.com"});
-        dataCursor.addRow(new Object[] {"id1", StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
-        dataCursor.addRow(new Object[] {"id2", StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
+        dataCursor.addRow(new Object[] {1L, Phone.CONTENT_ITEM_TYPE, "01234567"});
+        dataCursor.addRow(new Object[] {1L, Email.CONTENT_ITEM_TYPE, "android@android.com"});
+        dataCursor.addRow(new Object[] {1L, StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
+        dataCursor.addRow(new Object[] {2L, StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
         doReturn(dataCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Data.CONTENT_URI), any(), any(), any(), any());
 
@@ -298,12 +214,17 @@ public class BluetoothPbapUtilsTest {
 
         try {
             BluetoothPbapUtils.sTotalContacts = 2;
-            BluetoothPbapUtils.sContactSet.add("id1");
-            BluetoothPbapUtils.sContactSet.add("id2");
+            BluetoothPbapUtils.sContactFingerprints.put(1L, 0, 2, 1);
+            BluetoothPbapUtils.sContactFingerprints.put(2L, 0, 3, 2);
+            BluetoothPbapUtils.sTotalFields = 5;
+            BluetoothPbapUtils.sTotalSvcFields = 3;
 
             BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, handler);
 
             assertThat(BluetoothPbapUtils.sTotalContacts).isEqualTo(0);
+            assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(0);
+            assertThat(BluetoothPbapUtils.sTotalSvcFields).isEqualTo(0);
+            assertThat(BluetoothPbapUtils.sContactFingerprints.size()).isEqualTo(0);
         } finally {
             handlerThread.quit();
         }
@@ -313,33 +234,75 @@ public class BluetoothPbapUtilsTest {
     public void updateSecondaryVersionCounter_whenContactsAreUpdated() {
         MatrixCursor contactCursor = new MatrixCursor(
                 new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
-        contactCursor.addRow(new Object[] {"id1", Calendar.getInstance().getTimeInMillis()});
+        contactCursor.addRow(new Object[] {1L, Calendar.getInstance().getTimeInMillis()});
         doReturn(contactCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
 
         MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
-        dataCursor.addRow(new Object[] {"id1", Phone.CONTENT_ITEM_TYPE, "01234567"});
-        dataCursor.addRow(new Object[] {"id1", Email.CONTENT_ITEM_TYPE, "android@android.com"});
-        dataCursor.addRow(new Object[] {"id1", StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
-        dataCursor.addRow(new Object[] {"id1", StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
+        dataCursor.addRow(new Object[] {1L, Phone.CONTENT_ITEM_TYPE, "01234567"});
+        dataCursor.addRow(new Object[] {1L, Email.CONTENT_ITEM_TYPE, "android@android.com"});
+        dataCursor.addRow(new Object[] {1L, StructuredPostal.CONTENT_ITEM_TYPE, "01234"});
+        dataCursor.addRow(new Object[] {1L, StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
         doReturn(dataCursor).when(mProxy).contentResolverQuery(
                 any(), eq(Data.CONTENT_URI), any(), any(), any(), any());
         assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(0);
 
         BluetoothPbapUtils.sTotalContacts = 1;
-        BluetoothPbapUtils.setContactFields(BluetoothPbapUtils.TYPE_NAME, "id1",
-                "test_previous_name_before_update");
+        BluetoothPbapContactFingerprints.Builder previous =
+                new BluetoothPbapContactFingerprints.Builder();
+        previous.add(StructuredName.CONTENT_ITEM_TYPE, "test_previous_name_before_update");
+        BluetoothPbapUtils.sContactFingerprints.put(1L, previous);
+
+        BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, null);
+
+        assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(1);
+    }
+
+    @Test
+    public void updateSecondaryVersionCounter_readsUpdatedContactsInOneQuery() {
+        long now = Calendar.getInstance().getTimeInMillis();
+        MatrixCursor contactCursor = new MatrixCursor(
+                new String[] {Contacts._ID, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP});
+        contactCursor.addRow(new Object[] {1L, now});
+        contactCursor.addRow(new Object[] {2L, now});
+        contactCursor.addRow(new Object[] {3L, 0L});
+        doReturn(contactCursor).when(mProxy).contentResolverQuery(
+                any(), eq(Contacts.CONTENT_URI), any(), any(), any(), any());
+
+        MatrixCursor dataCursor = new MatrixCursor(new String[] {CONTACT_ID, MIMETYPE, DATA1});
+        dataCursor.addRow(new Object[] {1L, StructuredName.CONTENT_ITEM_TYPE, "And Roid"});
+        dataCursor.addRow(new Object[] {1L, Phone.CONTENT_ITEM_TYPE, "01234567"});
+        dataCursor.addRow(new Object[] {2L, Email.CONTENT_ITEM_TYPE, "android@android.com"});
+        doReturn(dataCursor).when(mProxy).contentResolverQuery(
+                any(), eq(Data.CONTENT_URI), any(), any(), any(), any());
+
+        // Contact 1 is unchanged, contact 2 is new and contact 3 was not updated.
+        BluetoothPbapContactFingerprints.Builder unchanged =
+                new BluetoothPbapContactFingerprints.Builder();
+        unchanged.add(Phone.CONTENT_ITEM_TYPE, "01234567");
+        unchanged.add(StructuredName.CONTENT_ITEM_TYPE, "And Roid");
+        BluetoothPbapUtils.sContactFingerprints.put(1L, unchanged);
+        BluetoothPbapUtils.sContactFingerprints.put(3L, 0, 1, 1);
+        BluetoothPbapUtils.sTotalContacts = 2;
+        BluetoothPbapUtils.sTotalFields = 3;
+        BluetoothPbapUtils.sTotalSvcFields = 3;
 
         BluetoothPbapUtils.updateSecondaryVersionCounter(mContext, null);
 
+        verify(mProxy, times(1)).contentResolverQuery(
+                any(), eq(Data.CONTENT_URI), any(), any(), any(), any());
+        assertThat(BluetoothPbapUtils.sPrimaryVersionCounter).isEqualTo(2);
         assertThat(BluetoothPbapUtils.sSecondaryVersionCounter).isEqualTo(1);
+        assertThat(BluetoothPbapUtils.sTotalContacts).isEqualTo(3);
+        assertThat(BluetoothPbapUtils.sTotalFields).isEqualTo(4);
+        assertThat(BluetoothPbapUtils.sTotalSvcFields).isEqualTo(4);
+        assertThat(BluetoothPbapUtils.sContactsLastUpdated).isEqualTo(now);
     }
 
     private static void clearStaticFields() {
         BluetoothPbapUtils.sPrimaryVersionCounter = 0;
         BluetoothPbapUtils.sSecondaryVersionCounter = 0;
-        BluetoothPbapUtils.sContactSet.clear();
-        BluetoothPbapUtils.sContactDataset.clear();
+        BluetoothPbapUtils.sContactFingerprints.clear();
         BluetoothPbapUtils.sTotalContacts = 0;
         BluetoothPbapUtils.sTotalFields = 0;
         BluetoothPbapUtils.sTotalSvcFields = 0;
@@ -30,8 +30,10 @@ import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.pbap.BluetoothPbapVcardManager.ContactCursorFilter;
+import com.android.bluetooth.pbap.BluetoothPbapVcardManager.FilteredVCard;
 import com.android.bluetooth.pbap.BluetoothPbapVcardManager.PropertySelector;
 import com.android.bluetooth.pbap.BluetoothPbapVcardManager.VCardFilter;
+import com.android.obex.Operation;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +41,8 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @SmallTest
@@ -150,6 +154,58 @@ public class BluetoothPbapVcardManagerNestedClassesTest {
         assertThat(selector.checkVCardSelector(vCard, "1")).isFalse();
     }
 
+    @Test
+    public void FilteredVCard_writeTo_matchesFilterAndStripTelephoneNumber() throws Exception {
+        final String separator = System.getProperty("line.separator");
+        String vCard = "BEGIN:VCARD" + separator
+                + "FN:Test Full Name \u00e9\ud83d\ude00" + separator
+                + "EMAIL:android@android.com" + separator
+                + "NOTE:First line" + separator
+                + " continued" + separator
+                + "TEL;TYPE=CELL:+1-(588)-328 382" + separator
+                + "X-SIP:sip@android.com" + separator
+                + "END:VCARD" + separator;
+
+        byte[] noteExcludeFilter = new byte[] {(byte) 0xFD, (byte) 0xFF, (byte) 0xFF};
+        VCardFilter vCardFilter = new VCardFilter(noteExcludeFilter);
+        BluetoothPbapVcardManager manager = new BluetoothPbapVcardManager(mContext);
+        String expectedVCard = manager.stripTelephoneNumber(
+                vCardFilter.apply(vCard, /*vCardType21=*/ true));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Operation operation = mock(Operation.class);
+        when(operation.openOutputStream()).thenReturn(outputStream);
+        HandlerForStringBuffer buffer = new HandlerForStringBuffer(operation, null);
+        buffer.init();
+
+        FilteredVCard filteredVCard = new FilteredVCard(vCardFilter, /*vCardType21=*/ true,
+                /*stripTelephoneNumber=*/ true);
+        filteredVCard.parse(vCard);
+
+        assertThat(buffer.writeVCard(filteredVCard)).isTrue();
+        assertThat(outputStream.toString(StandardCharsets.UTF_8.name()))
+                .isEqualTo(expectedVCard);
+    }
+
+    @Test
+    public void FilteredVCard_getPropertyBits_matchesPropertySelector() {
+        final String separator = System.getProperty("line.separator");
+        String vCard = "FN:Test Full Name" + separator
+                + "EMAIL;TYPE=HOME:android@android.com:" + separator
+                + "TEL:0123456789" + separator;
+
+        FilteredVCard filteredVCard = new FilteredVCard(new VCardFilter(null),
+                /*vCardType21=*/ true, /*stripTelephoneNumber=*/ false);
+        filteredVCard.parse(vCard);
+
+        byte[] fullNameAndEmailSelector = new byte[] {0x01, 0x02};
+        byte[] fullNameAndOrganizationSelector = new byte[] {0x01, 0x00, 0x02};
+        assertThat(new PropertySelector(fullNameAndEmailSelector)
+                .checkVCardSelector(filteredVCard.getPropertyBits(), "1")).isTrue();
+        assertThat(new PropertySelector(fullNameAndOrganizationSelector)
+                .checkVCardSelector(filteredVCard.getPropertyBits(), "1")).isFalse();
+    }
+
     @Test
     public void ContactCursorFilter_filterByOffset() {
         Cursor contactCursor = mock(Cursor.class);
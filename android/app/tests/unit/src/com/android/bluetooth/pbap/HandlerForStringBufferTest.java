@@ -19,7 +19,9 @@ package com.android.bluetooth.pbap;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -60,7 +62,7 @@ public class HandlerForStringBufferTest {
         HandlerForStringBuffer buffer = new HandlerForStringBuffer(mOperation, ownerVcard);
 
         assertThat(buffer.init()).isTrue();
-        verify(mOutputStream).write(ownerVcard.getBytes());
+        verify(mOutputStream).write(any(byte[].class), eq(0), eq(ownerVcard.getBytes().length));
     }
 
     @Test
@@ -69,7 +71,7 @@ public class HandlerForStringBufferTest {
         HandlerForStringBuffer buffer = new HandlerForStringBuffer(mOperation, ownerVcard);
 
         assertThat(buffer.init()).isTrue();
-        verify(mOutputStream, never()).write(any());
+        verify(mOutputStream, never()).write(any(byte[].class), anyInt(), anyInt());
     }
 
     @Test
@@ -106,7 +108,8 @@ public class HandlerForStringBufferTest {
 
     @Test
     public void writeVCard_withIOExceptionWhenWritingToStream_returnsFalse() throws Exception {
-        doThrow(new IOException()).when(mOutputStream).write(any(byte[].class));
+        doThrow(new IOException()).when(mOutputStream).write(any(byte[].class), anyInt(),
+                anyInt());
         HandlerForStringBuffer buffer = new HandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
         buffer.init();
 
@@ -22,6 +22,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.HeaderSet;
 
 import org.junit.Before;
@@ -49,4 +50,31 @@ public class BluetoothPbapRequestPullPhoneBookSizeTest {
             assertWithMessage("Exception should not happen.").fail();
         }
     }
+
+    @Test
+    public void readResponseHeaders_withVersionCounters_returnsVersion() {
+        byte[] databaseIdentifier = new byte[16];
+        databaseIdentifier[15] = 0x01;
+        byte[] primaryVersionCounter = new byte[16];
+        primaryVersionCounter[15] = (byte) 0xAB;
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PHONEBOOK_SIZE, (short) 7);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_DATABASE_IDENTIFIER, databaseIdentifier);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PRIMARY_VERSION_COUNTER, primaryVersionCounter);
+        HeaderSet headerSet = new HeaderSet();
+        oap.addToHeaderSet(headerSet);
+
+        mRequest.readResponseHeaders(headerSet);
+
+        assertThat(mRequest.getSize()).isEqualTo(7);
+        assertThat(mRequest.getVersion()).isEqualTo("00000000000000000000000000000001:"
+                + "000000000000000000000000000000AB");
+    }
+
+    @Test
+    public void readResponseHeaders_withoutVersionCounters_returnsNullVersion() {
+        mRequest.readResponseHeaders(new HeaderSet());
+
+        assertThat(mRequest.getVersion()).isNull();
+    }
 }
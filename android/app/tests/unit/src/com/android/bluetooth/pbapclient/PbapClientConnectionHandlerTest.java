@@ -19,10 +19,15 @@ package com.android.bluetooth.pbapclient;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.accounts.Account;
@@ -32,6 +37,7 @@ import android.bluetooth.SdpPseRecord;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.ContextWrapper;
+import android.content.res.Resources;
 import android.os.HandlerThread;
 import android.os.Looper;
 
@@ -40,6 +46,7 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.rule.ServiceTestRule;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
@@ -50,6 +57,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -192,4 +200,84 @@ public class PbapClientConnectionHandlerTest {
 
         assertThat(mHandler.isRepositorySupported(mask)).isTrue();
     }
+
+    @Test
+    public void downloadContacts_incrementalWithUnchangedVersion_skipsDownload() {
+        PbapClientConnectionHandler handler = createIncrementalSyncHandler();
+        PhonebookPullRequest processor = mock(PhonebookPullRequest.class);
+        doReturn("v1").when(handler).getStoredVersion(PbapClientConnectionHandler.FAV_PATH);
+
+        // Downloading any contact would fail, there is no OBEX session.
+        handler.downloadContacts(PbapClientConnectionHandler.FAV_PATH, 10, "v1", processor);
+
+        verify(processor, never()).loadStoredContacts();
+        verify(processor, never()).removeStaleContacts();
+        verify(handler, never()).setStoredVersion(anyString(), any());
+    }
+
+    @Test
+    public void downloadContacts_incrementalWithChangedVersion_storesVersionWhenComplete() {
+        PbapClientConnectionHandler handler = createIncrementalSyncHandler();
+        PhonebookPullRequest processor = mock(PhonebookPullRequest.class);
+        doReturn("v1").when(handler).getStoredVersion(PbapClientConnectionHandler.FAV_PATH);
+        when(processor.removeStaleContacts()).thenReturn(true);
+
+        handler.downloadContacts(PbapClientConnectionHandler.FAV_PATH, 0, "v2", processor);
+
+        InOrder order = inOrder(handler, processor);
+        order.verify(handler).setStoredVersion(PbapClientConnectionHandler.FAV_PATH, null);
+        order.verify(processor).loadStoredContacts();
+        order.verify(processor).removeStaleContacts();
+        order.verify(handler).setStoredVersion(PbapClientConnectionHandler.FAV_PATH, "v2");
+    }
+
+    @Test
+    public void downloadContacts_incrementalWithStaleContactsLeft_doesNotStoreVersion() {
+        PbapClientConnectionHandler handler = createIncrementalSyncHandler();
+        PhonebookPullRequest processor = mock(PhonebookPullRequest.class);
+        doReturn(null).when(handler).getStoredVersion(PbapClientConnectionHandler.FAV_PATH);
+        when(processor.removeStaleContacts()).thenReturn(false);
+
+        handler.downloadContacts(PbapClientConnectionHandler.FAV_PATH, 0, "v2", processor);
+
+        verify(handler, never()).setStoredVersion(PbapClientConnectionHandler.FAV_PATH, "v2");
+    }
+
+    @Test
+    public void disconnect_incrementalWithBondedDevice_keepsAccount() {
+        PbapClientConnectionHandler handler = createIncrementalSyncHandler();
+        doNothing().when(handler).removeCallLog();
+        doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService).getBondState(mRemoteDevice);
+
+        handler.handleMessage(handler.obtainMessage(PbapClientConnectionHandler.MSG_DISCONNECT));
+
+        verify(handler, never()).removeAccount();
+        verify(handler).removeCallLog();
+    }
+
+    @Test
+    public void disconnect_incrementalWithUnbondedDevice_removesAccount() {
+        PbapClientConnectionHandler handler = createIncrementalSyncHandler();
+        doNothing().when(handler).removeAccount();
+        doNothing().when(handler).removeCallLog();
+        doReturn(BluetoothDevice.BOND_NONE).when(mAdapterService).getBondState(mRemoteDevice);
+
+        handler.handleMessage(handler.obtainMessage(PbapClientConnectionHandler.MSG_DISCONNECT));
+
+        verify(handler).removeAccount();
+    }
+
+    private PbapClientConnectionHandler createIncrementalSyncHandler() {
+        Resources resources = spy(mTargetContext.getResources());
+        doReturn(true).when(resources).getBoolean(R.bool.config_pbap_client_incremental_sync);
+        doReturn(resources).when(mTargetContext).getResources();
+        PbapClientConnectionHandler handler = spy(new PbapClientConnectionHandler.Builder()
+                .setLooper(mLooper)
+                .setClientSM(mStateMachine)
+                .setContext(mTargetContext)
+                .setRemoteDevice(mRemoteDevice)
+                .build());
+        doNothing().when(handler).setStoredVersion(anyString(), any());
+        return handler;
+    }
 }
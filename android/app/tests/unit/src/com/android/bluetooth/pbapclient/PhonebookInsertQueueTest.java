@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.vcard.VCardEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PhonebookInsertQueueTest {
+
+    private static class RecordingPullRequest extends PullRequest {
+        final List<List<VCardEntry>> mInserted = new ArrayList<>();
+        final CountDownLatch mBlocked = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        boolean mBlock;
+
+        @Override
+        public void onPullComplete() {
+            if (mBlock) {
+                mBlocked.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mInserted.add(mEntries);
+        }
+    }
+
+    private static List<VCardEntry> createBatch(int size) {
+        List<VCardEntry> batch = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            batch.add(new VCardEntry());
+        }
+        return batch;
+    }
+
+    @Test
+    public void finish_waitsForAllBatchesInOrder() throws Exception {
+        RecordingPullRequest processor = new RecordingPullRequest();
+        PhonebookInsertQueue queue = new PhonebookInsertQueue(processor);
+        List<VCardEntry> first = createBatch(2);
+        List<VCardEntry> second = createBatch(1);
+        List<VCardEntry> third = createBatch(3);
+
+        queue.start();
+        queue.add(first);
+        queue.add(second);
+        queue.add(third);
+        queue.finish();
+
+        assertThat(processor.mInserted).containsExactly(first, second, third).inOrder();
+    }
+
+    @Test
+    public void add_downloadsAheadWhileBatchIsInserted() throws Exception {
+        RecordingPullRequest processor = new RecordingPullRequest();
+        processor.mBlock = true;
+        PhonebookInsertQueue queue = new PhonebookInsertQueue(processor);
+
+        queue.start();
+        queue.add(createBatch(1));
+        assertThat(processor.mBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+        // The first batch is being inserted, the next ones wait in the queue.
+        for (int i = 0; i < PhonebookInsertQueue.MAX_PENDING_BATCHES; i++) {
+            queue.add(createBatch(1));
+        }
+        assertThat(processor.mInserted).isEmpty();
+
+        processor.mRelease.countDown();
+        queue.finish();
+
+        assertThat(processor.mInserted).hasSize(PhonebookInsertQueue.MAX_PENDING_BATCHES + 1);
+    }
+}
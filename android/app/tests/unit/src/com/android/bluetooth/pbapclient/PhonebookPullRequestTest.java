@@ -18,22 +18,40 @@ package com.android.bluetooth.pbapclient;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import android.accounts.Account;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.vcard.VCardConstants;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -42,15 +60,28 @@ import java.util.List;
 @RunWith(AndroidJUnit4.class)
 public class PhonebookPullRequestTest {
 
+    private static final Account ACCOUNT =
+            new Account("00:11:22:33:44:55", "com.android.bluetooth.pbapclient");
+
     private PhonebookPullRequest mRequest;
     private Context mTargetContext;
+    private final List<ArrayList<ContentProviderOperation>> mAppliedBatches = new ArrayList<>();
+    @Spy
+    private BluetoothMethodProxy mMethodProxy = BluetoothMethodProxy.getInstance();
 
     @Before
     public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMethodProxy);
         mTargetContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
         mRequest = new PhonebookPullRequest(mTargetContext, mock(Account.class));
     }
 
+    @After
+    public void tearDown() {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
     @Test
     public void onPullComplete_whenResultsAreNull() {
         mRequest.setResults(null);
@@ -74,6 +105,191 @@ public class PhonebookPullRequestTest {
         assertThat(mRequest.complete).isTrue();
     }
 
+    @Test
+    public void nextOpsPerBatch_adaptsToBatchDuration() {
+        final int opsPerBatch = 200;
+        final long target = PhonebookPullRequest.TARGET_BATCH_DURATION_MS;
+
+        assertThat(PhonebookPullRequest.nextOpsPerBatch(opsPerBatch, target / 4))
+                .isEqualTo(opsPerBatch * 2);
+        assertThat(PhonebookPullRequest.nextOpsPerBatch(opsPerBatch, target * 2))
+                .isEqualTo(opsPerBatch / 2);
+        assertThat(PhonebookPullRequest.nextOpsPerBatch(opsPerBatch, target))
+                .isEqualTo(opsPerBatch);
+    }
+
+    @Test
+    public void nextOpsPerBatch_staysWithinBounds() {
+        assertThat(PhonebookPullRequest.nextOpsPerBatch(
+                PhonebookPullRequest.MAX_OPS_PER_BATCH, 0))
+                .isEqualTo(PhonebookPullRequest.MAX_OPS_PER_BATCH);
+        assertThat(PhonebookPullRequest.nextOpsPerBatch(
+                PhonebookPullRequest.MIN_OPS_PER_BATCH, Long.MAX_VALUE))
+                .isEqualTo(PhonebookPullRequest.MIN_OPS_PER_BATCH);
+    }
+
+    @Test
+    public void getContentHash_changesWithContactData() {
+        long hash = getContentHash(createEntry(3));
+
+        assertThat(getContentHash(createEntry(3))).isEqualTo(hash);
+        assertThat(getContentHash(createEntry(2))).isNotEqualTo(hash);
+    }
+
+    @Test
+    public void getContentHash_hashesPhotosByValue() {
+        VCardEntry entry = new VCardEntry();
+        entry.addProperty(createPhotoProperty(new byte[] {1, 2, 3}));
+        VCardEntry sameEntry = new VCardEntry();
+        sameEntry.addProperty(createPhotoProperty(new byte[] {1, 2, 3}));
+        VCardEntry otherEntry = new VCardEntry();
+        otherEntry.addProperty(createPhotoProperty(new byte[] {1, 2, 4}));
+
+        assertThat(getContentHash(sameEntry)).isEqualTo(getContentHash(entry));
+        assertThat(getContentHash(otherEntry)).isNotEqualTo(getContentHash(entry));
+    }
+
+    @Test
+    public void removeStaleContacts_withoutStoredContacts_returnsFalse() {
+        assertThat(mRequest.removeStaleContacts()).isFalse();
+    }
+
+    @Test
+    public void onPullComplete_incremental_insertsAndTagsChangedContactsOnly() throws Exception {
+        VCardEntry unchanged = createEntry(2);
+        VCardEntry changed = createEntry(3);
+        PhonebookPullRequest request =
+                createIncrementalRequest(new Object[] {7L, getContentHash(unchanged)});
+        request.setResults(List.of(unchanged, changed));
+
+        request.onPullComplete();
+
+        assertThat(mAppliedBatches).hasSize(1);
+        ArrayList<ContentProviderOperation> operations = mAppliedBatches.get(0);
+        // The changed contact is inserted, then its raw contact is tagged.
+        assertThat(operations).hasSize(changed.constructInsertOperations(null, null).size() + 1);
+        ContentProviderOperation tag = operations.get(operations.size() - 1);
+        assertThat(tag.isUpdate()).isTrue();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        results[0] = new ContentProviderResult(
+                ContentUris.withAppendedId(RawContacts.CONTENT_URI, 42));
+        ContentValues values = tag.resolveValueBackReferences(results, results.length);
+        assertThat(values.getAsString(RawContacts.SYNC1))
+                .isEqualTo(Long.toString(getContentHash(changed)));
+        assertThat(values.getAsString(RawContacts.SYNC2))
+                .isEqualTo(PbapClientConnectionHandler.PB_PATH);
+        assertThat(tag.resolveSelectionArgsBackReferences(results, results.length)).asList()
+                .containsExactly("42");
+    }
+
+    @Test
+    public void onPullComplete_incremental_tagsEachChangedContactOfBatch() throws Exception {
+        VCardEntry first = createEntry(1);
+        VCardEntry second = createEntry(2);
+        VCardEntry third = createEntry(3);
+        PhonebookPullRequest request = createIncrementalRequest();
+        request.setResults(List.of(first, second, third));
+
+        request.onPullComplete();
+
+        assertThat(mAppliedBatches).hasSize(1);
+        ArrayList<ContentProviderOperation> operations = mAppliedBatches.get(0);
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        List<String> hashes = new ArrayList<>();
+        int rawContactIndex = 0;
+        for (VCardEntry entry : List.of(first, second, third)) {
+            int tagIndex = rawContactIndex + entry.constructInsertOperations(null, null).size();
+            results[rawContactIndex] = new ContentProviderResult(
+                    ContentUris.withAppendedId(RawContacts.CONTENT_URI, rawContactIndex));
+            ContentProviderOperation tag = operations.get(tagIndex);
+            assertThat(tag.isUpdate()).isTrue();
+            hashes.add(tag.resolveValueBackReferences(results, results.length)
+                    .getAsString(RawContacts.SYNC1));
+            assertThat(tag.resolveSelectionArgsBackReferences(results, results.length)).asList()
+                    .containsExactly(Integer.toString(rawContactIndex));
+            rawContactIndex = tagIndex + 1;
+        }
+        assertThat(rawContactIndex).isEqualTo(operations.size());
+        // Each contact is tagged with the hash it gets when pulled on its own.
+        assertThat(hashes).containsExactly(Long.toString(getContentHash(first)),
+                Long.toString(getContentHash(second)), Long.toString(getContentHash(third)))
+                .inOrder();
+    }
+
+    @Test
+    public void onPullComplete_incremental_keepsOneStoredContactPerDownloadedContact()
+            throws Exception {
+        VCardEntry entry = createEntry(2);
+        PhonebookPullRequest request =
+                createIncrementalRequest(new Object[] {7L, getContentHash(entry)});
+        request.setResults(List.of(entry, createEntry(2)));
+
+        request.onPullComplete();
+
+        // The second copy of the contact is not stored yet.
+        assertThat(mAppliedBatches).hasSize(1);
+        assertThat(mAppliedBatches.get(0)).hasSize(
+                entry.constructInsertOperations(null, null).size() + 1);
+    }
+
+    @Test
+    public void removeStaleContacts_deletesContactsNotDownloadedAgain() throws Exception {
+        VCardEntry entry = createEntry(2);
+        PhonebookPullRequest request = createIncrementalRequest(
+                new Object[] {7L, getContentHash(entry)},
+                new Object[] {8L, getContentHash(createEntry(1))});
+        request.setResults(List.of(entry));
+        request.onPullComplete();
+        assertThat(mAppliedBatches).isEmpty();
+
+        assertThat(request.removeStaleContacts()).isTrue();
+
+        assertThat(mAppliedBatches).hasSize(1);
+        assertThat(mAppliedBatches.get(0)).hasSize(1);
+        ContentProviderOperation delete = mAppliedBatches.get(0).get(0);
+        assertThat(delete.isDelete()).isTrue();
+        assertThat(delete.getUri().getQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER))
+                .isEqualTo("true");
+        assertThat(delete.resolveSelectionArgsBackReferences(new ContentProviderResult[0], 0))
+                .asList().containsExactly("8");
+    }
+
+    // Creates a request syncing PB_PATH incrementally, whose account stores the given
+    // {raw contact id, content hash} rows.
+    private PhonebookPullRequest createIncrementalRequest(Object[]... storedContacts)
+            throws Exception {
+        ContentResolver contentResolver = mock(ContentResolver.class);
+        Context context = mock(Context.class);
+        when(context.getContentResolver()).thenReturn(contentResolver);
+        doAnswer(invocation -> {
+            mAppliedBatches.add(new ArrayList<>(
+                    invocation.<List<ContentProviderOperation>>getArgument(1)));
+            return new ContentProviderResult[0];
+        }).when(contentResolver).applyBatch(anyString(), any());
+
+        MatrixCursor cursor = new MatrixCursor(new String[] {RawContacts._ID, RawContacts.SYNC1});
+        for (Object[] storedContact : storedContacts) {
+            cursor.addRow(new Object[] {storedContact[0], Long.toString((long) storedContact[1])});
+        }
+        doReturn(cursor).when(mMethodProxy).contentResolverQuery(any(),
+                eq(RawContacts.CONTENT_URI), any(), any(), any(), any());
+
+        PhonebookPullRequest request = new PhonebookPullRequest(context, ACCOUNT);
+        request.loadStoredContacts();
+        return request;
+    }
+
+    private static long getContentHash(VCardEntry entry) {
+        return PhonebookPullRequest.getContentHash(entry.constructInsertOperations(null, null), 0);
+    }
+
+    private VCardProperty createPhotoProperty(byte[] photo) {
+        VCardProperty property = new VCardProperty();
+        property.setName(VCardConstants.PROPERTY_PHOTO);
+        property.setByteValue(photo);
+        return property;
+    }
+
     private VCardProperty createProperty(String name, String value) {
         VCardProperty property = new VCardProperty();
         property.setName(name);
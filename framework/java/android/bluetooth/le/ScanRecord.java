@@ -315,32 +315,50 @@ public final class ScanRecord {
      */
     public static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
 
+    // Number of ints used per AD structure in the field table.
+    private static final int FIELD_ENTRY_SIZE = 3;
+    private static final int FIELD_TYPE = 0;
+    private static final int FIELD_OFFSET = 1;
+    private static final int FIELD_LENGTH = 2;
+    // Enough for a typical legacy advertisement plus scan response.
+    private static final int INITIAL_FIELD_CAPACITY = 8;
+
     // Flags of the advertising data.
     private final int mAdvertiseFlags;
 
-    @Nullable
-    private final List<ParcelUuid> mServiceUuids;
-    @Nullable
-    private final List<ParcelUuid> mServiceSolicitationUuids;
-
-    private final SparseArray<byte[]> mManufacturerSpecificData;
-
-    private final Map<ParcelUuid, byte[]> mServiceData;
-
     // Transmission power level(in dB).
     private final int mTxPowerLevel;
 
-    // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
-
     // Raw bytes of scan record.
     private final byte[] mBytes;
 
-    private final HashMap<Integer, byte[]> mAdvertisingDataMap;
+    // Table of (type, data offset, data length) of each AD structure in mBytes, in order.
+    private final int[] mFields;
+    private final int mFieldCount;
+
+    // False if mBytes could not be parsed; only the advertising data map is then populated.
+    private final boolean mValid;
 
     // Transport Discovery data.
     private final TransportDiscoveryData mTransportDiscoveryData;
 
+    // The following are materialized from mFields on first access.
+    private volatile boolean mUuidsParsed;
+    @Nullable
+    private List<ParcelUuid> mServiceUuids;
+    @Nullable
+    private List<ParcelUuid> mServiceSolicitationUuids;
+
+    private volatile SparseArray<byte[]> mManufacturerSpecificData;
+
+    private volatile Map<ParcelUuid, byte[]> mServiceData;
+
+    // Local name of the Bluetooth LE device.
+    private volatile boolean mDeviceNameParsed;
+    private String mDeviceName;
+
+    private volatile HashMap<Integer, byte[]> mAdvertisingDataMap;
+
     /**
      * Returns the advertising flags indicating the discoverable mode and capability of the device.
      * Returns -1 if the flag field is not set.
@@ -354,6 +372,7 @@ public final class ScanRecord {
      * bluetooth GATT services.
      */
     public List<ParcelUuid> getServiceUuids() {
+        ensureUuidsParsed();
         return mServiceUuids;
     }
 
@@ -363,6 +382,7 @@ public final class ScanRecord {
      */
     @NonNull
     public List<ParcelUuid> getServiceSolicitationUuids() {
+        ensureUuidsParsed();
         return mServiceSolicitationUuids;
     }
 
@@ -371,7 +391,20 @@ public final class ScanRecord {
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
-        return mManufacturerSpecificData;
+        if (!mValid) {
+            return null;
+        }
+        SparseArray<byte[]> manufacturerData = mManufacturerSpecificData;
+        if (manufacturerData == null) {
+            synchronized (this) {
+                manufacturerData = mManufacturerSpecificData;
+                if (manufacturerData == null) {
+                    manufacturerData = parseManufacturerData();
+                    mManufacturerSpecificData = manufacturerData;
+                }
+            }
+        }
+        return manufacturerData;
     }
 
     /**
@@ -380,17 +413,31 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        if (mManufacturerSpecificData == null) {
+        SparseArray<byte[]> manufacturerData = getManufacturerSpecificData();
+        if (manufacturerData == null) {
             return null;
         }
-        return mManufacturerSpecificData.get(manufacturerId);
+        return manufacturerData.get(manufacturerId);
     }
 
     /**
      * Returns a map of service UUID and its corresponding service data.
      */
     public Map<ParcelUuid, byte[]> getServiceData() {
-        return mServiceData;
+        if (!mValid) {
+            return null;
+        }
+        Map<ParcelUuid, byte[]> serviceData = mServiceData;
+        if (serviceData == null) {
+            synchronized (this) {
+                serviceData = mServiceData;
+                if (serviceData == null) {
+                    serviceData = parseServiceData();
+                    mServiceData = serviceData;
+                }
+            }
+        }
+        return serviceData;
     }
 
     /**
@@ -399,10 +446,14 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getServiceData(ParcelUuid serviceDataUuid) {
-        if (serviceDataUuid == null || mServiceData == null) {
+        if (serviceDataUuid == null) {
+            return null;
+        }
+        Map<ParcelUuid, byte[]> serviceData = getServiceData();
+        if (serviceData == null) {
             return null;
         }
-        return mServiceData.get(serviceDataUuid);
+        return serviceData.get(serviceDataUuid);
     }
 
     /**
@@ -421,6 +472,14 @@ public final class ScanRecord {
      */
     @Nullable
     public String getDeviceName() {
+        if (!mDeviceNameParsed) {
+            synchronized (this) {
+                if (!mDeviceNameParsed) {
+                    mDeviceName = parseDeviceName();
+                    mDeviceNameParsed = true;
+                }
+            }
+        }
         return mDeviceName;
     }
 
@@ -431,7 +490,21 @@ public final class ScanRecord {
      * (https://www.bluetooth.com/specifications/assigned-numbers/)
      */
     public @NonNull Map<Integer, byte[]> getAdvertisingDataMap() {
-        return mAdvertisingDataMap;
+        HashMap<Integer, byte[]> advertisingDataMap = mAdvertisingDataMap;
+        if (advertisingDataMap == null) {
+            synchronized (this) {
+                advertisingDataMap = mAdvertisingDataMap;
+                if (advertisingDataMap == null) {
+                    advertisingDataMap = new HashMap<Integer, byte[]>();
+                    for (int i = 0; i < mFieldCount; i++) {
+                        advertisingDataMap.put(fieldType(i),
+                                extractBytes(mBytes, fieldOffset(i), fieldLength(i)));
+                    }
+                    mAdvertisingDataMap = advertisingDataMap;
+                }
+            }
+        }
+        return advertisingDataMap;
     }
 
     /**
@@ -473,21 +546,13 @@ public final class ScanRecord {
         return false;
     }
 
-    private ScanRecord(List<ParcelUuid> serviceUuids,
-            List<ParcelUuid> serviceSolicitationUuids,
-            SparseArray<byte[]> manufacturerData,
-            Map<ParcelUuid, byte[]> serviceData,
-            int advertiseFlags, int txPowerLevel,
-            String localName, HashMap<Integer, byte[]> advertisingDataMap,
-            TransportDiscoveryData transportDiscoveryData, byte[] bytes) {
-        mServiceSolicitationUuids = serviceSolicitationUuids;
-        mServiceUuids = serviceUuids;
-        mManufacturerSpecificData = manufacturerData;
-        mServiceData = serviceData;
-        mDeviceName = localName;
+    private ScanRecord(int[] fields, int fieldCount, boolean valid, int advertiseFlags,
+            int txPowerLevel, TransportDiscoveryData transportDiscoveryData, byte[] bytes) {
+        mFields = fields;
+        mFieldCount = fieldCount;
+        mValid = valid;
         mAdvertiseFlags = advertiseFlags;
         mTxPowerLevel = txPowerLevel;
-        mAdvertisingDataMap = advertisingDataMap;
         mTransportDiscoveryData = transportDiscoveryData;
         mBytes = bytes;
     }
@@ -499,6 +564,9 @@ public final class ScanRecord {
      * <p>
      * All numerical multi-byte entities and values shall use little-endian <strong>byte</strong>
      * order.
+     * <p>
+     * Only the position of each AD structure is recorded here; UUID lists, maps and copies of the
+     * field data are materialized on first access through the corresponding getter.
      *
      * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response.
      * @hide
@@ -511,14 +579,9 @@ public final class ScanRecord {
 
         int currentPos = 0;
         int advertiseFlag = -1;
-        List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
-        List<ParcelUuid> serviceSolicitationUuids = new ArrayList<ParcelUuid>();
-        String localName = null;
         int txPowerLevel = Integer.MIN_VALUE;
-
-        SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
-        Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
-        HashMap<Integer, byte[]> advertisingDataMap = new HashMap<Integer, byte[]>();
+        int[] fields = new int[FIELD_ENTRY_SIZE * INITIAL_FIELD_CAPACITY];
+        int fieldCount = 0;
 
         TransportDiscoveryData transportDiscoveryData = null;
 
@@ -533,43 +596,35 @@ public final class ScanRecord {
                 int dataLength = length - 1;
                 // fieldType is unsigned int.
                 int fieldType = scanRecord[currentPos++] & 0xFF;
-                byte[] advertisingData = extractBytes(scanRecord, currentPos, dataLength);
-                advertisingDataMap.put(fieldType, advertisingData);
+                checkBounds(scanRecord, currentPos, dataLength);
+                if ((fieldCount + 1) * FIELD_ENTRY_SIZE > fields.length) {
+                    fields = Arrays.copyOf(fields, fields.length * 2);
+                }
+                fields[fieldCount * FIELD_ENTRY_SIZE + FIELD_TYPE] = fieldType;
+                fields[fieldCount * FIELD_ENTRY_SIZE + FIELD_OFFSET] = currentPos;
+                fields[fieldCount * FIELD_ENTRY_SIZE + FIELD_LENGTH] = dataLength;
+                fieldCount++;
                 switch (fieldType) {
                     case DATA_TYPE_FLAGS:
                         advertiseFlag = scanRecord[currentPos] & 0xFF;
                         break;
                     case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
                     case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos,
-                                dataLength, BluetoothUuid.UUID_BYTES_16_BIT, serviceUuids);
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                        checkUuidListBounds(scanRecord, currentPos, dataLength,
+                                BluetoothUuid.UUID_BYTES_16_BIT);
                         break;
                     case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
                     case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_32_BIT, serviceUuids);
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                        checkUuidListBounds(scanRecord, currentPos, dataLength,
+                                BluetoothUuid.UUID_BYTES_32_BIT);
                         break;
                     case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
                     case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_128_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
-                        parseServiceSolicitationUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_16_BIT, serviceSolicitationUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
-                        parseServiceSolicitationUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_32_BIT, serviceSolicitationUuids);
-                        break;
                     case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
-                        parseServiceSolicitationUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_128_BIT, serviceSolicitationUuids);
-                        break;
-                    case DATA_TYPE_LOCAL_NAME_SHORT:
-                    case DATA_TYPE_LOCAL_NAME_COMPLETE:
-                        localName = new String(
-                                extractBytes(scanRecord, currentPos, dataLength));
+                        checkUuidListBounds(scanRecord, currentPos, dataLength,
+                                BluetoothUuid.UUID_BYTES_128_BIT);
                         break;
                     case DATA_TYPE_TX_POWER_LEVEL:
                         txPowerLevel = scanRecord[currentPos];
@@ -577,29 +632,15 @@ public final class ScanRecord {
                     case DATA_TYPE_SERVICE_DATA_16_BIT:
                     case DATA_TYPE_SERVICE_DATA_32_BIT:
                     case DATA_TYPE_SERVICE_DATA_128_BIT:
-                        int serviceUuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
-                        if (fieldType == DATA_TYPE_SERVICE_DATA_32_BIT) {
-                            serviceUuidLength = BluetoothUuid.UUID_BYTES_32_BIT;
-                        } else if (fieldType == DATA_TYPE_SERVICE_DATA_128_BIT) {
-                            serviceUuidLength = BluetoothUuid.UUID_BYTES_128_BIT;
-                        }
-
-                        byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos,
-                                serviceUuidLength);
-                        ParcelUuid serviceDataUuid = BluetoothUuid.parseUuidFrom(
-                                serviceDataUuidBytes);
-                        byte[] serviceDataArray = extractBytes(scanRecord,
-                                currentPos + serviceUuidLength, dataLength - serviceUuidLength);
-                        serviceData.put(serviceDataUuid, serviceDataArray);
+                        checkBounds(scanRecord, currentPos, serviceDataUuidLength(fieldType));
+                        checkBounds(scanRecord, currentPos + serviceDataUuidLength(fieldType),
+                                dataLength - serviceDataUuidLength(fieldType));
                         break;
                     case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
                         // The first two bytes of the manufacturer specific data are
                         // manufacturer ids in little endian.
-                        int manufacturerId = ((scanRecord[currentPos + 1] & 0xFF) << 8)
-                                + (scanRecord[currentPos] & 0xFF);
-                        byte[] manufacturerDataBytes = extractBytes(scanRecord, currentPos + 2,
-                                dataLength - 2);
-                        manufacturerData.put(manufacturerId, manufacturerDataBytes);
+                        checkBounds(scanRecord, currentPos, 2);
+                        checkBounds(scanRecord, currentPos + 2, dataLength - 2);
                         break;
                     case DATA_TYPE_TRANSPORT_DISCOVERY_DATA:
                         // -1 / +1 to include the type in the extract
@@ -610,38 +651,154 @@ public final class ScanRecord {
                         break;
 
                     default:
-                        // Just ignore, we don't handle such data type.
+                        // Other data types, including the local name, are only read on access.
                         break;
                 }
                 currentPos += dataLength;
             }
 
-            if (serviceUuids.isEmpty()) {
-                serviceUuids = null;
-            }
-            return new ScanRecord(serviceUuids, serviceSolicitationUuids, manufacturerData,
-                    serviceData, advertiseFlag, txPowerLevel, localName, advertisingDataMap,
+            return new ScanRecord(fields, fieldCount, true, advertiseFlag, txPowerLevel,
                     transportDiscoveryData, scanRecord);
         } catch (Exception e) {
             Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord));
             // As the record is invalid, ignore all the parsed results for this packet
             // and return an empty record with raw scanRecord bytes in results
-            return new ScanRecord(null, null, null, null, -1, Integer.MIN_VALUE, null,
-                    advertisingDataMap, null, scanRecord);
+            return new ScanRecord(fields, fieldCount, false, -1, Integer.MIN_VALUE, null,
+                    scanRecord);
         }
     }
 
     @Override
     public String toString() {
-        return "ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags + ", mServiceUuids=" + mServiceUuids
-                + ", mServiceSolicitationUuids=" + mServiceSolicitationUuids
+        return "ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags
+                + ", mServiceUuids=" + getServiceUuids()
+                + ", mServiceSolicitationUuids=" + getServiceSolicitationUuids()
                 + ", mManufacturerSpecificData="
-                + BluetoothLeUtils.toString(mManufacturerSpecificData)
-                + ", mServiceData=" + BluetoothLeUtils.toString(mServiceData)
-                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + mDeviceName
+                + BluetoothLeUtils.toString(getManufacturerSpecificData())
+                + ", mServiceData=" + BluetoothLeUtils.toString(getServiceData())
+                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + getDeviceName()
                 + ", mTransportDiscoveryData=" + mTransportDiscoveryData + "]";
     }
 
+    private int fieldType(int index) {
+        return mFields[index * FIELD_ENTRY_SIZE + FIELD_TYPE];
+    }
+
+    private int fieldOffset(int index) {
+        return mFields[index * FIELD_ENTRY_SIZE + FIELD_OFFSET];
+    }
+
+    private int fieldLength(int index) {
+        return mFields[index * FIELD_ENTRY_SIZE + FIELD_LENGTH];
+    }
+
+    private void ensureUuidsParsed() {
+        if (mUuidsParsed) {
+            return;
+        }
+        synchronized (this) {
+            if (mUuidsParsed) {
+                return;
+            }
+            if (mValid) {
+                List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
+                List<ParcelUuid> serviceSolicitationUuids = new ArrayList<ParcelUuid>();
+                for (int i = 0; i < mFieldCount; i++) {
+                    switch (fieldType(i)) {
+                        case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                        case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                            parseServiceUuid(mBytes, fieldOffset(i), fieldLength(i),
+                                    BluetoothUuid.UUID_BYTES_16_BIT, serviceUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                        case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                            parseServiceUuid(mBytes, fieldOffset(i), fieldLength(i),
+                                    BluetoothUuid.UUID_BYTES_32_BIT, serviceUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                        case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                            parseServiceUuid(mBytes, fieldOffset(i), fieldLength(i),
+                                    BluetoothUuid.UUID_BYTES_128_BIT, serviceUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                            parseServiceSolicitationUuid(mBytes, fieldOffset(i), fieldLength(i),
+                                    BluetoothUuid.UUID_BYTES_16_BIT, serviceSolicitationUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                            parseServiceSolicitationUuid(mBytes, fieldOffset(i), fieldLength(i),
+                                    BluetoothUuid.UUID_BYTES_32_BIT, serviceSolicitationUuids);
+                            break;
+                        case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                            parseServiceSolicitationUuid(mBytes, fieldOffset(i), fieldLength(i),
+                                    BluetoothUuid.UUID_BYTES_128_BIT, serviceSolicitationUuids);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                mServiceUuids = serviceUuids.isEmpty() ? null : serviceUuids;
+                mServiceSolicitationUuids = serviceSolicitationUuids;
+            }
+            mUuidsParsed = true;
+        }
+    }
+
+    private SparseArray<byte[]> parseManufacturerData() {
+        SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
+        for (int i = 0; i < mFieldCount; i++) {
+            if (fieldType(i) != DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                continue;
+            }
+            int offset = fieldOffset(i);
+            int manufacturerId = ((mBytes[offset + 1] & 0xFF) << 8) + (mBytes[offset] & 0xFF);
+            manufacturerData.put(manufacturerId,
+                    extractBytes(mBytes, offset + 2, fieldLength(i) - 2));
+        }
+        return manufacturerData;
+    }
+
+    private Map<ParcelUuid, byte[]> parseServiceData() {
+        Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
+        for (int i = 0; i < mFieldCount; i++) {
+            int fieldType = fieldType(i);
+            if (fieldType != DATA_TYPE_SERVICE_DATA_16_BIT
+                    && fieldType != DATA_TYPE_SERVICE_DATA_32_BIT
+                    && fieldType != DATA_TYPE_SERVICE_DATA_128_BIT) {
+                continue;
+            }
+            int serviceUuidLength = serviceDataUuidLength(fieldType);
+            ParcelUuid serviceDataUuid = BluetoothUuid.parseUuidFrom(
+                    extractBytes(mBytes, fieldOffset(i), serviceUuidLength));
+            serviceData.put(serviceDataUuid, extractBytes(mBytes,
+                    fieldOffset(i) + serviceUuidLength, fieldLength(i) - serviceUuidLength));
+        }
+        return serviceData;
+    }
+
+    private String parseDeviceName() {
+        if (!mValid) {
+            return null;
+        }
+        // The last local name in the record wins.
+        for (int i = mFieldCount - 1; i >= 0; i--) {
+            int fieldType = fieldType(i);
+            if (fieldType == DATA_TYPE_LOCAL_NAME_SHORT
+                    || fieldType == DATA_TYPE_LOCAL_NAME_COMPLETE) {
+                return new String(mBytes, fieldOffset(i), fieldLength(i));
+            }
+        }
+        return null;
+    }
+
+    private static int serviceDataUuidLength(int fieldType) {
+        if (fieldType == DATA_TYPE_SERVICE_DATA_32_BIT) {
+            return BluetoothUuid.UUID_BYTES_32_BIT;
+        } else if (fieldType == DATA_TYPE_SERVICE_DATA_128_BIT) {
+            return BluetoothUuid.UUID_BYTES_128_BIT;
+        }
+        return BluetoothUuid.UUID_BYTES_16_BIT;
+    }
+
     // Parse service UUIDs.
     private static int parseServiceUuid(byte[] scanRecord, int currentPos, int dataLength,
             int uuidLength, List<ParcelUuid> serviceUuids) {
@@ -669,6 +826,27 @@ public final class ScanRecord {
         return currentPos;
     }
 
+    // Throws the same exception extractBytes would for a UUID list, without copying.
+    private static void checkUuidListBounds(byte[] scanRecord, int currentPos, int dataLength,
+            int uuidLength) {
+        while (dataLength > 0) {
+            checkBounds(scanRecord, currentPos, uuidLength);
+            dataLength -= uuidLength;
+            currentPos += uuidLength;
+        }
+    }
+
+    // Throws the same exception extractBytes would for the given range, without copying.
+    private static void checkBounds(byte[] scanRecord, int start, int length) {
+        if (length < 0) {
+            throw new NegativeArraySizeException(String.valueOf(length));
+        }
+        if (start < 0 || start + length > scanRecord.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "start=" + start + ", length=" + length + ", size=" + scanRecord.length);
+        }
+    }
+
     // Helper method to extract bytes from byte array.
     private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
         byte[] bytes = new byte[length];
@@ -154,6 +154,42 @@ public class ScanRecordTest extends TestCase {
                 0x50, 0x64 }, data.getServiceData().get(uuid2));
     }
 
+    @SmallTest
+    public void testParser_lazyFieldsAreStable() {
+        byte[] scanRecord = new byte[] {
+                0x02, 0x01, 0x1a, // advertising flags
+                0x05, 0x02, 0x0b, 0x11, 0x0a, 0x11, // 16 bit service uuids
+                0x05, (byte) 0xff, (byte) 0xe0, 0x00, 0x02, 0x15, // manufacturer specific data
+                0x04, (byte) 0xff, (byte) 0xe0, 0x00, 0x03, // later data for the same id wins
+        };
+        ScanRecord data = ScanRecord.parseFromBytes(scanRecord);
+
+        assertArrayEquals(new byte[] {0x03}, data.getManufacturerSpecificData(0x00E0));
+        assertSame(data.getManufacturerSpecificData(), data.getManufacturerSpecificData());
+        assertSame(data.getServiceUuids(), data.getServiceUuids());
+        assertSame(data.getAdvertisingDataMap(), data.getAdvertisingDataMap());
+        assertNull(data.getDeviceName());
+        assertTrue(data.getServiceSolicitationUuids().isEmpty());
+        assertEquals(3, data.getAdvertisingDataMap().size());
+    }
+
+    @SmallTest
+    public void testParser_malformedRecord() {
+        byte[] scanRecord = new byte[] {
+                0x02, 0x01, 0x1a, // advertising flags
+                0x02, (byte) 0xff, 0x4c, // manufacturer specific data without a full id
+        };
+        ScanRecord data = ScanRecord.parseFromBytes(scanRecord);
+
+        assertEquals(-1, data.getAdvertiseFlags());
+        assertNull(data.getServiceUuids());
+        assertNull(data.getManufacturerSpecificData());
+        assertNull(data.getManufacturerSpecificData(0x004C));
+        assertNull(data.getServiceData());
+        assertEquals(2, data.getAdvertisingDataMap().size());
+        assertSame(scanRecord, data.getBytes());
+    }
+
     // Assert two byte arrays are equal.
     private static void assertArrayEquals(byte[] expected, byte[] actual) {
         if (!Arrays.equals(expected, actual)) {
@@ -247,6 +247,9 @@ void BleScannerInterfaceImpl::ScanFilterAdd(int filter_index,
     bluetooth::hci::AdvertisingPacketContentFilterCommand command{};
     if (!parse_filter_command(command, filters[i])) {
       LOG_ERROR("invalid apcf command");
+      // The caller waits for the completion of every filter command.
+      do_in_jni_thread(FROM_HERE, base::Bind(cb, 0, 0, 0,
+                                             btm_status_value(BTM_ILLEGAL_VALUE)));
       return;
     }
     new_filters.push_back(command);